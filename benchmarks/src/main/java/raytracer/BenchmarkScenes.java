@@ -0,0 +1,76 @@
+package raytracer;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Random;
+
+/**
+ * The BenchmarkScenes class
+ *
+ * Builds the scenes the benchmarks render: the scene of {@link Main}, read from
+ * resources/SceneToRender.txt, or a cloud of random spheres. Random scenes use a fixed seed,
+ * so every run and every fork traces exactly the same rays.
+ */
+final class BenchmarkScenes {
+    /** Value of a spheres parameter that selects the scene of {@link Main} */
+    static final String MAIN = "main";
+
+    private static final long SEED = 1;
+
+    private BenchmarkScenes() {
+    }
+
+    /**
+     * Creates a scene, without a window, ready for rays to be traced
+     *
+     * @param spheres   "main" for the scene of Main, otherwise the number of random spheres
+     * @param width     width of the frame in pixels
+     * @param height    height of the frame in pixels
+     * @return          the scene, its camera set up and its hierarchy built
+     * @throws IOException  if the main scene cannot be read
+     */
+    static RayTracerAPI create(String spheres, int width, int height) throws IOException {
+        RayTracerAPI scene = new RayTracerAPI(height, width);
+        if (MAIN.equals(spheres)) {
+            SceneFile.load(Paths.get(System.getProperty("raytracer.scene", "../resources/SceneToRender.txt")), scene);
+        } else {
+            addRandomSpheres(scene, Integer.parseInt(spheres));
+        }
+        scene.setupCamera();
+        scene.prepareRender();
+        return scene;
+    }
+
+    /**
+     * Fills a scene with spheres in front of the default camera, lit by ambient, directional and
+     * point lights, half of them reflective
+     * The radii shrink as the count grows, so the spheres cover about the same part of the frame
+     *
+     * @param scene     the scene to fill
+     * @param count     the number of spheres
+     */
+    static void addRandomSpheres(RayTracerAPI scene, int count) {
+        scene.setlight(0.2f, 0.2f, 0.2f, "ambient");
+        scene.setlight(0.6f, 0.6f, 0.6f, "directional", -1, -1, -1);
+        scene.setlight(0.4f, 0.4f, 0.3f, "point", 2, 4, 6);
+        float scale = (float) Math.cbrt(1000.0 / count);
+        Random random = new Random(SEED);
+        for (int k = 0; k < count; k++) {
+            float reflection = k % 2 == 0 ? 0.5f : 0f;
+            scene.setSurface(random.nextFloat(), random.nextFloat(), random.nextFloat(), 0.5f, 0.9f, 0.4f, 10.0f, reflection, 0, 1);
+            scene.createSphere(random.nextFloat() * 6 - 3, random.nextFloat() * 6 - 3, -random.nextFloat() * 3,
+                    (0.05f + random.nextFloat() * 0.2f) * scale);
+        }
+    }
+
+    /**
+     * Parses a resolution such as 640x480
+     *
+     * @param resolution    width and height separated by an x
+     * @return              the width and the height
+     */
+    static int[] resolution(String resolution) {
+        int x = resolution.indexOf('x');
+        return new int[]{Integer.parseInt(resolution.substring(0, x)), Integer.parseInt(resolution.substring(x + 1))};
+    }
+}
@@ -0,0 +1,135 @@
+package raytracer;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.raydefinition.*;
+
+/**
+ * The IntersectionBenchmark class
+ *
+ * Measures single rays: one ray against one {@link Sphere}, camera rays finding their closest hit
+ * through the bounding volume hierarchy, and shadow rays looking for any occluder. Every operation
+ * traces exactly one ray, so the scores are rays per second.
+ * The rays are computed once per trial and cycled through, so the hierarchy sees the same mix of
+ * hits and misses as a real frame.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class IntersectionBenchmark {
+    private static final int RAYS = 4096;                 // power of two, so the next ray is found with a mask
+    private static final float TINY = 0.001f;             // same offset as the shadow rays of Colour.Shading
+
+    /**
+     * A single sphere and rays aimed around it, about half of which hit
+     */
+    @State(Scope.Thread)
+    public static class SphereState {
+        Sphere sphere;
+        Ray ray = new Ray();
+        float[] directions = new float[3 * RAYS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            RayTracerAPI scene = new RayTracerAPI(1, 1);
+            scene.createSphere(0, 0, 0, 1);
+            sphere = (Sphere) scene.objectList.get(0);
+            ray.set(0, 0, 10, 0, 0, -1);
+            Random random = new Random(1);
+            for (int k = 0; k < RAYS; k++) {
+                directions[3 * k] = random.nextFloat() * 3 - 1.5f;
+                directions[3 * k + 1] = random.nextFloat() * 3 - 1.5f;
+                directions[3 * k + 2] = -10;
+            }
+        }
+    }
+
+    /**
+     * A scene of random spheres, with camera rays through random points of the frame and shadow
+     * rays from the points they hit towards the point light
+     */
+    @State(Scope.Thread)
+    public static class SceneState {
+        @Param({"1000", "100000", "1000000"})
+        String spheres;
+
+        @Param({"true", "false"})
+        String simd;
+
+        BoundingVolumeHierarchy objects;
+        Ray ray = new Ray();
+        float[] cameraRays = new float[6 * RAYS];
+        float[] shadowRays = new float[6 * RAYS];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            System.setProperty("raytracer.simd", simd);
+            RayTracerAPI scene = BenchmarkScenes.create(spheres, 512, 512);
+            objects = scene.accelerator;
+            Point3D du = scene.Du.getPoint(), dv = scene.Dv.getPoint(), vp = scene.Vp.getPoint(), origin = scene.origin;
+            Random random = new Random(1);
+            int shadows = 0;
+            for (int k = 0; k < RAYS; k++) {
+                float i = random.nextFloat() * scene.frameWidth, j = random.nextFloat() * scene.frameHeight;
+                ray.set(origin.getX(), origin.getY(), origin.getZ(),
+                        du.getX() * i + dv.getX() * j + vp.getX(),
+                        du.getY() * i + dv.getY() * j + vp.getY(),
+                        du.getZ() * i + dv.getZ() * j + vp.getZ());
+                store(cameraRays, k, ray);
+                if (ray.trace(objects)) {
+                    Point3D point = new Point3D(0, 0, 0).set(ray.getOrigin()).addScaledLocal(ray.getDirection().getPoint(), ray.getRoot());
+                    Vector3D light = new Vector3D(new Point3D(2, 4, 6).subtract(point));
+                    light.normalize();
+                    Point3D l = light.getPoint();
+                    ray.set(point.getX() + l.getX() * TINY, point.getY() + l.getY() * TINY, point.getZ() + l.getZ() * TINY,
+                            l.getX(), l.getY(), l.getZ());
+                    store(shadowRays, shadows++, ray);
+                }
+            }
+            // fill the rest with copies, so every operation still traces a shadow ray
+            for (int k = shadows; k < RAYS && shadows > 0; k++) {
+                System.arraycopy(shadowRays, 6 * (k % shadows), shadowRays, 6 * k, 6);
+            }
+        }
+
+        private static void store(float[] rays, int k, Ray ray) {
+            Point3D o = ray.getOrigin(), d = ray.getDirection().getPoint();
+            rays[6 * k] = o.getX();
+            rays[6 * k + 1] = o.getY();
+            rays[6 * k + 2] = o.getZ();
+            rays[6 * k + 3] = d.getX();
+            rays[6 * k + 4] = d.getY();
+            rays[6 * k + 5] = d.getZ();
+        }
+
+        Ray nextRay(float[] rays) {
+            int k = 6 * (next++ & (RAYS - 1));
+            return ray.set(rays[k], rays[k + 1], rays[k + 2], rays[k + 3], rays[k + 4], rays[k + 5]);
+        }
+    }
+
+    @Benchmark
+    public boolean sphereIntersect(SphereState state) {
+        int k = 3 * (state.next++ & (RAYS - 1));
+        Ray ray = state.ray.set(0, 0, 10, state.directions[k], state.directions[k + 1], state.directions[k + 2]);
+        ray.setRoot(Float.MAX_VALUE);
+        return state.sphere.intersect(ray);
+    }
+
+    @Benchmark
+    public boolean traceClosest(SceneState state) {
+        return state.nextRay(state.cameraRays).trace(state.objects);
+    }
+
+    @Benchmark
+    public boolean traceShadow(SceneState state) {
+        return state.nextRay(state.shadowRays).occluded(state.objects);
+    }
+}
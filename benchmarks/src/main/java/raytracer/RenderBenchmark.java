@@ -0,0 +1,66 @@
+package raytracer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The RenderBenchmark class
+ *
+ * Renders whole frames, the way {@link Render} does: no window, no progressive preview.
+ * The primary score is frames per second, the rays counter gives camera rays per second,
+ * one per pixel. Camera rays are traced in packets unless packets is false.
+ * The scene and its hierarchy are built once per trial, so building is not timed.
+ * With the default parameters the 1M sphere scenes need a heap of about 1 GB.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules=jdk.incubator.vector", "-Xmx2g"})
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+    @Param({BenchmarkScenes.MAIN, "1000", "100000", "1000000"})
+    String spheres;
+
+    @Param({"320x240", "600x600", "1280x720"})
+    String resolution;
+
+    @Param({"1"})
+    int threads;
+
+    @Param({"true", "false"})
+    boolean packets;
+
+    RayTracerAPI scene;
+
+    /**
+     * Counts the camera rays of the frames rendered in an iteration
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Rays {
+        public long rays;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rays = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        int[] size = BenchmarkScenes.resolution(resolution);
+        scene = BenchmarkScenes.create(spheres, size[0], size[1]);
+        scene.setProgressive(false);
+        scene.setRenderThreads(threads);
+        scene.setPacketTracing(packets);
+    }
+
+    @Benchmark
+    public FrameBuffer renderFrame(Rays counter) {
+        scene.renderImage();
+        counter.rays += (long) scene.frameWidth * scene.frameHeight;
+        return scene.frameBuffer;
+    }
+}
@@ -0,0 +1,108 @@
+package raytracer;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import raytracer.pigmentation.Colour;
+import raytracer.pigmentation.ShadingContext;
+
+/**
+ * The ShadingBenchmark class
+ *
+ * Measures turning rays into colours: tracing and shading a camera ray with
+ * {@link Colour#Shading}, including its shadow and reflected rays, one at a time and in packets
+ * as the render passes do, and converting colours to packed pixels with {@link Colour#getRGB},
+ * one at a time and a frame at a time.
+ * Tracing and shading must not allocate once the JIT has warmed up: with the GC profiler that
+ * {@link Benchmarks} always adds, gc.alloc.rate.norm of shadePixel and shadePacket stays at 0 B/op.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class ShadingBenchmark {
+    private static final int WIDTH = 600, HEIGHT = 600;
+
+    /**
+     * A scene and the shading context of the benchmark thread, camera rays go through every pixel in turn
+     */
+    @State(Scope.Thread)
+    public static class PixelState {
+        @Param({BenchmarkScenes.MAIN, "1000"})
+        String spheres;
+
+        RayTracerAPI scene;
+        ShadingContext context;
+        int next, nextPacket;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            scene = BenchmarkScenes.create(spheres, WIDTH, HEIGHT);
+            context = scene.snapshot.context();
+        }
+    }
+
+    /**
+     * A frame of random colours, partly outside the displayable range so clamping is exercised
+     */
+    @State(Scope.Thread)
+    public static class FrameState {
+        float[] colours = new float[3 * WIDTH * HEIGHT];
+        int[] pixels = new int[WIDTH * HEIGHT];
+        int next;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            Random random = new Random(1);
+            for (int k = 0; k < colours.length; k++) {
+                colours[k] = random.nextFloat() * 1.2f - 0.1f;
+            }
+        }
+    }
+
+    /**
+     * Traces and shades one camera ray, the score is camera rays per second
+     */
+    @Benchmark
+    public boolean shadePixel(PixelState state) {
+        int pixel = state.next++;
+        if (state.next == WIDTH * HEIGHT) {
+            state.next = 0;
+        }
+        return state.scene.tracePixel(pixel % WIDTH, pixel / WIDTH, state.context, state.context.getColour());
+    }
+
+    /**
+     * Traces and shades a packet of camera rays, the score is camera rays per second
+     */
+    @Benchmark
+    @OperationsPerInvocation(RayTracerAPI.PACKET_SIZE * RayTracerAPI.PACKET_SIZE)
+    public void shadePacket(PixelState state) {
+        int size = RayTracerAPI.PACKET_SIZE, across = WIDTH / size;
+        int packet = state.nextPacket++;
+        if (state.nextPacket == across * (HEIGHT / size)) {
+            state.nextPacket = 0;
+        }
+        int x = packet % across * size, y = packet / across * size;
+        state.scene.renderBlocks(x, y, x + size, y + size, 1, false);
+    }
+
+    @Benchmark
+    public int getRGB(FrameState state) {
+        int c = 3 * state.next;
+        state.next = (state.next + 1) % (WIDTH * HEIGHT);
+        return Colour.getRGB(state.colours[c], state.colours[c + 1], state.colours[c + 2], 1f);
+    }
+
+    /**
+     * Converts a whole frame, the score is pixels per second
+     */
+    @Benchmark
+    @OperationsPerInvocation(WIDTH * HEIGHT)
+    public int[] getRGBFrame(FrameState state) {
+        Colour.getRGB(state.colours, state.pixels, 0, WIDTH * HEIGHT);
+        return state.pixels;
+    }
+}
@@ -0,0 +1,45 @@
+package raytracer;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import raytracer.raydefinition.*;
+
+/**
+ * The VectorBenchmark class
+ *
+ * Measures the vector operations of the shading code, in the in-place forms the tracing path uses
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+@State(Scope.Thread)
+public class VectorBenchmark {
+    private final Vector3D a = new Vector3D(0.3f, -1.2f, 2.5f);
+    private final Vector3D b = new Vector3D(-0.7f, 0.4f, 1.1f);
+    private final Vector3D result = new Vector3D(0, 0, 0);
+    private float scale = 0.5f;
+
+    @Benchmark
+    public float dotProduct() {
+        return a.dotProduct(b);
+    }
+
+    @Benchmark
+    public Vector3D crossProduct() {
+        return a.crossProduct(b, result);
+    }
+
+    @Benchmark
+    public Vector3D normalize() {
+        result.getPoint().set(a.getPoint()).addScaledLocal(b.getPoint(), scale);
+        result.normalize();
+        return result;
+    }
+
+    @Benchmark
+    public Point3D addScaled() {
+        return result.getPoint().set(a.getPoint()).addScaledLocal(b.getPoint(), scale);
+    }
+}
@@ -0,0 +1,19 @@
+package raytracer;
+
+/**
+ * The Animation interface
+ *
+ * Sets up the frames of a sequence rendered by {@link RayTracerAPI#renderSequence}: places the camera
+ * with setOrigin, setLookat and setUp, and moves objects with moveSphere or translateObject.
+ * Whatever a frame does not change stays as it was in the frame before.
+ */
+@FunctionalInterface
+public interface Animation {
+    /**
+     * Sets up a frame, called just before it is rendered
+     *
+     * @param scene the scene being rendered
+     * @param frame the number of the frame, counting from 0
+     */
+    void update(RayTracerAPI scene, int frame);
+}
@@ -0,0 +1,328 @@
+package raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.acceleration.PackedSpheres;
+import raytracer.pigmentation.Surface;
+
+/**
+ * The BinaryScene class
+ *
+ * Reads and writes scenes in a compact binary format, for scenes too large to parse as text.
+ * All values are little endian 32 bit ints and floats:
+ *
+ *   header     magic "RTSB", version, camera flags (1 eye, 2 lookat, 4 up), eye xyz, lookat xyz, up xyz,
+ *              number of lights, number of surfaces, number of spheres, number of hierarchy nodes
+ *   lights     type (0 ambient, 1 directional, 2 point), red, green, blue, x, y, z
+ *   surfaces   the ten values of {@link RayTracerAPI#setSurface}
+ *   spheres    every center x, then every center y, every center z, every radius,
+ *              then every surface index (-1 for the surface the scene had before loading)
+ *   hierarchy  the bounds (six floats), then the offsets, then the counts of every node,
+ *              see {@link BoundingVolumeHierarchy#getNodeBounds()}
+ *
+ * Spheres are stored column by column and in the leaf order of a bounding volume hierarchy that is
+ * saved with them, so loading is a handful of bulk copies out of the mapped file into a {@link SphereSet}:
+ * no object is created per sphere and no hierarchy is built. A file without hierarchy nodes gets one built on loading.
+ *
+ * Usage: java raytracer.BinaryScene scene.txt scene.rtsb, converts a text scene file
+ */
+public class BinaryScene {
+    static final int MAGIC = 'R' | 'T' << 8 | 'S' << 16 | 'B' << 24;
+    static final int VERSION = 1;
+    private static final int HAS_EYE = 1, HAS_LOOKAT = 2, HAS_UP = 4;
+    private static final int AMBIENT = 0, DIRECTIONAL = 1, POINT = 2;
+    private static final int HEADER_SIZE = 4 * 16;
+    private static final int LIGHT_SIZE = 4 * 7;
+    private static final int SURFACE_SIZE = 4 * 10;
+    private static final int SPHERE_SIZE = 4 * 5;
+    private static final int NODE_SIZE = 4 * 8;
+    private static final int DEFAULT_SURFACE = -1;
+
+    private BinaryScene() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            Log.error("usage: java raytracer.BinaryScene <scene file> <binary scene file>");
+            System.exit(2);
+        }
+        long time = System.currentTimeMillis();
+        Writer writer = new Writer();
+        SceneFile.load(Paths.get(args[0]), writer);
+        writer.write(Paths.get(args[1]));
+        Log.info("Wrote " + writer.sphereCount + " spheres, " + writer.surfaceCount + " surfaces and "
+                + writer.lightCount + " lights in " + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    /**
+     * Checks if a file starts like a binary scene
+     *
+     * @param path          the file
+     * @return              true if it is a binary scene, false if it should be read as text
+     * @throws IOException  if the file cannot be read
+     */
+    public static boolean isBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+            }
+            return !magic.hasRemaining() && magic.getInt(0) == MAGIC;
+        }
+    }
+
+    /**
+     * Reads a binary scene into a scene
+     * The camera, lights and surfaces are passed on as calls to the scene, the spheres are added as one {@link SphereSet}
+     *
+     * @param path          the binary scene file
+     * @param scene         the scene that receives the camera, lights and objects
+     * @throws IOException  if the file cannot be read or is not a valid binary scene
+     */
+    public static void load(Path path, RayTracerAPI scene) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                throw new IOException(path + ": not a binary scene");
+            }
+            ByteBuffer header = map(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC) {
+                throw new IOException(path + ": not a binary scene");
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new IOException(path + ": unsupported binary scene version " + version);
+            }
+            int flags = header.getInt();
+            float[] camera = new float[9];
+            for (int k = 0; k < camera.length; k++) {
+                camera[k] = header.getFloat();
+            }
+            int lights = header.getInt(), surfaces = header.getInt(), spheres = header.getInt(), nodes = header.getInt();
+            long tables = (long) lights * LIGHT_SIZE + (long) surfaces * SURFACE_SIZE;
+            if (lights < 0 || surfaces < 0 || spheres < 0 || nodes < 0
+                    || size != HEADER_SIZE + tables + (long) SPHERE_SIZE * spheres + (long) NODE_SIZE * nodes) {
+                throw new IOException(path + ": binary scene is truncated or corrupt");
+            }
+
+            if ((flags & HAS_EYE) != 0) scene.setOrigin(camera[0], camera[1], camera[2]);
+            if ((flags & HAS_LOOKAT) != 0) scene.setLookat(camera[3], camera[4], camera[5]);
+            if ((flags & HAS_UP) != 0) scene.setUp(camera[6], camera[7], camera[8]);
+
+            ByteBuffer table = map(channel, HEADER_SIZE, tables);
+            for (int k = 0; k < lights; k++) {
+                int type = table.getInt();
+                float red = table.getFloat(), green = table.getFloat(), blue = table.getFloat();
+                float x = table.getFloat(), y = table.getFloat(), z = table.getFloat();
+                if (type == AMBIENT) {
+                    scene.setlight(red, green, blue, "ambient");
+                } else if (type == DIRECTIONAL || type == POINT) {
+                    scene.setlight(red, green, blue, type == DIRECTIONAL ? "directional" : "point", x, y, z);
+                } else {
+                    throw new IOException(path + ": light " + k + " has unknown type " + type);
+                }
+            }
+            // the last entry stands for spheres stored before any surface was set
+            Surface[] surfaceTable = new Surface[surfaces + 1];
+            surfaceTable[surfaces] = scene.currentSurface;
+            for (int k = 0; k < surfaces; k++) {
+                scene.setSurface(table.getFloat(), table.getFloat(), table.getFloat(), table.getFloat(), table.getFloat(),
+                        table.getFloat(), table.getFloat(), table.getFloat(), table.getFloat(), table.getFloat());
+                surfaceTable[k] = scene.currentSurface;
+            }
+            if (spheres == 0) {
+                return;
+            }
+
+            long column = 4L * spheres, offset = HEADER_SIZE + tables;
+            PackedSpheres packed = new PackedSpheres(spheres);
+            packed.read(map(channel, offset, column).asFloatBuffer(), map(channel, offset + column, column).asFloatBuffer(),
+                    map(channel, offset + 2 * column, column).asFloatBuffer(), map(channel, offset + 3 * column, column).asFloatBuffer());
+            int[] surfaceIndex = new int[spheres];
+            map(channel, offset + 4 * column, column).asIntBuffer().get(surfaceIndex);
+            for (int k = 0; k < spheres; k++) {
+                int index = surfaceIndex[k];
+                if (index == DEFAULT_SURFACE) {
+                    surfaceIndex[k] = surfaces;
+                } else if (index < 0 || index >= surfaces) {
+                    throw new IOException(path + ": sphere " + k + " has no surface " + index);
+                }
+            }
+            if (nodes == 0) {
+                ForkJoinPool pool = scene.renderThreads > 1 ? scene.renderPool() : null;
+                scene.addObject(new SphereSet(packed, surfaceTable, surfaceIndex, pool));
+                return;
+            }
+            offset += 5 * column;
+            float[] nodeBounds = new float[6 * nodes];
+            int[] nodeOffset = new int[nodes], nodeCount = new int[nodes];
+            map(channel, offset, 24L * nodes).asFloatBuffer().get(nodeBounds);
+            map(channel, offset + 24L * nodes, 4L * nodes).asIntBuffer().get(nodeOffset);
+            map(channel, offset + 28L * nodes, 4L * nodes).asIntBuffer().get(nodeCount);
+            try {
+                scene.addObject(new SphereSet(packed, surfaceTable, surfaceIndex, nodeBounds, nodeOffset, nodeCount));
+            } catch (IllegalArgumentException e) {
+                throw new IOException(path + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        return map(channel, FileChannel.MapMode.READ_ONLY, offset, length);
+    }
+
+    private static ByteBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, long length) throws IOException {
+        return channel.map(mode, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Records a scene description and writes it as a binary scene
+     * Pass it to {@link SceneFile#load} to convert a text scene
+     */
+    public static class Writer implements SceneBuilder {
+        private int flags;
+        private final float[] camera = new float[9];
+        private ByteBuffer lights = ByteBuffer.allocate(16 * LIGHT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private ByteBuffer surfaces = ByteBuffer.allocate(16 * SURFACE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private float[] x = new float[1024], y = new float[1024], z = new float[1024], radius = new float[1024];
+        private int[] surfaceIndex = new int[1024];
+        private int lightCount, surfaceCount, sphereCount;
+        private int currentSurface = DEFAULT_SURFACE;
+
+        @Override
+        public void setOrigin(float x, float y, float z) {
+            setCamera(HAS_EYE, 0, x, y, z);
+        }
+
+        @Override
+        public void setLookat(float x, float y, float z) {
+            setCamera(HAS_LOOKAT, 3, x, y, z);
+        }
+
+        @Override
+        public void setUp(float x, float y, float z) {
+            setCamera(HAS_UP, 6, x, y, z);
+        }
+
+        private void setCamera(int flag, int offset, float x, float y, float z) {
+            flags |= flag;
+            camera[offset] = x;
+            camera[offset + 1] = y;
+            camera[offset + 2] = z;
+        }
+
+        @Override
+        public void setlight(float red, float green, float blue, String typeOfLight) {
+            if (typeOfLight.equalsIgnoreCase("ambient")) {
+                addLight(AMBIENT, red, green, blue, 0, 0, 0);
+            }
+        }
+
+        @Override
+        public void setlight(float red, float green, float blue, String typeOfLight, float x, float y, float z) {
+            if (typeOfLight.equalsIgnoreCase("directional")) {
+                addLight(DIRECTIONAL, red, green, blue, x, y, z);
+            } else if (typeOfLight.equalsIgnoreCase("point")) {
+                addLight(POINT, red, green, blue, x, y, z);
+            } else {
+                Log.error("incorrect input");
+            }
+        }
+
+        private void addLight(int type, float red, float green, float blue, float x, float y, float z) {
+            lights = ensure(lights, LIGHT_SIZE);
+            lights.putInt(type).putFloat(red).putFloat(green).putFloat(blue).putFloat(x).putFloat(y).putFloat(z);
+            lightCount++;
+        }
+
+        @Override
+        public void setSurface(float red, float green, float blue, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float reflection, float transmission, float index) {
+            surfaces = ensure(surfaces, SURFACE_SIZE);
+            surfaces.putFloat(red).putFloat(green).putFloat(blue).putFloat(ambientReflection).putFloat(diffuseReflection)
+                    .putFloat(specularReflection).putFloat(phong).putFloat(reflection).putFloat(transmission).putFloat(index);
+            currentSurface = surfaceCount++;
+        }
+
+        @Override
+        public void createSphere(float x, float y, float z, float radius) {
+            if (sphereCount == this.x.length) {
+                int capacity = 2 * sphereCount;
+                this.x = Arrays.copyOf(this.x, capacity);
+                this.y = Arrays.copyOf(this.y, capacity);
+                this.z = Arrays.copyOf(this.z, capacity);
+                this.radius = Arrays.copyOf(this.radius, capacity);
+                surfaceIndex = Arrays.copyOf(surfaceIndex, capacity);
+            }
+            this.x[sphereCount] = x;
+            this.y[sphereCount] = y;
+            this.z[sphereCount] = z;
+            this.radius[sphereCount] = radius;
+            surfaceIndex[sphereCount] = currentSurface;
+            sphereCount++;
+        }
+
+        private static ByteBuffer ensure(ByteBuffer buffer, int needed) {
+            if (buffer.remaining() >= needed) {
+                return buffer;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(2 * buffer.capacity() + needed).order(ByteOrder.LITTLE_ENDIAN);
+            return grown.put(buffer.flip());
+        }
+
+        /**
+         * Writes everything recorded so far
+         * The bounding volume hierarchy over the spheres is built here, so that loading does not have to
+         *
+         * @param path          the binary scene file, replaced if it exists
+         * @throws IOException  if the file cannot be written
+         */
+        public void write(Path path) throws IOException {
+            int n = sphereCount;
+            PackedSpheres packed = new PackedSpheres(n);
+            packed.read(FloatBuffer.wrap(x), FloatBuffer.wrap(y), FloatBuffer.wrap(z), FloatBuffer.wrap(radius));
+            int[] sphereSurfaces = Arrays.copyOf(surfaceIndex, n);
+            BoundingVolumeHierarchy hierarchy = n > 0 ? new BoundingVolumeHierarchy(packed, sphereSurfaces, null, ForkJoinPool.commonPool()) : null;
+            int nodes = n > 0 ? hierarchy.nodeCount() : 0;
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(flags);
+                for (float value : camera) {
+                    header.putFloat(value);
+                }
+                header.putInt(lightCount).putInt(surfaceCount).putInt(n).putInt(nodes);
+                writeFully(channel, header.flip());
+                writeFully(channel, lights.duplicate().flip());
+                writeFully(channel, surfaces.duplicate().flip());
+                if (n == 0) {
+                    return;
+                }
+
+                FileChannel.MapMode mode = FileChannel.MapMode.READ_WRITE;
+                long column = 4L * n, offset = channel.position();
+                packed.write(map(channel, mode, offset, column).asFloatBuffer(), map(channel, mode, offset + column, column).asFloatBuffer(),
+                        map(channel, mode, offset + 2 * column, column).asFloatBuffer(), map(channel, mode, offset + 3 * column, column).asFloatBuffer());
+                map(channel, mode, offset + 4 * column, column).asIntBuffer().put(sphereSurfaces);
+                offset += 5 * column;
+                map(channel, mode, offset, 24L * nodes).asFloatBuffer().put(hierarchy.getNodeBounds());
+                map(channel, mode, offset + 24L * nodes, 4L * nodes).asIntBuffer().put(hierarchy.getNodeOffsets());
+                map(channel, mode, offset + 28L * nodes, 4L * nodes).asIntBuffer().put(hierarchy.getNodeCounts());
+            }
+        }
+
+        private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import raytracer.pigmentation.Colour;
+
+/**
+ * The FrameBuffer class
+ *
+ * Holds the rendered frame as floating point red, green and blue values, three per pixel,
+ * so that values above 1 survive for post-processing. Pixels are written straight into the
+ * arrays, which lets render threads fill separate regions without contention, and are
+ * published to the backing {@link BufferedImage} a region at a time.
+ * The image wraps the packed pixel array and is only created when first asked for,
+ * so rendering without a window does not pay for starting up Java2D before the first ray.
+ */
+public class FrameBuffer {
+    private final int width, height;
+    private final float[] colours;
+    private final int[] pixels;
+    private final long[] hits;
+    private BufferedImage image;
+
+    /**
+     * Constructor
+     *
+     * @param width     width of the frame in pixels
+     * @param height    height of the frame in pixels
+     */
+    public FrameBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.colours = new float[3 * width * height];
+        this.pixels = new int[width * height];
+        this.hits = new long[width * height];
+    }
+
+    /**
+     * Stores the colour of a pixel, it only shows in the image once published
+     *
+     * @param x         column of the pixel
+     * @param y         row of the pixel
+     * @param colour    the red, green and blue values of the pixel
+     */
+    public void setColour(int x, int y, float[] colour) {
+        int c = 3 * (y * width + x);
+        colours[c] = colour[0];
+        colours[c + 1] = colour[1];
+        colours[c + 2] = colour[2];
+    }
+
+    /**
+     * Stores what the ray through a pixel hit, used to find the edges of objects
+     *
+     * @param x         column of the pixel
+     * @param y         row of the pixel
+     * @param hit       the index of the object hit in the high 32 bits and of its primitive in the low ones,
+     *                  -1 for the background
+     */
+    public void setHit(int x, int y, long hit) {
+        hits[y * width + x] = hit;
+    }
+
+    /**
+     * Converts a rectangle of stored colours into the pixels of the image
+     *
+     * @param x0    first column (inclusive)
+     * @param y0    first row (inclusive)
+     * @param x1    last column (exclusive)
+     * @param y1    last row (exclusive)
+     */
+    public void publish(int x0, int y0, int x1, int y1) {
+        for (int y = y0; y < y1; y++) {
+            Colour.getRGB(colours, pixels, y * width + x0, x1 - x0);
+        }
+    }
+
+    /**
+     * Copies pixels rendered elsewhere, such as by another process, into a rectangle of the image
+     * The stored colours of the rectangle are left as they were
+     *
+     * @param x0        first column (inclusive)
+     * @param y0        first row (inclusive)
+     * @param x1        last column (exclusive)
+     * @param y1        last row (exclusive)
+     * @param tile      the ARGB pixels of the rectangle, row by row
+     */
+    public void setPixels(int x0, int y0, int x1, int y1, int[] tile) {
+        for (int y = y0, t = 0; y < y1; y++, t += x1 - x0) {
+            System.arraycopy(tile, t, pixels, y * width + x0, x1 - x0);
+        }
+    }
+
+    /**
+     * Converts every stored colour into the pixels of the image
+     */
+    public void publish() {
+        Colour.getRGB(colours, pixels, 0, width * height);
+    }
+
+    /**
+     * Gets the floating point colours, three per pixel in row order
+     *
+     * @return  the colour array
+     */
+    public float[] getColours() {
+        return colours;
+    }
+
+    /**
+     * Gets what the ray through each pixel hit, the object and primitive in one long per pixel in row order
+     *
+     * @return  the hit array
+     */
+    public long[] getHits() {
+        return hits;
+    }
+
+    /**
+     * Gets the packed ARGB pixels the colours are published to, one per pixel in row order
+     *
+     * @return  the pixel array
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    /**
+     * Gets the image the colours are published to, an ARGB image sharing the pixel array
+     *
+     * @return  the image
+     */
+    public synchronized BufferedImage getImage() {
+        if (image == null) {
+            DirectColorModel model = (DirectColorModel) ColorModel.getRGBdefault();
+            DataBufferInt buffer = new DataBufferInt(pixels, pixels.length);
+            image = new BufferedImage(model, Raster.createPackedRaster(buffer, width, height, width, model.getMasks(), null),
+                    false, null);
+        }
+        return image;
+    }
+
+    /**
+     * Gets the width of the frame
+     *
+     * @return  width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the frame
+     *
+     * @return  height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,301 @@
+package raytracer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * The FrameWriter class
+ *
+ * Encodes rendered frames and writes them to files on a background thread, so the next frame can be
+ * traced while the last one is encoded. The pixels of a frame are copied when it is handed over, since
+ * the frame buffer is reused for the next frame; the copies come from a small pool. At most a fixed
+ * number of frames wait to be written: handing over one more blocks until the oldest is done, so a
+ * slow disk slows rendering down instead of filling the heap.
+ * An error writing a frame is thrown by the next call to {@link #write} or by {@link #close}.
+ */
+public class FrameWriter implements AutoCloseable {
+    // deflate level 1: the PNG writer turns a quality q into level (int) (9 * (1 - q))
+    private static final float FAST_PNG_QUALITY = 0.85f;
+    private static final DirectColorModel RGB = new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+
+    /**
+     * The file formats frames can be written in
+     */
+    public enum Format {
+        /** PNG at the default compression level */
+        PNG("png"),
+        /** PNG at the fastest compression level: quicker to write, a little larger */
+        FAST_PNG("png"),
+        /** Binary PPM (P6): uncompressed RGB, the quickest to write */
+        PPM("ppm");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Gets the file name extension of the format
+         *
+         * @return  the extension, without the dot
+         */
+        public String getExtension() {
+            return extension;
+        }
+
+        /**
+         * Finds the format by its name, png, fast-png or ppm, ignoring case
+         *
+         * @param name  the name of the format
+         * @return      the format, or null if there is none by that name
+         */
+        public static Format forName(String name) {
+            for (Format format : values()) {
+                if (format.name().replace('_', '-').equalsIgnoreCase(name)) {
+                    return format;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Chooses the format a file name asks for: PPM for a .ppm file, PNG otherwise
+         *
+         * @param file  the file to write
+         * @return      the format
+         */
+        public static Format forFile(Path file) {
+            return file.getFileName().toString().toLowerCase().endsWith(".ppm") ? PPM : PNG;
+        }
+    }
+
+    private final Format format;
+    private final RenderStats stats;
+    private final ExecutorService encoder;
+    private final Semaphore pending;
+    private final ArrayDeque<int[]> spare = new ArrayDeque<>();
+    private byte[] bytes = new byte[0];     // PPM rows, only used by the encoder thread
+    private volatile IOException failure;
+
+    /**
+     * Constructor
+     *
+     * @param format    the format frames are written in
+     * @param queued    how many frames may wait to be written before write blocks, at least 1
+     * @param stats     the encoding time of every frame is recorded here, or null
+     */
+    public FrameWriter(Format format, int queued, RenderStats stats) {
+        this.format = format;
+        this.stats = stats;
+        this.pending = new Semaphore(Math.max(1, queued));
+        this.encoder = Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "frame-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Hands a frame over to be written, returning once its pixels are copied
+     * Blocks while the queue of frames waiting to be written is full
+     *
+     * @param frame         the frame, its colours must be published to its pixels
+     * @param file          the file to write, replaced if it exists
+     * @throws IOException  if writing an earlier frame failed
+     */
+    public void write(FrameBuffer frame, Path file) throws IOException {
+        checkFailure();
+        pending.acquireUninterruptibly();
+        int width = frame.getWidth(), height = frame.getHeight();
+        int[] pixels = take(width * height);
+        System.arraycopy(frame.getPixels(), 0, pixels, 0, width * height);
+        try {
+            encoder.execute(() -> encode(pixels, width, height, file));
+        } catch (RuntimeException e) {
+            pending.release();
+            throw new IOException("frame writer is closed", e);
+        }
+    }
+
+    /**
+     * Waits until every frame handed over is written, and stops the encoder thread
+     *
+     * @throws IOException  if writing a frame failed
+     */
+    @Override
+    public void close() throws IOException {
+        encoder.shutdown();
+        try {
+            while (!encoder.awaitTermination(1, TimeUnit.MINUTES)) {
+                Log.info("still writing frames");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while writing frames", e);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Gets the format frames are written in
+     *
+     * @return  the format
+     */
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Encodes pixels straight to a stream, on the calling thread, for example to send them over the network
+     *
+     * @param format        the format to encode in
+     * @param pixels        the ARGB pixels, row by row
+     * @param width         width of the image
+     * @param height        height of the image
+     * @param out           the encoded image is written here, the stream is left open
+     * @throws IOException  if the stream cannot be written
+     */
+    public static void encode(Format format, int[] pixels, int width, int height, OutputStream out) throws IOException {
+        if (format == Format.PPM) {
+            writePPM(pixels, width, height, out, new byte[3 * width]);
+        } else {
+            writePNG(format, pixels, width, height, out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a frame written by a frame writer back into the pixels of a frame buffer, which must be
+     * of the same size; the stored colours of the frame buffer are left as they were
+     *
+     * @param file          a PNG or PPM file
+     * @param frame         receives the pixels
+     * @throws IOException  if the file cannot be read, or is not an image of the size of the frame buffer
+     */
+    public static void read(Path file, FrameBuffer frame) throws IOException {
+        int width = frame.getWidth(), height = frame.getHeight();
+        int[] pixels = new int[width * height];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+            if (Format.forFile(file) == Format.PPM) {
+                String header = new String(in.readNBytes(("P6\n" + width + " " + height + "\n255\n").length()),
+                        StandardCharsets.US_ASCII);
+                if (!header.equals("P6\n" + width + " " + height + "\n255\n")) {
+                    throw new IOException(file + " is not a " + width + "x" + height + " frame");
+                }
+                byte[] row = new byte[3 * width];
+                DataInputStream data = new DataInputStream(in);
+                for (int y = 0, p = 0; y < height; y++) {
+                    data.readFully(row);
+                    for (int b = 0; b < row.length; b += 3, p++) {
+                        pixels[p] = 0xFF000000 | (row[b] & 0xFF) << 16 | (row[b + 1] & 0xFF) << 8 | row[b + 2] & 0xFF;
+                    }
+                }
+            } else {
+                BufferedImage image = ImageIO.read(in);
+                if (image == null || image.getWidth() != width || image.getHeight() != height) {
+                    throw new IOException(file + " is not a " + width + "x" + height + " frame");
+                }
+                image.getRGB(0, 0, width, height, pixels, 0, width);
+            }
+        }
+        frame.setPixels(0, 0, width, height, pixels);
+    }
+
+    private void encode(int[] pixels, int width, int height, Path file) {
+        long start = System.nanoTime();
+        try {
+            if (failure == null) {
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+                    if (format == Format.PPM) {
+                        if (bytes.length != 3 * width) {
+                            bytes = new byte[3 * width];
+                        }
+                        writePPM(pixels, width, height, out, bytes);
+                    } else {
+                        writePNG(format, pixels, width, height, out);
+                    }
+                }
+                if (stats != null) {
+                    stats.recordPhase(RenderStats.Phase.ENCODE, System.nanoTime() - start);
+                }
+            }
+        } catch (IOException e) {
+            failure = new IOException("could not write " + file + ": " + e.getMessage(), e);
+        } finally {
+            give(pixels);
+            pending.release();
+        }
+    }
+
+    private static void writePNG(Format format, int[] pixels, int width, int height, OutputStream stream) throws IOException {
+        // the alpha of the frame buffer is always opaque, an RGB image leaves it out of the file
+        DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+        BufferedImage image = new BufferedImage(RGB, Raster.createPackedRaster(buffer, width, height, width,
+                RGB.getMasks(), null), false, null);
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("png").next();
+        // cached in memory: the default cache of ImageIO is a temporary file
+        try (ImageOutputStream out = new MemoryCacheImageOutputStream(stream)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (format == Format.FAST_PNG) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(FAST_PNG_QUALITY);
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    private static void writePPM(int[] pixels, int width, int height, OutputStream out, byte[] row) throws IOException {
+        out.write(("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII));
+        for (int y = 0, p = 0; y < height; y++) {
+            for (int x = 0, b = 0; x < width; x++, p++) {
+                int pixel = pixels[p];
+                row[b++] = (byte) (pixel >> 16);
+                row[b++] = (byte) (pixel >> 8);
+                row[b++] = (byte) pixel;
+            }
+            out.write(row);
+        }
+    }
+
+    private synchronized int[] take(int size) {
+        int[] pixels = spare.poll();
+        return pixels != null && pixels.length == size ? pixels : new int[size];
+    }
+
+    private synchronized void give(int[] pixels) {
+        spare.push(pixels);
+    }
+
+    private void checkFailure() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+}
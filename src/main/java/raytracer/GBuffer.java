@@ -0,0 +1,159 @@
+package raytracer;
+
+import java.util.Arrays;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.raydefinition.*;
+
+/**
+ * The GBuffer class
+ *
+ * Holds what the camera ray of every pixel hit in the last frame: the index of the object in the
+ * hierarchy, the part of it, and the distance along the ray, which together give the hit point and
+ * the normal there. A frame whose camera and geometry did not change since can be shaded again from
+ * it without tracing a single camera ray, with other lights or surfaces; the shading itself, shadows,
+ * reflections and refractions included, is done as usual by the object's Shade and {@link
+ * raytracer.pigmentation.Colour#Shading}.
+ * The buffer is only valid once every pixel was stored for one camera, and until an object moves or the
+ * hierarchy is rebuilt, which may change what or where the camera rays hit.
+ * Shading a frame from the buffer also keeps which lights each hit is in the shadow of, a bit per light;
+ * while no light is added or moved, later frames take the bits instead of tracing the shadow rays again.
+ */
+public class GBuffer {
+    private final int width, height;
+    private final int[] objects;
+    private final int[] primitives;
+    private final float[] roots;
+    private final long[] shadows;
+    private float[] lights;                 // the lights the shadow bits were kept for, null until they are
+    private final float[] camera = new float[10];
+    private boolean valid;
+
+    /**
+     * Constructor of an empty buffer
+     *
+     * @param width     width of the frame in pixels
+     * @param height    height of the frame in pixels
+     */
+    public GBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.objects = new int[width * height];
+        this.primitives = new int[width * height];
+        this.roots = new float[width * height];
+        this.shadows = new long[width * height];
+    }
+
+    /**
+     * Stores what the camera ray through a pixel hit
+     *
+     * @param x     column of the pixel
+     * @param y     row of the pixel
+     * @param ray   the camera ray, after tracing
+     */
+    public void store(int x, int y, Ray ray) {
+        int p = y * width + x;
+        objects[p] = ray.getObjectIndex();
+        primitives[p] = ray.getPrimitive();
+        roots[p] = ray.getRoot();
+    }
+
+    /**
+     * Sets a camera ray up as if it had just been traced, from what was stored for its pixel
+     *
+     * @param x         column of the pixel
+     * @param y         row of the pixel
+     * @param ray       the camera ray, already aimed through the pixel
+     * @param hierarchy the hierarchy the ray was traced through
+     * @return          True if the ray hit an object and can be shaded ; False if it shows the background
+     */
+    public boolean load(int x, int y, Ray ray, BoundingVolumeHierarchy hierarchy) {
+        int p = y * width + x;
+        int object = objects[p];
+        ray.setObjectIndex(object);
+        ray.setPrimitive(primitives[p]);
+        if (object < 0) {
+            ray.setObject(null);
+            return false;
+        }
+        ray.setRoot(roots[p]);
+        ray.setObject(hierarchy.getObject(object));
+        return true;
+    }
+
+    /**
+     * Marks the buffer as holding every pixel of a frame taken with a camera
+     *
+     * @param camera    the eye, look at and up points and the horizontal field of view of the camera
+     */
+    public void validate(float[] camera) {
+        System.arraycopy(camera, 0, this.camera, 0, this.camera.length);
+        valid = true;
+        lights = null;
+    }
+
+    /**
+     * Marks the buffer as out of date, after the geometry of the scene changed
+     */
+    public void invalidate() {
+        valid = false;
+        lights = null;
+    }
+
+    /**
+     * Gets the shadow bits of every pixel, a bit for each light the hit of the pixel is in the shadow of
+     *
+     * @return  the bits, one long per pixel in row order
+     */
+    public long[] getShadows() {
+        return shadows;
+    }
+
+    /**
+     * Checks if the shadow bits were kept for lights
+     *
+     * @param lights    the type and position or direction of every light
+     * @return          True if the bits hold for these lights ; False if the shadow rays must be traced again
+     */
+    public boolean hasShadows(float[] lights) {
+        return Arrays.equals(lights, this.lights);
+    }
+
+    /**
+     * Marks the shadow bits of every pixel as kept for lights
+     *
+     * @param lights    the type and position or direction of every light
+     */
+    public void keepShadows(float[] lights) {
+        this.lights = lights.clone();
+    }
+
+    /**
+     * Checks if the buffer can be shaded from for a frame
+     *
+     * @param width     width of the frame in pixels
+     * @param height    height of the frame in pixels
+     * @param camera    the eye, look at and up points and the horizontal field of view of the camera
+     * @return          True if every pixel was stored for this camera and the geometry did not change since
+     */
+    public boolean matches(int width, int height, float[] camera) {
+        return valid && width == this.width && height == this.height && Arrays.equals(camera, this.camera);
+    }
+
+    /**
+     * Gets the width of the buffer
+     *
+     * @return  the width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Gets the height of the buffer
+     *
+     * @return  the height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -1,7 +1,9 @@
 package raytracer;
 
-import java.util.List;
-import javafx.scene.paint.Color;
+import java.io.DataOutput;
+import java.io.IOException;
+import raytracer.pigmentation.LightSet;
+import raytracer.pigmentation.ShadingContext;
 import raytracer.raydefinition.*;
 
 /**
@@ -11,6 +13,53 @@ import raytracer.raydefinition.*;
  */
 public interface GeometricObject {
     boolean intersect(Ray ray);
-    Color Shade(Ray ray, java.util.List<Object> lights, List<Object> objects, Color bgnd);
+
+    /**
+     * Checks if the ray hits the object before its root, for shadow rays
+     * The hit found need not be the closest one; the object and primitive hit are set on the ray
+     *
+     * @param ray       the ray being examined
+     * @param primitive the part of the object to test, as set by an earlier hit, or -1 to test all of it
+     * @return          True if the ray is blocked by the object ; False if not
+     */
+    default boolean occludes(Ray ray, int primitive) {
+        return intersect(ray);
+    }
+
+    /**
+     * Moves the object, for example between the frames of an animation
+     * The hierarchy holding the object must be refitted before it is traced again
+     *
+     * @param dx    offset along x
+     * @param dy    offset along y
+     * @param dz    offset along z
+     * @return      True if the object moved ; False if it cannot be moved
+     */
+    default boolean translate(float dx, float dy, float dz) {
+        return false;
+    }
+
+    /**
+     * Prepares the shading constants of the object's surfaces for the lights of a scene
+     * Called before rendering whenever the lights have changed
+     *
+     * @param lights    the lights the object is shaded with
+     */
+    default void compile(LightSet lights) {
+    }
+
+    /**
+     * Writes everything that decides how the object looks, so that a {@link RenderCache} can tell scenes apart
+     * Objects that write the same bytes must look the same
+     *
+     * @param out   the shape and surfaces of the object are written here
+     * @return      True if the object was written ; False if it cannot be, and frames showing it are not cached
+     * @throws IOException if writing fails
+     */
+    default boolean digest(DataOutput out) throws IOException {
+        return false;
+    }
+    void Shade(Ray ray, ShadingContext context, float[] colour);
+    BoundingBox getBoundingBox();
     String toString();
 }
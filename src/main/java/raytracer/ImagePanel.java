@@ -11,9 +11,14 @@ import java.io.IOException;
  * The ImagePanel Class
  *
  * Creates the image
+ * While a frame renders, finished regions are marked dirty and repainted together at a
+ * throttled rate, so the event dispatch thread is not flooded with repaints
  */
 public class ImagePanel extends JPanel {
-    private BufferedImage image;
+    private static final int REFRESH_INTERVAL = 40;   // milliseconds between repaints while rendering
+    private volatile BufferedImage image;
+    private final Timer refresh = new Timer(REFRESH_INTERVAL, e -> repaintDirty());
+    private Rectangle dirty;                          // guarded by this
 
     /**
      * Constructor
@@ -32,6 +37,50 @@ public class ImagePanel extends JPanel {
      */
     public void updateImage(Image img) {
         image = (BufferedImage) img;
+        repaint();
+    }
+
+    /**
+     * Marks a region of the image as changed, it is repainted on the next refresh
+     * May be called from any thread
+     *
+     * @param x0    first column (inclusive)
+     * @param y0    first row (inclusive)
+     * @param x1    last column (exclusive)
+     * @param y1    last row (exclusive)
+     */
+    public synchronized void markDirty(int x0, int y0, int x1, int y1) {
+        Rectangle region = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+        dirty = (dirty == null) ? region : dirty.union(region);
+    }
+
+    /**
+     * Starts repainting dirty regions every REFRESH_INTERVAL milliseconds
+     */
+    public void startUpdates() {
+        refresh.start();
+    }
+
+    /**
+     * Stops the periodic repaints, after repainting whatever is still dirty
+     */
+    public void stopUpdates() {
+        refresh.stop();
+        repaintDirty();
+    }
+
+    /**
+     * Repaints the regions marked dirty since the last refresh
+     */
+    private void repaintDirty() {
+        Rectangle region;
+        synchronized (this) {
+            region = dirty;
+            dirty = null;
+        }
+        if (region != null) {
+            repaint(region);
+        }
     }
 
     /**
@@ -43,7 +92,6 @@ public class ImagePanel extends JPanel {
     protected void paintComponent(Graphics g) {
         super.paintComponent(g);
         g.drawImage(image, 0, 0, this);
-        repaint();
     }
 
     /**
@@ -52,9 +100,20 @@ public class ImagePanel extends JPanel {
      * @param img   the image to be saved
      */
     public void saveAsPNG(Image img)
+    {
+        saveAsPNG(img, new File("./rendered_image.png"));
+    }
+
+    /**
+     * Save the scene/image as a png file
+     *
+     * @param img   the image to be saved
+     * @param file  the file to write
+     */
+    public void saveAsPNG(Image img, File file)
     {
         try {
-            if (ImageIO.write((BufferedImage) img, "png", new File("./rendered_image.png")))
+            if (ImageIO.write((BufferedImage) img, "png", file))
             {
                 Log.info("--> saved as PNG file");
             }
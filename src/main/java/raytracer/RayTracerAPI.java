@@ -3,10 +3,18 @@ package raytracer;
 import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.awt.image.BufferedImage;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import javafx.scene.paint.Color;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.acceleration.RayPacket;
 import raytracer.pigmentation.*;
 import raytracer.raydefinition.*;
 
@@ -14,18 +22,49 @@ import raytracer.raydefinition.*;
  * The Raytracer API Class
  *
  */
-public class RayTracerAPI {
+public class RayTracerAPI implements SceneBuilder {
     //want to set up frame or display
     JFrame frame;
     int frameHeight, frameWidth;
     float horizontal;
     Point3D origin;
     Vector3D lookat, up;
-    BufferedImage canvas;
+    FrameBuffer frameBuffer;
     final static int CHUNKSIZE = 100;
-    Color background;
+    final static int DEFAULT_TILESIZE = 32;
+    final static int PREVIEW_STEP = 4;
+    final static int PACKET_SIZE = 8;
+    final static float DEFAULT_EDGE_THRESHOLD = 0.1f;
+    final static float REBUILD_COST_GROWTH = 1.5f;
+    final static int FRAMES_QUEUED = 2;
+    int renderThreads, tileSize;
+    int samplesAcross;
+    float edgeThreshold;
+    boolean[] edges;
+    boolean progressive;
+    boolean packets;
+    int maxDepth;
+    float minContribution;
+    ImagePanel display;
+    RGBColour background;
     Vector3D Du, Dv, Vp;
-    List<Object> objectList, lightList;
+    List<GeometricObject> objectList;
+    List<Light> lightList;
+    BoundingVolumeHierarchy accelerator;
+    BitSet movedObjects;
+    ForkJoinPool renderPool;
+    boolean sharedPool;
+    Path outputFile;
+    FrameWriter.Format outputFormat;
+    String frameName;
+    Scene snapshot;
+    TileCoordinator coordinator;
+    int shippedObjects, shippedLights;      // the objects and lights the workers read from the scene file
+    boolean edited;                         // an object or light was changed through the API
+    RenderCache cache;
+    TileDependencies dependencies;
+    GBuffer gbuffer;
+    RenderStats stats;
     Surface currentSurface;
 
     /**
@@ -39,10 +78,23 @@ public class RayTracerAPI {
         this.frameHeight = height;
         this.frameWidth = width;
         this.horizontal = 0;
-        this.canvas = new BufferedImage(this.frameWidth,this.frameHeight,BufferedImage.TYPE_INT_ARGB);
+        this.frameBuffer = new FrameBuffer(this.frameWidth,this.frameHeight);
         objectList = new ArrayList<>(CHUNKSIZE);
         lightList = new ArrayList<>(CHUNKSIZE);
+        movedObjects = new BitSet();
+        outputFile = Path.of("rendered_image.png");
+        outputFormat = FrameWriter.Format.PNG;
+        frameName = "frame%05d";
         currentSurface = new Surface(0.8f,0.2f,0.9f,0.2f,0.4f, 0.4f, 10.0f, 0f, 0f,1f);
+        renderThreads = Runtime.getRuntime().availableProcessors();
+        tileSize = DEFAULT_TILESIZE;
+        progressive = true;
+        packets = true;
+        samplesAcross = 1;
+        edgeThreshold = DEFAULT_EDGE_THRESHOLD;
+        maxDepth = ShadingContext.DEFAULT_MAX_DEPTH;
+        minContribution = ShadingContext.DEFAULT_MIN_CONTRIBUTION;
+        stats = new RenderStats();
     }
 
     /**
@@ -57,14 +109,28 @@ public class RayTracerAPI {
         frame.setPreferredSize(displaySize);
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 
-        canvas = new BufferedImage(this.frameWidth,this.frameHeight,BufferedImage.TYPE_INT_ARGB);
+        this.setupCamera();
+    }
+
+    /**
+     * Sets up the canvas and the camera, without creating a window
+     *
+     * Should only be called internally
+     * */
+    void setupCamera(){
+        if (frameBuffer == null || frameBuffer.getWidth() != this.frameWidth || frameBuffer.getHeight() != this.frameHeight) {
+            frameBuffer = new FrameBuffer(this.frameWidth,this.frameHeight);
+        }
+        if (gbuffer != null && (gbuffer.getWidth() != this.frameWidth || gbuffer.getHeight() != this.frameHeight)) {
+            gbuffer = new GBuffer(this.frameWidth,this.frameHeight);
+        }
         this.horizontal = 30;
 
         // Default values
         if (origin == null) origin = new Point3D(0,0,10);
         if (lookat == null) lookat = new Vector3D(0,0,0);
         if (up == null) up = new Vector3D(0,1,0);
-        if (background ==null) background =new Color(0,0,0, 1);
+        if (background ==null) background =new RGBColour(0,0,0, 1);
 
         this.setupViewingMatrix();
     }
@@ -84,6 +150,7 @@ public class RayTracerAPI {
 
     /**
      * Method will actually display object to the GUI and save the rendered result as a PNG file
+     * With a render cache set, a frame rendered before is copied from the cache and shown without tracing
      *
      * Should only be called after setupFrame
      * */
@@ -95,36 +162,1081 @@ public class RayTracerAPI {
         frame.setVisible(true);
 
         long time = System.currentTimeMillis();
-        for (int j=0; j< this.frameHeight; j+=1){
-            for (int i =0; i<this.frameWidth; i+=1){
-                this.renderPixel(i,j);
+        display = image;
+        image.updateImage(frameBuffer.getImage());
+        image.startUpdates();
+        boolean traced;
+        try {
+            traced = this.renderCached(outputFile);
+        } finally {
+            image.stopUpdates();
+            display = null;
+        }
+        if (!traced) {
+            try {
+                FrameWriter.read(outputFile, frameBuffer);
+                image.updateImage(frameBuffer.getImage());
+            } catch (IOException e) {
+                Log.error("could not show " + outputFile + ": " + e.getMessage());
             }
+            return;
         }
-        image.updateImage(this.canvas);
         time = System.currentTimeMillis() - time;
         Log.info("Rendered in " +(time/60000)+ " minutes: "+((time%60000)*0.001)+" seconds" );
-        image.saveAsPNG(this.canvas);
+        Log.info("--> saved as " + outputFile);
+        Log.info(stats.toJson());
+    }
+
+    /**
+     * Renders the scene into a file through the render cache, without creating a window
+     * With a render cache set, a frame rendered before is copied from the cache instead of traced,
+     * and a traced frame is stored in the cache once written
+     *
+     * @param file - the file to write, in the output format
+     * @return true if the frame was traced ; false if it was copied from the cache
+     * */
+    public boolean renderCached(Path file) throws IOException {
+        outputFile = file;
+        this.setupCamera();
+        String key = this.fetchCached();
+        if (key == null) {
+            return false;
+        }
+        this.prepareRender();
+        this.renderImage();
+        try (FrameWriter writer = new FrameWriter(outputFormat, 1, stats)) {
+            writer.write(frameBuffer, outputFile);
+        }
+        if (!key.isEmpty()) {
+            cache.store(key, outputFormat, outputFile);
+        }
+        return true;
+    }
+
+    /**
+     * Looks the frame up in the render cache and, on a hit, copies it to the output file
+     *
+     * @return null on a hit ; otherwise the key to store the frame under once rendered, empty if it is not to be cached
+     * Should only be called internally, with the camera set up
+     * */
+    String fetchCached(){
+        if (cache == null) {
+            return "";
+        }
+        long time = System.nanoTime();
+        String key = cache.key(this, outputFormat);
+        if (key == null) {
+            Log.info("The scene has objects the render cache cannot tell apart, rendering without it");
+            return "";
+        }
+        if (cache.fetch(key, outputFormat, outputFile)) {
+            Log.info("Found in the render cache in " + ((System.nanoTime() - time) / 1000000) + " ms --> saved as " + outputFile);
+            this.forgetTiles();
+            return null;
+        }
+        return key;
+    }
+    /**
+     * Renders the scene without creating a window or touching Swing
+     * Can be used instead of setupFrame and renderFrame, for example on headless machines
+     *
+     * @return the rendered image
+     * */
+    public BufferedImage render(){
+        this.setupCamera();
+        this.prepareRender();
+        this.renderImage();
+        return frameBuffer.getImage();
+    }
+
+    /**
+     * Renders an animation without a window, writing every frame to a numbered file in the output
+     * format: frame00000.png, frame00001.png and so on, unless setFrameName chose other names
+     * Before each frame the animation places the camera and moves objects. The scene, its hierarchy,
+     * the shading contexts and the render threads are kept from frame to frame: only the boxes
+     * around the objects that moved are refitted, unless that has made the hierarchy too slow to trace.
+     * Frames are encoded by a {@link FrameWriter} while the next one is traced; up to FRAMES_QUEUED
+     * frames wait to be written before tracing waits for them
+     *
+     * @param frames - number of frames to render
+     * @param animation - sets up each frame
+     * @param directory - the frames are written here, it is created if needed
+     * @throws IOException if a frame cannot be written
+     * */
+    public void renderSequence(int frames, Animation animation, Path directory) throws IOException {
+        Files.createDirectories(directory);
+        if (coordinator != null) {
+            // the workers only know the scene file, not what the animation does to it
+            Log.info("Workers render single frames, rendering the sequence here");
+            coordinator = null;
+        }
+        try (FrameWriter writer = new FrameWriter(outputFormat, FRAMES_QUEUED, stats)) {
+            for (int frame = 0; frame < frames; frame++) {
+                long start = System.nanoTime();
+                animation.update(this, frame);
+                this.render();
+                long rendered = System.nanoTime();
+                Path file = directory.resolve(String.format(frameName, frame) + "." + outputFormat.getExtension());
+                writer.write(frameBuffer, file);
+                long queued = System.nanoTime();
+                Log.info("Frame " + frame + " rendered in " + ((rendered - start) / 1000000) + " ms, queued for "
+                        + file + " in " + ((queued - rendered) / 1000000) + " ms");
+            }
+        }
+    }
+
+    /**
+     * Makes the bounding volume hierarchy match the objects of the scene and
+     * gives every render thread its own shading context
+     * The hierarchy is built the first time and whenever objects have been added; when objects have
+     * only moved it is refitted around them instead, unless its cost has grown by more than
+     * REBUILD_COST_GROWTH since it was built. The objects, hierarchy, lights and limits are then frozen
+     * into a {@link Scene} snapshot, which the render threads take their contexts from; it is kept
+     * until objects or lights are added or the limits change
+     * Must be called before any ray is traced
+     *
+     * Should only be called internally
+     * */
+    void prepareRender(){
+        if (accelerator == null || accelerator.size() != objectList.size()) {
+            this.buildHierarchy();
+        } else if (!movedObjects.isEmpty()) {
+            long time = System.nanoTime();
+            float growth = accelerator.refit(movedObjects);
+            time = System.nanoTime() - time;
+            if (growth > REBUILD_COST_GROWTH) {
+                Log.info("BVH cost grew " + growth + " times after refitting, rebuilding");
+                this.buildHierarchy();
+            } else {
+                stats.recordPhase(RenderStats.Phase.BUILD, time);
+                Log.info("Refitted BVH to " + movedObjects.cardinality() + " moved objects in " + (time / 1000) + " us");
+            }
+        } else {
+            stats.recordPhase(RenderStats.Phase.BUILD, 0);
+        }
+        movedObjects.clear();
+        if (snapshot == null) {
+            snapshot = new Scene(objectList, accelerator, lightList, background, maxDepth, minContribution);
+        }
+    }
+
+    private void buildHierarchy(){
+        long time = System.nanoTime();
+        accelerator = new BoundingVolumeHierarchy(objectList, renderThreads > 1 ? this.renderPool() : null);
+        time = System.nanoTime() - time;
+        stats.recordPhase(RenderStats.Phase.BUILD, time);
+        Log.info("Built BVH over " + accelerator.size() + " objects (" + accelerator.nodeCount() + " nodes) in " + (time / 1000000) + " ms");
+        snapshot = null;
+        if (gbuffer != null) {
+            gbuffer.invalidate();
+        }
     }
+
+    /**
+     * Traces every pixel into the frame buffer and publishes it to the canvas
+     *
+     * In progressive mode one pixel of every PREVIEW_STEP x PREVIEW_STEP block is traced first and
+     * fills its whole block, then each pass halves the block size and traces only the pixels the
+     * coarser passes skipped. Every pixel is still traced exactly once, so the finished image is
+     * the same as without the preview
+     * With anti-aliasing on, the pixels on edges are then found and traced again with several samples each
+     * In incremental mode only the tiles that edits since the last frame can have changed are traced, see renderIncremental
+     * With re-shading on, a frame whose camera and geometry did not change is shaded from the G-buffer instead, see reshadeImage
+     * Afterwards the trace time and the ray counts of all threads are collected into the stats
+     * Should only be called internally, after prepareRender
+     * */
+    void renderImage(){
+        long start = System.nanoTime();
+        long time = System.currentTimeMillis();
+        if (coordinator != null && (edited || objectList.size() != shippedObjects || lightList.size() != shippedLights)) {
+            // the workers only know the scene file, not what was changed since it was read
+            Log.info("The scene was edited after it was read, rendering here");
+            coordinator = null;
+        }
+        if (coordinator != null) {
+            coordinator.render(this);
+            this.forgetTiles();
+            stats.recordPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+            stats.collect(snapshot, this);
+            return;
+        }
+        if (gbuffer != null && gbuffer.matches(this.frameWidth, this.frameHeight, this.camera())) {
+            this.reshadeImage();
+            stats.recordPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+            stats.collect(snapshot, this);
+            return;
+        }
+        if (dependencies != null) {
+            this.renderIncremental();
+            this.validateGBuffer();
+            stats.recordPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+            stats.collect(snapshot, this);
+            return;
+        }
+        ForkJoinPool pool = renderThreads > 1 ? this.renderPool() : null;
+        for (int step = progressive ? PREVIEW_STEP : 1; step >= 1; step /= 2) {
+            boolean refine = progressive && step < PREVIEW_STEP;
+            if (pool != null) {
+                pool.invoke(new TileRenderer(this, 0, TileRenderer.tileCount(this), step, refine));
+            } else {
+                this.renderBlocks(0, 0, this.frameWidth, this.frameHeight, step, refine);
+                this.publish(0, 0, this.frameWidth, this.frameHeight);
+            }
+            if (progressive && step == PREVIEW_STEP) {
+                Log.info("Preview ready in " + (System.currentTimeMillis() - time) + " ms");
+            }
+        }
+        if (samplesAcross > 1) {
+            this.supersampleEdges(pool);
+        }
+        this.validateGBuffer();
+        stats.recordPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+        stats.collect(snapshot, this);
+    }
+
+    /**
+     * Finds the edges of the frame and supersamples them, once every pixel has been traced
+     *
+     * @param pool - the render threads, null to supersample on the calling thread
+     * */
+    private void supersampleEdges(ForkJoinPool pool){
+        int found = this.findEdges();
+        Log.info("Supersampling " + found + " edge pixels with " + (samplesAcross * samplesAcross) + " samples each");
+        if (pool != null) {
+            pool.invoke(new TileRenderer(this, 0, TileRenderer.tileCount(this)));
+        } else {
+            this.supersample(0, 0, this.frameWidth, this.frameHeight);
+            this.publish(0, 0, this.frameWidth, this.frameHeight);
+        }
+    }
+
+    /**
+     * Shades every pixel again from the G-buffer of the last frame, without tracing camera rays: what the
+     * camera ray of each pixel hit, and where, is read back and shaded as if it had just been traced.
+     * Shadow, reflected and refracted rays are traced as usual, so changed lights, surfaces and depth
+     * limits all show, and the frame comes out the same as if it were traced again. Edge pixels are then
+     * supersampled as renderImage does, by tracing their samples. Which lights the camera hits are shadowed
+     * from is kept in the G-buffer, and reused by the next frame shaded from it if no light was added or moved
+     * The rays of the tiles are not recorded, so an incremental frame after this one is traced in full
+     *
+     * Should only be called internally, after prepareRender, with a G-buffer matching the camera
+     * */
+    private void reshadeImage(){
+        int across = TileRenderer.tilesAcross(this);
+        float[] lights = this.lightPositions();
+        boolean replay = gbuffer.hasShadows(lights);
+        this.forEachTile(IntStream.range(0, TileRenderer.tileCount(this)).toArray(), tile -> {
+            int x0 = (tile % across) * tileSize, y0 = (tile / across) * tileSize;
+            int x1 = Math.min(x0 + tileSize, this.frameWidth), y1 = Math.min(y0 + tileSize, this.frameHeight);
+            this.reshade(x0, y0, x1, y1, replay);
+            this.publish(x0, y0, x1, y1);
+        });
+        gbuffer.keepShadows(lights);
+        Log.info("Re-shaded " + (this.frameWidth * this.frameHeight) + " pixels from the G-buffer"
+                + (replay ? ", with the shadows of the last frame" : ""));
+        if (samplesAcross > 1) {
+            this.supersampleEdges(renderThreads > 1 ? this.renderPool() : null);
+        }
+        this.forgetTiles();
+    }
+
+    /**
+     * Shades the pixels of a rectangle of the frame from the G-buffer, into the frame buffer
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @param replay - true to take the shadows of the camera hits from the G-buffer, false to trace and keep them
+     * Should only be called internally
+     * */
+    void reshade(int x0, int y0, int x1, int y1, boolean replay){
+        ShadingContext context = snapshot.context();
+        Ray ray = context.getPrimaryRay();
+        BoundingVolumeHierarchy objects = context.getObjects();
+        float[] colour = context.getColour();
+        long[] shadows = gbuffer.getShadows();
+        for (int j = y0; j < y1; j++){
+            for (int i = x0; i < x1; i++){
+                this.aim(ray, i, j);
+                if (gbuffer.load(i, j, ray, objects)) {
+                    context.setShadows(shadows, j * this.frameWidth + i, replay);
+                    ray.Shade(context, colour);
+                } else {
+                    this.background(colour);
+                }
+                frameBuffer.setColour(i, j, colour);
+            }
+        }
+        context.setShadows(null, 0, false);
+    }
+
+    /**
+     * Marks the G-buffer as matching the camera, once every pixel of a frame has been traced into it
+     * */
+    private void validateGBuffer(){
+        if (gbuffer != null) {
+            gbuffer.validate(this.camera());
+        }
+    }
+
+    /**
+     * Gets what decides where the shadow rays go: the type and position or direction of every light
+     *
+     * @return four values per light, an ambient light has no position
+     * Should only be called internally
+     * */
+    float[] lightPositions(){
+        float[] positions = new float[4 * lightList.size()];
+        for (int k = 0; k < lightList.size(); k++){
+            Light light = lightList.get(k);
+            positions[4 * k] = light.getLightType().ordinal();
+            if (light.getLvec() != null) {
+                Point3D v = light.getLvec().getPoint();
+                positions[4 * k + 1] = v.getX();
+                positions[4 * k + 2] = v.getY();
+                positions[4 * k + 3] = v.getZ();
+            }
+        }
+        return positions;
+    }
+
+    /**
+     * Gets what decides where the camera rays go, other than the size of the frame
+     *
+     * @return the eye, look at and up points and the horizontal field of view
+     * Should only be called internally, with the camera set up
+     * */
+    float[] camera(){
+        Point3D lookat = this.lookat.getPoint(), up = this.up.getPoint();
+        return new float[] {origin.getX(), origin.getY(), origin.getZ(), lookat.getX(), lookat.getY(), lookat.getZ(),
+                up.getX(), up.getY(), up.getZ(), horizontal};
+    }
+
+    /**
+     * Traces only the tiles that the edits since the last frame can have changed, as {@link TileDependencies}
+     * works them out, and records the rays of every tile traced for the next frame; the other tiles keep
+     * their pixels. With anti-aliasing on, the edges of the traced tiles are supersampled, and so are the
+     * pixels along the sides of the tiles next to them, whose neighbours may have changed. The supersampled
+     * colours go straight to the pixels, as in renderRegion, so the stored colours stay single samples for
+     * the edges search of later frames. The frame comes out the same as if it were rendered in full
+     *
+     * Should only be called internally, after prepareRender
+     * */
+    private void renderIncremental(){
+        boolean[] dirty = dependencies.dirtyTiles(this);
+        int[] traced = IntStream.range(0, dirty.length).filter(t -> dirty[t]).toArray();
+        int across = TileRenderer.tilesAcross(this);
+        Log.info("Tracing " + traced.length + " of " + dirty.length + " tiles");
+        this.forEachTile(traced, tile -> {
+            int x0 = (tile % across) * tileSize, y0 = (tile / across) * tileSize;
+            int x1 = Math.min(x0 + tileSize, this.frameWidth), y1 = Math.min(y0 + tileSize, this.frameHeight);
+            ShadingContext context = snapshot.context();
+            context.setFootprint(dependencies.tile(tile));
+            this.renderBlocks(x0, y0, x1, y1, 1, false);
+            context.setFootprint(null);
+            this.publish(x0, y0, x1, y1);
+        });
+        if (samplesAcross == 1) {
+            return;
+        }
+        if (edges == null || edges.length != this.frameWidth * this.frameHeight) {
+            edges = new boolean[this.frameWidth * this.frameHeight];
+        }
+        int down = dirty.length / across;
+        int[] touched = IntStream.range(0, dirty.length).filter(t -> dirty[t]
+                || (t % across > 0 && dirty[t - 1]) || (t % across + 1 < across && dirty[t + 1])
+                || (t >= across && dirty[t - across]) || (t / across + 1 < down && dirty[t + across])).toArray();
+        this.forEachTile(touched, tile -> {
+            int x0 = (tile % across) * tileSize, y0 = (tile / across) * tileSize;
+            int x1 = Math.min(x0 + tileSize, this.frameWidth), y1 = Math.min(y0 + tileSize, this.frameHeight);
+            RayFootprint footprint = dependencies.tile(tile);
+            if (dirty[tile]) {
+                this.resample(x0, y0, x1, y1, footprint);
+                return;
+            }
+            if (tile % across > 0 && dirty[tile - 1]) {
+                this.resample(x0, y0, x0 + 1, y1, footprint);
+            }
+            if (tile % across + 1 < across && dirty[tile + 1]) {
+                this.resample(x1 - 1, y0, x1, y1, footprint);
+            }
+            if (tile >= across && dirty[tile - across]) {
+                this.resample(x0, y0, x1, y0 + 1, footprint);
+            }
+            if (tile / across + 1 < down && dirty[tile + across]) {
+                this.resample(x0, y1 - 1, x1, y1, footprint);
+            }
+        });
+    }
+
+    /**
+     * Finds the edges of a rectangle of the frame again and supersamples them into the pixels, the other
+     * pixels of the rectangle get back the colour of their single sample
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @param footprint - the footprint of the tile the rectangle belongs to, the samples are recorded in it
+     * */
+    private void resample(int x0, int y0, int x1, int y1, RayFootprint footprint){
+        this.findEdges(x0, y0, x1, y1);
+        ShadingContext context = snapshot.context();
+        context.setFootprint(footprint);
+        float[] colour = context.getColour();
+        float[] colours = frameBuffer.getColours();
+        int[] pixels = frameBuffer.getPixels();
+        for (int j = y0; j < y1; j++){
+            for (int i = x0; i < x1; i++){
+                int p = j * this.frameWidth + i;
+                if (edges[p]) {
+                    this.supersamplePixel(i, j, context, colour);
+                    pixels[p] = Colour.getRGB(colour[0], colour[1], colour[2], 1f);
+                } else {
+                    pixels[p] = Colour.getRGB(colours[3 * p], colours[3 * p + 1], colours[3 * p + 2], 1f);
+                }
+            }
+        }
+        context.setFootprint(null);
+        ImagePanel panel = display;
+        if (panel != null) {
+            panel.markDirty(x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Runs a task for each of a list of tiles, on the render threads if there are several
+     *
+     * @param tiles - the indices of the tiles
+     * @param task - what to do with a tile, given its index
+     * */
+    private void forEachTile(int[] tiles, IntConsumer task){
+        if (renderThreads > 1) {
+            this.renderPool().submit(() -> IntStream.of(tiles).parallel().forEach(task)).join();
+        } else {
+            IntStream.of(tiles).forEach(task);
+        }
+    }
+
+    /**
+     * Forgets what the tiles of the last frame traced, after a frame was made some other way than
+     * renderIncremental, so the next frame is traced in full
+     * */
+    private void forgetTiles(){
+        if (dependencies != null) {
+            dependencies = new TileDependencies();
+        }
+    }
+
+    /**
+     * Renders the blocks of one pass whose top left pixel lies in a rectangle of the frame
+     * Blocks start on multiples of step and may reach past the rectangle
+     * Single pixels are traced in packets of PACKET_SIZE x PACKET_SIZE camera rays, unless packets are turned off
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @param step - edge length of the blocks, 1 renders single pixels
+     * @param refine - skips the blocks that start where a block of the previous, twice as coarse, pass started
+     * Should only be called internally
+     * */
+    void renderBlocks(int x0, int y0, int x1, int y1, int step, boolean refine){
+        int coarse = 2 * step;
+        if (step == 1 && packets) {
+            for (int j = y0; j < y1; j += PACKET_SIZE){
+                for (int i = x0; i < x1; i += PACKET_SIZE){
+                    this.renderPacket(i, j, Math.min(i + PACKET_SIZE, x1), Math.min(j + PACKET_SIZE, y1), refine);
+                }
+            }
+            return;
+        }
+        for (int j = (y0 + step - 1) / step * step; j < y1; j += step){
+            for (int i = (x0 + step - 1) / step * step; i < x1; i += step){
+                if (refine && i % coarse == 0 && j % coarse == 0) {
+                    continue;
+                }
+                if (step == 1) {
+                    this.renderPixel(i, j);
+                } else {
+                    this.renderBlock(i, j, step);
+                }
+            }
+        }
+    }
+
+    /**
+     * Gets the threads that render frames in parallel, they are kept from frame to frame so that
+     * their shading contexts are too; the worker threads are daemons and stop by themselves when idle
+     *
+     * @return the pool, with renderThreads threads, or the pool given to setRenderPool
+     * Should only be called internally
+     * */
+    ForkJoinPool renderPool(){
+        if (!sharedPool && (renderPool == null || renderPool.getParallelism() != renderThreads)) {
+            if (renderPool != null) {
+                renderPool.shutdown();
+            }
+            renderPool = new ForkJoinPool(renderThreads);
+        }
+        return renderPool;
+    }
+
+    /**
+     * Marks the pixels that differ from a neighbour above, below, left or right, either because their rays
+     * hit a different object or because a colour channel differs by more than the edge threshold
+     * Only reads the frame buffer, so the marks do not depend on the order pixels are supersampled in
+     *
+     * @return the number of pixels marked
+     * Should only be called internally, once every pixel has been traced
+     * */
+    int findEdges(){
+        if (edges == null || edges.length != this.frameWidth * this.frameHeight) {
+            edges = new boolean[this.frameWidth * this.frameHeight];
+        }
+        return this.findEdges(0, 0, this.frameWidth, this.frameHeight);
+    }
+
+    /**
+     * Marks the edge pixels of a rectangle of the frame, as findEdges does for the whole frame
+     * The pixels around the rectangle must have been traced too, but not supersampled yet
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @return the number of pixels marked
+     * Should only be called internally
+     * */
+    int findEdges(int x0, int y0, int x1, int y1){
+        int width = this.frameWidth, height = this.frameHeight;
+        float[] colours = frameBuffer.getColours();
+        long[] hits = frameBuffer.getHits();
+        int found = 0;
+        for (int j = y0; j < y1; j++){
+            for (int i = x0; i < x1; i++){
+                int p = j * width + i;
+                boolean edge = (i > 0 && this.differs(colours, hits, p, p - 1))
+                        || (i + 1 < width && this.differs(colours, hits, p, p + 1))
+                        || (j > 0 && this.differs(colours, hits, p, p - width))
+                        || (j + 1 < height && this.differs(colours, hits, p, p + width));
+                edges[p] = edge;
+                if (edge) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    private boolean differs(float[] colours, long[] hits, int p, int q){
+        if (hits[p] != hits[q]) {
+            return true;
+        }
+        for (int c = 0; c < 3; c++){
+            float a = Math.min(colours[3 * p + c], 1f), b = Math.min(colours[3 * q + c], 1f);
+            if (Math.abs(a - b) > edgeThreshold) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Traces the edge pixels of a rectangle of the frame again, with a grid of samples spread evenly over each pixel,
+     * one in the middle of every cell, and stores their average
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * Should only be called internally, after findEdges
+     * */
+    void supersample(int x0, int y0, int x1, int y1){
+        ShadingContext context = snapshot.context();
+        float[] colour = context.getColour();
+        for (int j = y0; j < y1; j++){
+            for (int i = x0; i < x1; i++){
+                if (edges[j * this.frameWidth + i]) {
+                    this.supersamplePixel(i, j, context, colour);
+                    frameBuffer.setColour(i, j, colour);
+                }
+            }
+        }
+    }
+
+    private void supersamplePixel(int i, int j, ShadingContext context, float[] colour){
+        int n = samplesAcross;
+        float cell = 1f / n, scale = 1f / (n * n);
+        float red = 0, green = 0, blue = 0;
+        for (int b = 0; b < n; b++){
+            for (int a = 0; a < n; a++){
+                this.tracePixel(i - 0.5f + (a + 0.5f) * cell, j - 0.5f + (b + 0.5f) * cell, context, colour);
+                red += colour[0];
+                green += colour[1];
+                blue += colour[2];
+            }
+        }
+        colour[0] = red * scale;
+        colour[1] = green * scale;
+        colour[2] = blue * scale;
+    }
+
+    /**
+     * Gets the scene ready to render separate rectangles of the frame with renderRegion,
+     * as a {@link TileWorker} does for the tiles a {@link TileCoordinator} hands it
+     *
+     * Should only be called internally
+     * */
+    void prepareRegions(){
+        this.setupCamera();
+        this.prepareRender();
+        if (edges == null || edges.length != this.frameWidth * this.frameHeight) {
+            edges = new boolean[this.frameWidth * this.frameHeight];
+        }
+    }
+
+    /**
+     * Renders a rectangle of the frame on its own and returns its pixels, the same pixels as rendering
+     * the whole frame would give them. Several rectangles may be rendered at once by different threads
+     * With anti-aliasing on, the pixels around the rectangle are traced too, to find its edges; the
+     * supersampled colours go straight to the pixels returned, not to the frame buffer, so they never
+     * show to the edges search of a neighbouring rectangle
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @return the ARGB pixels of the rectangle, row by row
+     * Should only be called internally, after prepareRegions
+     * */
+    int[] renderRegion(int x0, int y0, int x1, int y1){
+        int border = samplesAcross > 1 ? 1 : 0;
+        this.renderBlocks(Math.max(x0 - border, 0), Math.max(y0 - border, 0),
+                Math.min(x1 + border, this.frameWidth), Math.min(y1 + border, this.frameHeight), 1, false);
+        if (border > 0) {
+            this.findEdges(x0, y0, x1, y1);
+        }
+        ShadingContext context = snapshot.context();
+        float[] colour = context.getColour();
+        float[] colours = frameBuffer.getColours();
+        int[] pixels = new int[(x1 - x0) * (y1 - y0)];
+        for (int j = y0, p = 0; j < y1; j++){
+            for (int i = x0; i < x1; i++, p++){
+                int c = 3 * (j * this.frameWidth + i);
+                if (border > 0 && edges[j * this.frameWidth + i]) {
+                    this.supersamplePixel(i, j, context, colour);
+                    pixels[p] = Colour.getRGB(colour[0], colour[1], colour[2], 1f);
+                } else {
+                    pixels[p] = Colour.getRGB(colours[c], colours[c + 1], colours[c + 2], 1f);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Copies the pixels of a rectangle rendered elsewhere into the canvas, and shows them in the window if one is showing
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * @param pixels - the ARGB pixels of the rectangle, row by row
+     * Should only be called internally
+     * */
+    void stitch(int x0, int y0, int x1, int y1, int[] pixels){
+        frameBuffer.setPixels(x0, y0, x1, y1, pixels);
+        ImagePanel panel = display;
+        if (panel != null) {
+            panel.markDirty(x0, y0, x1, y1);
+        }
+    }
+
+    /**
+     * Publishes a rectangle of the frame buffer to the canvas, and to the window if one is showing
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive)
+     * @param y1 - last row (exclusive)
+     * Should only be called internally
+     * */
+    void publish(int x0, int y0, int x1, int y1){
+        frameBuffer.publish(x0, y0, x1, y1);
+        ImagePanel panel = display;
+        if (panel != null) {
+            panel.markDirty(x0, y0, x1, y1);
+        }
+    }
+
     /**
      * A method to render/create and fill in the individual pixels in our scene
+     * The colour goes to the frame buffer and shows on the canvas once it is published
      *
      * @param i - value for horizontal component of a vector
      * @param j - value for vertical component of a vector
      * Should only be called internally
      * */
-    private void renderPixel(int i, int j){
-        Vector3D direction= new Vector3D(Du.getPoint().multiply(i).add(Dv.getPoint().multiply(j)).add(Vp.getPoint()));
-        Ray ray = new Ray(origin,direction);
-        Color pixelColour;
+    void renderPixel(int i, int j){
+        ShadingContext context = snapshot.context();
+        float[] colour = context.getColour();
+        this.tracePixel(i, j, context, colour);
+        frameBuffer.setColour(i, j, colour);
+        frameBuffer.setHit(i, j, hitOf(context.getPrimaryRay()));
+        if (gbuffer != null) {
+            gbuffer.store(i, j, context.getPrimaryRay());
+        }
+    }
+
+    /**
+     * Traces the camera rays through a block of pixels as one packet, and shades what each of them hit
+     * Falls back to tracing the pixels one at a time when the hierarchy or the rays do not suit a packet;
+     * either way every pixel gets the same colour it would get from renderPixel
+     *
+     * @param x0 - first column (inclusive)
+     * @param y0 - first row (inclusive)
+     * @param x1 - last column (exclusive), at most PACKET_SIZE columns after the first
+     * @param y1 - last row (exclusive), at most PACKET_SIZE rows after the first
+     * @param refine - skips the pixels on even rows and columns, traced by the previous pass
+     * Should only be called internally
+     * */
+    void renderPacket(int x0, int y0, int x1, int y1, boolean refine){
+        ShadingContext context = snapshot.context();
+        RayPacket packet = context.getPacket();
+        Ray ray = context.getPrimaryRay();
+        packet.clear(origin);
+        for (int j = y0; j < y1; j++){
+            for (int i = x0; i < x1; i++){
+                if (refine && i % 2 == 0 && j % 2 == 0) {
+                    continue;
+                }
+                this.aim(ray, i, j);
+                packet.add(ray, j * this.frameWidth + i);
+            }
+        }
+        BoundingVolumeHierarchy objects = context.getObjects();
+        boolean traced = objects.intersect(packet, context.getCounters());
+        float[] colour = context.getColour();
+        for (int r = 0; r < packet.size(); r++){
+            int i = packet.getTag(r) % this.frameWidth, j = packet.getTag(r) / this.frameWidth;
+            if (!traced) {
+                this.renderPixel(i, j);
+                continue;
+            }
+            // the ray is aimed again rather than rebuilt from the packet, so its direction is exactly the same
+            this.aim(ray, i, j);
+            context.getCounters().countPrimaryRay();
+            int hit = packet.getHit(r);
+            ray.setObjectIndex(hit);
+            ray.setPrimitive(-1);
+            if (hit >= 0) {
+                ray.setRoot(packet.getRoot(r));
+                ray.setObject(objects.getObject(hit));
+                ray.Shade(context, colour);
+            } else {
+                ray.setObject(null);
+                context.record(ray, Float.MAX_VALUE, -1);
+                this.background(colour);
+            }
+            frameBuffer.setColour(i, j, colour);
+            frameBuffer.setHit(i, j, hitOf(ray));
+            if (gbuffer != null) {
+                gbuffer.store(i, j, ray);
+            }
+        }
+    }
+
+    /**
+     * Traces the top left pixel of a block and fills the whole block with its colour, for previews
+     *
+     * @param i - column of the top left pixel
+     * @param j - row of the top left pixel
+     * @param size - edge length of the block, clipped to the frame
+     * Should only be called internally
+     * */
+    void renderBlock(int i, int j, int size){
+        ShadingContext context = snapshot.context();
+        float[] colour = context.getColour();
+        this.tracePixel(i, j, context, colour);
+        frameBuffer.setHit(i, j, hitOf(context.getPrimaryRay()));
+        if (gbuffer != null) {
+            gbuffer.store(i, j, context.getPrimaryRay());
+        }
+        int x1 = Math.min(i + size, this.frameWidth), y1 = Math.min(j + size, this.frameHeight);
+        for (int y = j; y < y1; y++){
+            for (int x = i; x < x1; x++){
+                frameBuffer.setColour(x, y, colour);
+            }
+        }
+    }
+
+    /**
+     * Identifies what a traced ray hit, so that neighbouring pixels showing different objects
+     * or different spheres of one sphere set can be told apart
+     *
+     * @param ray - a ray after tracing
+     * @return the index of the object hit in the high 32 bits and of its primitive in the low ones, -1 for the background
+     * Should only be called internally
+     * */
+    static long hitOf(Ray ray){
+        int object = ray.getObjectIndex();
+        return object < 0 ? -1 : (long) object << 32 | Math.max(ray.getPrimitive(), 0);
+    }
+
+    /**
+     * Traces the camera ray through a point of the image plane and shades what it hits
+     * Uses only the scratch space of the context, so it does not allocate
+     *
+     * @param i - horizontal position on the image plane, in pixels
+     * @param j - vertical position on the image plane, in pixels
+     * @param context - the shading context of the current thread
+     * @param colour - the red, green and blue values seen by the ray are written here
+     * @return True if the ray hit an object ; False if it shows the background
+     * Should only be called internally
+     * */
+    boolean tracePixel(float i, float j, ShadingContext context, float[] colour){
+        Ray ray = context.getPrimaryRay();
+        this.aim(ray, i, j);
+
+        context.getCounters().countPrimaryRay();
+        if (ray.trace(context.getObjects())){
+            ray.Shade(context, colour);
+            return true;
+        }
+        context.record(ray, Float.MAX_VALUE, -1);
+        this.background(colour);
+        return false;
+    }
+
+    /**
+     * Points a ray from the camera through a point of the image plane
+     *
+     * @param ray - the ray to point
+     * @param i - horizontal position on the image plane, in pixels
+     * @param j - vertical position on the image plane, in pixels
+     * Should only be called internally
+     * */
+    void aim(Ray ray, float i, float j){
+        Point3D du = Du.getPoint(), dv = Dv.getPoint(), vp = Vp.getPoint();
+        ray.set(origin.getX(), origin.getY(), origin.getZ(),
+                du.getX() * i + dv.getX() * j + vp.getX(),
+                du.getY() * i + dv.getY() * j + vp.getY(),
+                du.getZ() * i + dv.getZ() * j + vp.getZ());
+    }
+
+    private void background(float[] colour){
+        RGBColour background = snapshot.getBackground();
+        colour[0] = (float) background.getRed();
+        colour[1] = (float) background.getGreen();
+        colour[2] = (float) background.getBlue();
+    }
+
+    /**
+     * Gets the ray counts and phase timings of the last frame rendered
+     *
+     * @return the stats of this scene
+     * */
+    public RenderStats getStats(){
+        return stats;
+    }
+
+    /**
+     * Sets the number of threads used to render a frame
+     *
+     * The hierarchy is built on the same threads
+     *
+     * @param threads - number of render threads, 1 renders the frame, and builds the hierarchy, serially on the calling thread
+     * */
+    public void setRenderThreads(int threads){
+        if (threads < 1) {
+            Log.error("render threads must be at least 1");
+            return;
+        }
+        renderThreads = threads;
+    }
+
+    /**
+     * Renders on a pool shared with other scenes, such as the workers of a {@link RenderServer},
+     * instead of on threads of its own; the scene never shuts a shared pool down
+     * The number of render threads becomes the parallelism of the pool
+     *
+     * @param pool - the pool to render on, null to go back to a pool of the scene's own
+     * */
+    public void setRenderPool(ForkJoinPool pool){
+        if (renderPool != null && !sharedPool) {
+            renderPool.shutdown();
+        }
+        renderPool = pool;
+        sharedPool = pool != null;
+        if (pool != null) {
+            renderThreads = pool.getParallelism();
+        }
+    }
+
+    /**
+     * Renders frames on worker processes instead of on this machine's threads: the scene file is
+     * shipped to every {@link TileWorker} once per frame, with the camera and render settings, and the
+     * tiles they return are stitched into the canvas. Objects or lights changed or added through the API
+     * are not shipped, so once the scene is edited after the file was read, frames are rendered here again
+     *
+     * @param workers - the addresses of the workers, null or empty to render locally again
+     * @param sceneFile - the scene file the scene was loaded from, text or binary, with no edits since
+     * */
+    public void setWorkers(List<InetSocketAddress> workers, Path sceneFile){
+        if (workers == null || workers.isEmpty()) {
+            coordinator = null;
+        } else if (edited) {
+            Log.error("The scene was edited after it was read, the workers cannot render it");
+            coordinator = null;
+        } else {
+            try {
+                coordinator = new TileCoordinator(workers, sceneFile);
+                shippedObjects = objectList.size();
+                shippedLights = lightList.size();
+            } catch (IOException e) {
+                Log.error("could not read " + sceneFile + " for the workers: " + e.getMessage());
+                coordinator = null;
+            }
+        }
+    }
+
+    /**
+     * Keeps the frames renderFrame writes in a cache, and copies a frame from it instead of tracing
+     * when the same scene is rendered again at the same size and in the same format
+     *
+     * @param cache - the cache, null to render every frame
+     * */
+    public void setRenderCache(RenderCache cache){
+        this.cache = cache;
+    }
+
+    /**
+     * Turns incremental rendering on or off, it is off by default
+     * When on, every frame keeps track of the objects and the parts of the scene the rays of each tile
+     * reached, and the next frame only traces the tiles that moveSphere, translateObject and
+     * setObjectSurface since can have changed, so a small edit costs about the screen area it affects.
+     * Editing the camera, the frame or the anti-aliasing, adding objects or lights, changing a light with
+     * setLightIntensity, or moving an object out of the bounds of the scene traces the whole frame again;
+     * re-shading is the cheap way to try out lights. There is no coarse preview
+     *
+     * @param enabled - true to render frames incrementally
+     * */
+    public void setIncremental(boolean enabled){
+        dependencies = enabled ? new TileDependencies() : null;
+    }
+
+    /**
+     * Turns re-shading on or off, it is off by default
+     * When on, every frame keeps a G-buffer of what the camera ray of each pixel hit, and the next frame,
+     * if the camera did not move and no object moved or was added, is shaded from it instead of traced:
+     * changing lights with setLightIntensity or surfaces with setObjectSurface costs only the shading.
+     * Reflected and refracted rays and anti-aliasing samples are still traced, and so are shadow rays the
+     * first time and whenever a light is added or moved; otherwise the shadows of the camera hits are
+     * kept from the frame before. Takes 20 bytes a pixel
+     *
+     * @param enabled - true to keep a G-buffer and re-shade from it
+     * */
+    public void setReshading(boolean enabled){
+        gbuffer = enabled ? new GBuffer(this.frameWidth, this.frameHeight) : null;
+        // an incremental frame would only fill the tiles it traces
+        this.forgetTiles();
+    }
+
+    /**
+     * Turns packet tracing of camera rays on or off, it is on by default
+     * Packets only change how fast a frame renders, not what it looks like
+     *
+     * @param enabled - true to trace the camera rays of neighbouring pixels together
+     * */
+    public void setPacketTracing(boolean enabled){
+        packets = enabled;
+    }
+
+    /**
+     * Turns the coarse preview passes on or off, they are on by default
+     *
+     * @param enabled - true to show a low resolution preview that is refined while the frame renders
+     * */
+    public void setProgressive(boolean enabled){
+        progressive = enabled;
+    }
+
+    /**
+     * Turns on anti-aliasing: once every pixel has been traced, the pixels whose colour or object differs
+     * from a neighbour are traced again with a grid of samples and averaged, all other pixels keep their
+     * single sample, so the cost depends on how much of the frame is edges rather than on its size
+     * Off by default
+     *
+     * @param samples - samples per edge pixel, a square number such as 4, 9 or 16; 1 turns anti-aliasing off
+     * @param threshold - largest difference of a colour channel, between 0 and 1, that does not count as an edge
+     * */
+    public void setAntialiasing(int samples, float threshold){
+        int across = (int) Math.round(Math.sqrt(samples));
+        if (samples < 1 || across * across != samples) {
+            Log.error("samples per pixel must be a square number");
+            return;
+        }
+        if (threshold < 0 || threshold > 1) {
+            Log.error("edge threshold must be between 0 and 1");
+            return;
+        }
+        samplesAcross = across;
+        edgeThreshold = threshold;
+    }
+
+    /**
+     * Turns on anti-aliasing with the default edge threshold
+     *
+     * @param samples - samples per edge pixel, a square number such as 4, 9 or 16; 1 turns anti-aliasing off
+     * */
+    public void setAntialiasing(int samples){
+        this.setAntialiasing(samples, DEFAULT_EDGE_THRESHOLD);
+    }
+
+    /**
+     * Sets how many reflections and refractions are followed from each camera ray
+     * Takes effect from the next frame
+     *
+     * @param depth - maximum number of bounces, 0 turns reflection and refraction off
+     * */
+    public void setMaxDepth(int depth){
+        if (depth < 0) {
+            Log.error("maximum depth must not be negative");
+            return;
+        }
+        maxDepth = depth;
+        snapshot = null;
+    }
 
-        if (ray.trace(this.objectList)){
-            Color bg = background;
-            pixelColour = ray.Shade(lightList, objectList, bg);
+    /**
+     * Sets the share of a pixel below which reflected and refracted rays are not traced
+     * A mirror facing a mirror stops bouncing once what is left to add could not change the pixel
+     * Takes effect from the next frame
+     *
+     * @param contribution - between 0, follow every ray up to the maximum depth, and 1
+     * */
+    public void setMinContribution(float contribution){
+        if (contribution < 0 || contribution > 1) {
+            Log.error("minimum contribution must be between 0 and 1");
+            return;
         }
-        else{
-            pixelColour = background;
+        minContribution = contribution;
+        snapshot = null;
+    }
+
+    /**
+     * Sets the width and height of the square tiles the frame is split into when rendering in parallel
+     *
+     * @param size - tile edge length in pixels
+     * */
+    public void setTileSize(int size){
+        if (size < 1) {
+            Log.error("tile size must be at least 1");
+            return;
         }
-        canvas.setRGB(i, j, Colour.getRGB(pixelColour));
+        tileSize = size;
     }
 
     /**
@@ -140,6 +1252,138 @@ public class RayTracerAPI {
         objectList.add(new Sphere(currentSurface,v,radius));
     }
 
+    /**
+     * Adds an object to be displayed in our image/scene
+     *
+     * @param object - the object, it keeps its own surface
+     * */
+    public void addObject(GeometricObject object){
+        objectList.add(object);
+    }
+
+    /**
+     * Moves a sphere created by createSphere and changes its size, for example between the frames of a sequence
+     *
+     * @param index - the index of the sphere among the objects of the scene, in the order they were created
+     * @param x - x coordinate of the new center point
+     * @param y - y coordinate of the new center point
+     * @param z - z coordinate of the new center point
+     * @param radius - the new radius
+     * */
+    public void moveSphere(int index, float x, float y, float z, float radius){
+        if (index < 0 || index >= objectList.size() || !(objectList.get(index) instanceof Sphere)) {
+            Log.error("object " + index + " is not a sphere");
+            return;
+        }
+        Sphere sphere = (Sphere) objectList.get(index);
+        if (dependencies != null) {
+            dependencies.moved(sphere.getBoundingBox());
+        }
+        sphere.moveTo(x, y, z, radius);
+        if (dependencies != null) {
+            dependencies.moved(sphere.getBoundingBox());
+        }
+        if (gbuffer != null) {
+            gbuffer.invalidate();
+        }
+        movedObjects.set(index);
+        edited = true;
+    }
+
+    /**
+     * Gives a sphere created by createSphere the current surface, as set by setSurface
+     * Takes effect from the next frame, without rebuilding the scene
+     *
+     * @param index - the index of the sphere among the objects of the scene, in the order they were created
+     * */
+    public void setObjectSurface(int index){
+        if (index < 0 || index >= objectList.size() || !(objectList.get(index) instanceof Sphere)) {
+            Log.error("object " + index + " is not a sphere");
+            return;
+        }
+        Sphere sphere = (Sphere) objectList.get(index);
+        sphere.setSurface(currentSurface);
+        if (snapshot != null) {
+            sphere.compile(snapshot.getLights());
+        }
+        if (dependencies != null) {
+            dependencies.restyled(index);
+        }
+        edited = true;
+    }
+
+    /**
+     * Moves an object of the scene by an offset, for example between the frames of a sequence
+     *
+     * @param index - the index of the object, in the order the objects were created or added
+     * @param dx - offset along x
+     * @param dy - offset along y
+     * @param dz - offset along z
+     * */
+    public void translateObject(int index, float dx, float dy, float dz){
+        if (index < 0 || index >= objectList.size()) {
+            Log.error("there is no object " + index);
+            return;
+        }
+        GeometricObject object = objectList.get(index);
+        if (dependencies != null) {
+            dependencies.moved(object.getBoundingBox());
+        }
+        if (!object.translate(dx, dy, dz)) {
+            Log.error(object + " cannot be moved");
+            return;
+        }
+        if (dependencies != null) {
+            dependencies.moved(object.getBoundingBox());
+        }
+        if (gbuffer != null) {
+            gbuffer.invalidate();
+        }
+        movedObjects.set(index);
+        edited = true;
+    }
+
+    /**
+     * Gets the number of objects in the scene, the indices of moveSphere, translateObject and setObjectSurface go up to it
+     *
+     * @return the number of objects
+     * */
+    public int getObjectCount(){
+        return objectList.size();
+    }
+
+    /**
+     * Sets the file renderFrame saves the image to, ./rendered_image.png by default
+     * Also sets the output format from the name of the file: PPM for a .ppm file, PNG otherwise
+     *
+     * @param file - the image file to write
+     * */
+    public void setOutputFile(Path file){
+        outputFile = file;
+        outputFormat = FrameWriter.Format.forFile(file);
+    }
+
+    /**
+     * Sets the format renderFrame and renderSequence write images in, PNG by default
+     * FAST_PNG compresses less, to spend less time writing; PPM does not compress at all
+     *
+     * @param format - the file format
+     * */
+    public void setOutputFormat(FrameWriter.Format format){
+        outputFormat = format;
+    }
+
+    /**
+     * Sets how renderSequence names the frame files, frame%05d by default
+     * The extension of the output format is added to the name
+     *
+     * @param pattern - a String.format pattern, given the number of the frame
+     * */
+    public void setFrameName(String pattern){
+        String.format(pattern, 0);     // a bad pattern fails here rather than after the first frame
+        frameName = pattern;
+    }
+
     /**
      * Sets the origin point of the scene
      *
@@ -186,10 +1430,11 @@ public class RayTracerAPI {
      *
      * */
     public void setlight( float red, float green, float blue, String typeOfLight){
-        Color intensity = new Color(red, green, blue, 1);
+        RGBColour intensity = new RGBColour(red, green, blue, 1);
         typeOfLight = typeOfLight.toLowerCase();
         if (typeOfLight.equals("ambient")){
             lightList.add(new Light(LightType.AMBIENT, null, intensity));
+            snapshot = null;
         }
     }
 
@@ -205,19 +1450,40 @@ public class RayTracerAPI {
      * @param z - z coordinate of vector
      * */
     public void setlight(float red, float green, float blue, String typeOfLight, float x, float y, float z){
-        Color intensity = new Color(red, green, blue, 1);
+        RGBColour intensity = new RGBColour(red, green, blue, 1);
         typeOfLight = typeOfLight.toLowerCase();
         if (typeOfLight.equals("directional")) {
             Vector3D v = new Vector3D(x, y, z);
             lightList.add(new Light(LightType.DIRECTIONAL, v, intensity));
+            snapshot = null;
         } else if (typeOfLight.equals("point")) {
             Vector3D v = new Vector3D(x, y, z);
             lightList.add(new Light(LightType.POINT, v, intensity));
+            snapshot = null;
         } else {
             Log.error("incorrect input");
         }
     }
 
+    /**
+     * Changes the intensity of a light, for example between frames while trying out the lighting
+     * Takes effect from the next frame, which in incremental mode traces every tile again, see setReshading
+     *
+     * @param index - the index of the light, in the order the lights were set
+     * @param red - amount of red in the colour to be used
+     * @param green - amount of green in the colour to be used
+     * @param blue -  amount of blue in the colour to be used
+     * */
+    public void setLightIntensity(int index, float red, float green, float blue){
+        if (index < 0 || index >= lightList.size()) {
+            Log.error("there is no light " + index);
+            return;
+        }
+        lightList.get(index).setIntensity(new RGBColour(red, green, blue, 1));
+        snapshot = null;
+        edited = true;
+    }
+
     /**
      * Set the surface of the scene
      *
@@ -228,10 +1494,11 @@ public class RayTracerAPI {
      * @param diffuseReflection - the reflection of light from a surface such that an incident ray is reflected at many angles
      * @param specularReflection -  mirror-like reflection of light from the surface
      * @param phong - an interpolation technique for surface shading
-     * @param transmission - value for transmission
-     * @param index - index of surface
+     * @param reflection - share of the colour seen in the mirror direction, 0 for none
+     * @param transmission - share of the colour seen through the surface, 0 for an opaque surface
+     * @param index - index of refraction of the material
      * */
-    public void setSurface(float red, float green, float blue, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float adaptiveDepth, float transmission, float index){
-        currentSurface = new Surface(red, green, blue,ambientReflection, diffuseReflection, specularReflection, phong, adaptiveDepth, transmission, index);
+    public void setSurface(float red, float green, float blue, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float reflection, float transmission, float index){
+        currentSurface = new Surface(red, green, blue,ambientReflection, diffuseReflection, specularReflection, phong, reflection, transmission, index);
     }
 }
\ No newline at end of file
@@ -0,0 +1,157 @@
+package raytracer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import raytracer.raydefinition.Point3D;
+
+/**
+ * The Render class
+ *
+ * Headless command line entry point for batch rendering: reads a scene file, as text or in the
+ * {@link BinaryScene} format, renders it
+ * without creating a window and writes the image, then reports where the time went,
+ * followed by the {@link RenderStats} of the frame as one line of JSON.
+ * No Swing or JavaFX toolkit is started, so it runs on machines without a display.
+ *
+ * Usage: java raytracer.Render scene.txt width height output.png [threads]
+ * Anti-aliasing is turned on with -Draytracer.samples=N, N samples per edge pixel, a square number.
+ * With -Draytracer.frames=N a turntable is rendered instead: the camera goes once around the point
+ * it looks at in N frames, and the output names the directory the numbered frames are written to;
+ * each frame is encoded while the next one is traced.
+ * Images are written as PNG, or as PPM when the output ends in .ppm; -Draytracer.format=png, fast-png
+ * or ppm chooses the format instead. fast-png compresses less to spend less time encoding.
+ * With -Draytracer.workers=host:port,... a single frame is rendered on {@link TileWorker} processes instead.
+ * With -Draytracer.cache=directory a single frame is kept in a {@link RenderCache} of at most
+ * -Draytracer.cacheSize megabytes, 1024 by default, and rendering the same frame again copies it from there.
+ */
+public class Render {
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        // one frame, then exit: nothing could read the MBean, which is only registered after the frame
+        if (System.getProperty("raytracer.jmx") == null) {
+            System.setProperty("raytracer.jmx", "false");
+        }
+        if (args.length < 4 || args.length > 5) {
+            Log.error("usage: java raytracer.Render <scene file> <width> <height> <output.png> [threads]");
+            System.exit(2);
+        }
+        try {
+            System.exit(render(args));
+        } catch (NoSuchFileException e) {
+            Log.error("no such file: " + e.getMessage());
+            System.exit(1);
+        } catch (IOException e) {
+            Log.error(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static int render(String[] args) throws IOException {
+        long start = System.nanoTime();
+        int width, height, threads;
+        try {
+            width = Integer.parseInt(args[1]);
+            height = Integer.parseInt(args[2]);
+            threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        } catch (NumberFormatException e) {
+            Log.error("width, height and threads must be whole numbers");
+            return 2;
+        }
+        if (width < 1 || height < 1) {
+            Log.error("width and height must be at least 1");
+            return 2;
+        }
+        Path output = Paths.get(args[3]);
+        String name = System.getProperty("raytracer.format");
+        FrameWriter.Format format = name == null ? FrameWriter.Format.forFile(output) : FrameWriter.Format.forName(name);
+        if (format == null) {
+            Log.error("raytracer.format must be png, fast-png or ppm");
+            return 2;
+        }
+
+        RayTracerAPI scene = new RayTracerAPI(height, width);
+        scene.setRenderThreads(threads);
+        scene.setProgressive(false);
+        scene.setAntialiasing(Integer.getInteger("raytracer.samples", 1));
+        scene.setOutputFile(output);
+        scene.setOutputFormat(format);
+        String cache = System.getProperty("raytracer.cache");
+        if (cache != null) {
+            scene.setRenderCache(new RenderCache(Paths.get(cache), Integer.getInteger("raytracer.cacheSize", 1024) * 1048576L));
+        }
+        Path input = Paths.get(args[0]);
+        if (BinaryScene.isBinary(input)) {
+            BinaryScene.load(input, scene);
+        } else {
+            SceneFile.load(input, scene);
+        }
+        long loaded = System.nanoTime();
+        scene.getStats().recordPhase(RenderStats.Phase.LOAD, loaded - start);
+        String workers = System.getProperty("raytracer.workers");
+        if (workers != null) {
+            try {
+                scene.setWorkers(TileCoordinator.parseWorkers(workers), input);
+            } catch (IllegalArgumentException e) {
+                Log.error("raytracer.workers must be host:port pairs separated by commas: " + e.getMessage());
+                return 2;
+            }
+        }
+
+        int frames = Integer.getInteger("raytracer.frames", 1);
+        if (frames > 1) {
+            scene.renderSequence(frames, turntable(scene, frames), output);
+            long rendered = System.nanoTime();
+            Log.info("Loaded " + input + " in " + millis(loaded - start) + " ms");
+            Log.info("Rendered " + frames + " frames of " + width + "x" + height + " on " + threads + " threads in "
+                    + millis(rendered - loaded) + " ms, " + millis((rendered - loaded) / frames) + " ms per frame");
+            Log.info(scene.getStats().toJson());
+            return 0;
+        }
+
+        if (!scene.renderCached(output)) {
+            Log.info("Loaded " + input + " in " + millis(loaded - start) + " ms");
+            return 0;
+        }
+        long written = System.nanoTime();
+        long encoded = (long) (scene.getStats().getMillis(RenderStats.Phase.ENCODE) * 1000000);
+
+        Log.info("Loaded " + input + " in " + millis(loaded - start) + " ms");
+        Log.info("Rendered " + width + "x" + height + " on " + threads + " threads in " + millis(written - loaded - encoded) + " ms");
+        Log.info("Wrote " + output + " in " + millis(encoded) + " ms");
+        // read last, loading the management classes is not free
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        Log.info("JVM start to first ray: " + (uptime - millis(System.nanoTime() - loaded)) + " ms, total " + uptime + " ms");
+        Log.info(scene.getStats().toJson());
+        return 0;
+    }
+
+    /**
+     * Turns the camera around the point it looks at, about the up direction, once over the frames
+     */
+    private static Animation turntable(RayTracerAPI scene, int frames) {
+        scene.setupCamera();
+        Point3D eye = scene.origin, at = scene.lookat.getPoint(), up = scene.up.getPoint();
+        double length = Math.sqrt(up.getX() * up.getX() + up.getY() * up.getY() + up.getZ() * up.getZ());
+        double ux = up.getX() / length, uy = up.getY() / length, uz = up.getZ() / length;
+        double ex = eye.getX() - at.getX(), ey = eye.getY() - at.getY(), ez = eye.getZ() - at.getZ();
+        double along = ux * ex + uy * ey + uz * ez;
+        float cx = at.getX(), cy = at.getY(), cz = at.getZ();
+        return (s, frame) -> {
+            // Rodrigues' rotation of the eye about the up axis through the point looked at
+            double angle = 2 * Math.PI * frame / frames;
+            double cos = Math.cos(angle), sin = Math.sin(angle);
+            double x = ex * cos + (uy * ez - uz * ey) * sin + ux * along * (1 - cos);
+            double y = ey * cos + (uz * ex - ux * ez) * sin + uy * along * (1 - cos);
+            double z = ez * cos + (ux * ey - uy * ex) * sin + uz * along * (1 - cos);
+            s.setOrigin((float) (cx + x), (float) (cy + y), (float) (cz + z));
+        };
+    }
+
+    private static long millis(long nanos) {
+        return nanos / 1000000;
+    }
+}
@@ -0,0 +1,243 @@
+package raytracer;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import raytracer.pigmentation.*;
+import raytracer.raydefinition.*;
+
+/**
+ * The RenderCache class
+ *
+ * A directory of encoded frames, named by a SHA-256 hash of everything that decides what a frame
+ * looks like: the frame size and output format, the camera, the background, the anti-aliasing and
+ * ray depth settings, and every light and object, which write themselves through
+ * {@link GeometricObject#digest}. Rendering the same scene again finds the frame by its hash and
+ * copies it instead of tracing a single ray. A text scene and its binary copy hash differently, as
+ * their spheres are held as separate objects in one and as a {@link SphereSet} in the other.
+ * Settings that change only how fast a frame renders, such as threads, tiles and packets, are left
+ * out of the hash.
+ * The directory is bounded in size: storing a frame deletes the least recently used ones until the
+ * rest fit, using the modification time of each file, which a hit brings up to date. Several
+ * processes may share a directory, frames are moved into place whole.
+ * A cache error never fails a render: the frame is traced as if nothing had been cached.
+ */
+public class RenderCache {
+    // bumped whenever the renderer changes what a scene looks like, so older frames are not served
+    private static final int VERSION = 1;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    /**
+     * Constructor
+     *
+     * @param directory     the directory frames are kept in, created if needed
+     * @param maxBytes      the most the frames in the directory may add up to
+     * @throws IOException  if the directory cannot be created
+     */
+    public RenderCache(Path directory, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Hashes everything that decides what the next frame of a scene looks like
+     *
+     * @param scene     the scene, with its camera set up
+     * @param format    the format the frame is written in
+     * @return          the hash as hexadecimal, or null if an object of the scene cannot be hashed
+     */
+    public String key(RayTracerAPI scene, FrameWriter.Format format) {
+        MessageDigest sha;
+        try {
+            sha = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("every Java platform has SHA-256", e);
+        }
+        try (DataOutputStream out = new DataOutputStream(new DigestBuffer(sha))) {
+            out.writeInt(VERSION);
+            out.writeUTF(format.name());
+            out.writeInt(scene.frameWidth);
+            out.writeInt(scene.frameHeight);
+            out.writeFloat(scene.horizontal);
+            writePoint(out, scene.origin);
+            writePoint(out, scene.lookat.getPoint());
+            writePoint(out, scene.up.getPoint());
+            writeColour(out, scene.background);
+            out.writeInt(scene.samplesAcross);
+            out.writeFloat(scene.samplesAcross > 1 ? scene.edgeThreshold : 0);
+            out.writeInt(scene.maxDepth);
+            out.writeFloat(scene.minContribution);
+
+            out.writeInt(scene.lightList.size());
+            for (Light light : scene.lightList) {
+                out.writeInt(light.getLightType().ordinal());
+                // ambient lights have no position or direction
+                writePoint(out, light.getLvec() == null ? new Point3D(0, 0, 0) : light.getLvec().getPoint());
+                writeColour(out, light.getIntensity());
+            }
+            out.writeInt(scene.objectList.size());
+            for (GeometricObject object : scene.objectList) {
+                if (!object.digest(out)) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("a digest cannot fail to write", e);
+        }
+        return HexFormat.of().formatHex(sha.digest());
+    }
+
+    /**
+     * Copies a cached frame to a file, if there is one
+     *
+     * @param key       the hash of the frame
+     * @param format    the format of the frame
+     * @param output    the file to write, replaced if it exists
+     * @return          True if the frame was cached and copied ; False if it has to be rendered
+     */
+    public boolean fetch(String key, FrameWriter.Format format, Path output) {
+        Path file = this.file(key, format);
+        try {
+            Files.copy(file, output, StandardCopyOption.REPLACE_EXISTING);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        } catch (IOException e) {
+            Log.error("could not read " + file + " from the render cache: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Keeps a copy of a rendered frame, then evicts the least recently used frames until the cache fits
+     *
+     * @param key       the hash of the frame
+     * @param format    the format of the frame
+     * @param output    the file the frame was written to
+     */
+    public void store(String key, FrameWriter.Format format, Path output) {
+        Path file = this.file(key, format);
+        Path part = null;
+        try {
+            part = Files.createTempFile(directory, key, ".part");
+            Files.copy(output, part, StandardCopyOption.REPLACE_EXISTING);
+            try {
+                Files.move(part, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(part, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            this.evict();
+        } catch (IOException e) {
+            Log.error("could not keep " + output + " in the render cache: " + e.getMessage());
+            try {
+                if (part != null) {
+                    Files.deleteIfExists(part);
+                }
+            } catch (IOException ignored) {
+                // the cache only wastes the space of one frame
+            }
+        }
+    }
+
+    private void evict() throws IOException {
+        List<Path> files = new ArrayList<>();
+        List<BasicFileAttributes> attributes = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*.{png,ppm}")) {
+            for (Path entry : entries) {
+                try {
+                    BasicFileAttributes attribute = Files.readAttributes(entry, BasicFileAttributes.class);
+                    files.add(entry);
+                    attributes.add(attribute);
+                    total += attribute.size();
+                } catch (NoSuchFileException e) {
+                    // evicted by another process meanwhile
+                }
+            }
+        }
+        if (total <= maxBytes) {
+            return;
+        }
+        Integer[] order = new Integer[files.size()];
+        for (int k = 0; k < order.length; k++) {
+            order[k] = k;
+        }
+        Arrays.sort(order, Comparator.comparing(k -> attributes.get(k).lastModifiedTime()));
+        int evicted = 0;
+        for (int k = 0; k < order.length && total > maxBytes; k++) {
+            Files.deleteIfExists(files.get(order[k]));
+            total -= attributes.get(order[k]).size();
+            evicted++;
+        }
+        Log.info("Evicted " + evicted + " frames from the render cache");
+    }
+
+    private Path file(String key, FrameWriter.Format format) {
+        return directory.resolve(key + "." + format.getExtension());
+    }
+
+    /**
+     * Feeds a digest through a buffer; unlike a BufferedOutputStream it does not lock on every byte,
+     * and scenes of single spheres are hashed a few bytes at a time
+     */
+    private static final class DigestBuffer extends OutputStream {
+        private final MessageDigest digest;
+        private final byte[] buffer = new byte[1 << 16];
+        private int count;
+
+        DigestBuffer(MessageDigest digest) {
+            this.digest = digest;
+        }
+
+        @Override
+        public void write(int b) {
+            if (count == buffer.length) {
+                this.flush();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) {
+            this.flush();
+            digest.update(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() {
+            digest.update(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    private static void writePoint(DataOutputStream out, Point3D point) throws IOException {
+        out.writeFloat(point.getX());
+        out.writeFloat(point.getY());
+        out.writeFloat(point.getZ());
+    }
+
+    private static void writeColour(DataOutputStream out, RGBColour colour) throws IOException {
+        out.writeDouble(colour.getRed());
+        out.writeDouble(colour.getGreen());
+        out.writeDouble(colour.getBlue());
+        out.writeDouble(colour.getOpacity());
+    }
+}
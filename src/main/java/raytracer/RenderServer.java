@@ -0,0 +1,363 @@
+package raytracer;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The RenderServer class
+ *
+ * A long-running render service on localhost, so that a job does not pay for starting a JVM and
+ * warming up its JIT: after the first few jobs every one runs on compiled code.
+ * Scenes are posted in the {@link SceneFile} format and the image is sent back in the response:
+ *
+ *   POST /render?width=W&amp;height=H[&amp;priority=P][&amp;format=png|fast-png|ppm][&amp;samples=N]
+ *   GET  /status
+ *
+ * Jobs wait in a queue, higher priorities first and jobs of the same priority in the order they came;
+ * a fixed number of jobs render at a time, each in its own {@link RayTracerAPI}, all of them on one
+ * shared pool of render threads. A job is encoded on the thread of its request once rendered, so the
+ * next job can start rendering meanwhile. ppm is the uncompressed format, for clients that want the
+ * raw pixels. The response carries the time the job waited and rendered in X-Queue-Millis and
+ * X-Render-Millis; errors in the request or the scene get a 400 with the message as plain text, a
+ * scene longer than 64 MB gets a 413 and a full queue gets a 503.
+ * Every job that renders at a time must fit in the heap, so an image may have at most the heap size
+ * divided by the number of concurrent jobs and by BYTES_PER_PIXEL pixels; larger ones get a 400.
+ *
+ * Usage: java raytracer.RenderServer [port] [render threads] [concurrent jobs]
+ */
+public class RenderServer {
+    /** Port the server listens on, by default */
+    public static final int DEFAULT_PORT = 8080;
+    private static final int MAX_QUEUED = 64;
+    private static final int MAX_SIZE = 8192;           // largest width or height of an image
+    private static final int MAX_SCENE = 64 << 20;      // longest scene posted, in bytes
+    private static final int BYTES_PER_PIXEL = 32;      // 24 in the frame buffer, the rest for edges and encoding
+    private static final int STOP_DELAY = 1;            // seconds given to requests to be answered when stopping
+
+    private final HttpServer server;
+    private final ForkJoinPool pool;
+    private final ExecutorService sessions;
+    private final PriorityBlockingQueue<Job> queue = new PriorityBlockingQueue<>();
+    private final Semaphore slots = new Semaphore(MAX_QUEUED);         // places left in the queue
+    private boolean stopping;                                           // guarded by the queue
+    private final AtomicLong arrivals = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong done = new AtomicLong(), failed = new AtomicLong();
+    private final long maxPixels;
+
+    /**
+     * Constructor, starts serving straight away
+     *
+     * @param port          the port to listen on, on the loopback address only
+     * @param threads       the number of render threads shared by all jobs
+     * @param concurrent    the number of jobs rendered at a time
+     * @throws IOException  if the port cannot be bound
+     */
+    public RenderServer(int port, int threads, int concurrent) throws IOException {
+        pool = new ForkJoinPool(threads);
+        maxPixels = Runtime.getRuntime().maxMemory() / concurrent / BYTES_PER_PIXEL;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/render", this::render);
+        server.createContext("/status", this::status);
+        server.setExecutor(Executors.newCachedThreadPool(daemons("render-request")));
+        sessions = Executors.newFixedThreadPool(concurrent, daemons("render-session"));
+        for (int k = 0; k < concurrent; k++) {
+            sessions.execute(this::takeJobs);
+        }
+        server.start();
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        // every job has stats of its own, registering them all would only leak
+        if (System.getProperty("raytracer.jmx") == null) {
+            System.setProperty("raytracer.jmx", "false");
+        }
+        int port, threads, concurrent;
+        try {
+            port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+            threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            concurrent = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        } catch (NumberFormatException e) {
+            Log.error("usage: java raytracer.RenderServer [port] [render threads] [concurrent jobs]");
+            System.exit(2);
+            return;
+        }
+        if (threads < 1 || concurrent < 1) {
+            Log.error("render threads and concurrent jobs must be at least 1");
+            System.exit(2);
+        }
+        try {
+            RenderServer server = new RenderServer(port, threads, concurrent);
+            Log.info("Rendering on http://localhost:" + server.getPort() + "/render with " + threads
+                    + " threads, " + concurrent + " jobs at a time, up to " + server.maxPixels + " pixels each");
+            Runtime.getRuntime().addShutdownHook(new Thread(server::stop));
+        } catch (IOException e) {
+            Log.error("could not start the server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the port the server listens on
+     *
+     * @return  the port, useful when the server was started on port 0
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops taking requests and rendering, jobs still in the queue are failed so that their requests get a 503
+     */
+    public void stop() {
+        List<Job> dropped = new ArrayList<>();
+        synchronized (queue) {
+            stopping = true;
+            queue.drainTo(dropped);
+        }
+        for (Job job : dropped) {
+            slots.release();
+            job.image.completeExceptionally(new CancellationException("the server is stopping"));
+        }
+        sessions.shutdownNow();
+        server.stop(STOP_DELAY);
+        pool.shutdown();
+    }
+
+    /**
+     * Renders the jobs of the queue one after another, one render session
+     * A job that fails with an error does not end the session, the pool never starts another one
+     */
+    private void takeJobs() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                Job job = queue.take();
+                slots.release();
+                running.incrementAndGet();
+                try {
+                    job.run();
+                } catch (Throwable e) {
+                    Log.error("job " + job.arrival + " failed: " + e);
+                } finally {
+                    running.decrementAndGet();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void render(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                reply(exchange, 405, "scenes must be posted");
+                return;
+            }
+            Map<String, String> query = query(exchange.getRequestURI());
+            int width, height, priority, samples;
+            try {
+                width = Integer.parseInt(query.getOrDefault("width", ""));
+                height = Integer.parseInt(query.getOrDefault("height", ""));
+                priority = Integer.parseInt(query.getOrDefault("priority", "0"));
+                samples = Integer.parseInt(query.getOrDefault("samples", "1"));
+            } catch (NumberFormatException e) {
+                reply(exchange, 400, "width and height are required; width, height, priority and samples must be whole numbers");
+                return;
+            }
+            if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE) {
+                reply(exchange, 400, "width and height must be between 1 and " + MAX_SIZE);
+                return;
+            }
+            if ((long) width * height > maxPixels) {
+                reply(exchange, 400, "images must have at most " + maxPixels + " pixels on this server");
+                return;
+            }
+            int across = (int) Math.round(Math.sqrt(samples));
+            if (samples < 1 || across * across != samples) {
+                reply(exchange, 400, "samples per pixel must be a square number");
+                return;
+            }
+            FrameWriter.Format format = FrameWriter.Format.forName(query.getOrDefault("format", "png"));
+            if (format == null) {
+                reply(exchange, 400, "format must be png, fast-png or ppm");
+                return;
+            }
+            // the place in the queue is held from here until a session takes the job
+            if (!slots.tryAcquire()) {
+                reply(exchange, 503, "too many jobs waiting, try again later");
+                return;
+            }
+
+            byte[] scene;
+            try {
+                scene = exchange.getRequestBody().readNBytes(MAX_SCENE + 1);
+            } catch (IOException e) {
+                slots.release();
+                throw e;
+            }
+            if (scene.length > MAX_SCENE) {
+                slots.release();
+                reply(exchange, 413, "scenes must be at most " + MAX_SCENE + " bytes");
+                return;
+            }
+            Job job = new Job(priority, arrivals.getAndIncrement(), scene, width, height, samples);
+            boolean queued;
+            synchronized (queue) {
+                queued = !stopping;
+                if (queued) {
+                    queue.add(job);
+                }
+            }
+            if (!queued) {
+                slots.release();
+                reply(exchange, 503, "the server is stopping");
+                return;
+            }
+            FrameBuffer image;
+            try {
+                image = job.image.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                reply(exchange, 503, "the server is stopping");
+                return;
+            } catch (CancellationException e) {
+                reply(exchange, 503, "the server is stopping");
+                return;
+            } catch (ExecutionException e) {
+                failed.incrementAndGet();
+                reply(exchange, e.getCause() instanceof IOException ? 400 : 500, String.valueOf(e.getCause().getMessage()));
+                return;
+            }
+            done.incrementAndGet();
+
+            exchange.getResponseHeaders().set("Content-Type", format == FrameWriter.Format.PPM
+                    ? "image/x-portable-pixmap" : "image/png");
+            exchange.getResponseHeaders().set("X-Queue-Millis", Long.toString(job.queueMillis));
+            exchange.getResponseHeaders().set("X-Render-Millis", Long.toString(job.renderMillis));
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                FrameWriter.encode(format, image.getPixels(), image.getWidth(), image.getHeight(), out);
+            }
+        }
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String json = "{\"queued\":" + queue.size() + ",\"running\":" + running.get() + ",\"done\":" + done.get()
+                    + ",\"failed\":" + failed.get() + ",\"threads\":" + pool.getParallelism() + "}";
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            byte[] body = json.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+        }
+    }
+
+    private static void reply(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static Map<String, String> query(URI uri) {
+        Map<String, String> values = new HashMap<>();
+        String query = uri.getQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int equals = pair.indexOf('=');
+                if (equals > 0) {
+                    values.put(pair.substring(0, equals), pair.substring(equals + 1));
+                }
+            }
+        }
+        return values;
+    }
+
+    private static ThreadFactory daemons(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A scene waiting to be rendered, and then the image it rendered to
+     */
+    private class Job implements Comparable<Job> {
+        private final int priority;
+        private final long arrival;
+        private final byte[] scene;
+        private final int width, height, samples;
+        private final long queued = System.nanoTime();
+        private final CompletableFuture<FrameBuffer> image = new CompletableFuture<>();
+        private volatile long queueMillis, renderMillis;
+
+        Job(int priority, long arrival, byte[] scene, int width, int height, int samples) {
+            this.priority = priority;
+            this.arrival = arrival;
+            this.scene = scene;
+            this.width = width;
+            this.height = height;
+            this.samples = samples;
+        }
+
+        /**
+         * Renders the scene, completing the image or, if the scene cannot be read, failing it
+         * The image is failed whatever goes wrong, so the request never waits for it in vain
+         */
+        void run() {
+            long start = System.nanoTime();
+            queueMillis = (start - queued) / 1000000;
+            try {
+                RayTracerAPI api = new RayTracerAPI(height, width);
+                api.setProgressive(false);
+                api.setRenderPool(pool);
+                api.setAntialiasing(samples);
+                SceneFile.load(scene, "job " + arrival, api);
+                api.render();
+                renderMillis = (System.nanoTime() - start) / 1000000;
+                Log.info("Job " + arrival + " rendered " + width + "x" + height + " in " + renderMillis + " ms, after "
+                        + queueMillis + " ms in the queue");
+                image.complete(api.frameBuffer);
+            } catch (IOException | RuntimeException e) {
+                image.completeExceptionally(e);
+            } catch (Throwable e) {
+                // an error is passed on to the session too, after the request is answered
+                image.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        @Override
+        public int compareTo(Job other) {
+            if (priority != other.priority) {
+                return Integer.compare(other.priority, priority);
+            }
+            return Long.compare(arrival, other.arrival);
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package raytracer;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.pigmentation.ShadingContext;
+import raytracer.raydefinition.RayCounters;
+
+/**
+ * The RenderStats class
+ *
+ * Collects what a render did and where its time went: the rays traced by kind, the bounding
+ * boxes and objects tested, the objects hit most often, and how long loading the scene,
+ * building the hierarchy, tracing and encoding the image took.
+ * Rays are counted per thread while tracing, see {@link RayCounters}, and added up here when a frame
+ * is finished. After the first frame the stats are also registered as an MBean, named
+ * raytracer:type=RenderStats,id=n, unless -Draytracer.jmx=false is given; registering is left
+ * until then because loading the management classes delays the first ray.
+ * {@link #toJson()} gives a one line summary for scripts.
+ */
+public class RenderStats implements RenderStatsMBean {
+    private static final int HOTTEST = 10;
+    private static final AtomicInteger instances = new AtomicInteger();
+
+    /**
+     * The timed phases of a render
+     */
+    public enum Phase {LOAD, BUILD, TRACE, ENCODE}
+
+    private final long[] phaseNanos = new long[Phase.values().length];
+    private RayCounters frame = new RayCounters();
+    private long frames;
+    private int width, height, threads, objects, lights;
+    private String[] hottestObjects = new String[0];
+    private long[] hottestHits = new long[0];
+    private ObjectName name;
+
+    /**
+     * Records how long a phase took, replacing its previous time
+     *
+     * @param phase the phase
+     * @param nanos the time it took in nanoseconds
+     */
+    public synchronized void recordPhase(Phase phase, long nanos) {
+        phaseNanos[phase.ordinal()] = nanos;
+    }
+
+    /**
+     * Gets how long a phase took
+     *
+     * @param phase the phase
+     * @return      the time in milliseconds, 0 if it has not been recorded
+     */
+    public synchronized double getMillis(Phase phase) {
+        return phaseNanos[phase.ordinal()] / 1e6;
+    }
+
+    /**
+     * Adds up and clears the counters of every thread once a frame is finished
+     *
+     * @param snapshot      the frozen scene the frame was traced from, with the shading contexts of all threads
+     *                      that traced it; objects are numbered as in its hierarchy
+     * @param scene         the scene that was rendered
+     */
+    void collect(Scene snapshot, RayTracerAPI scene) {
+        BoundingVolumeHierarchy accelerator = snapshot.getHierarchy();
+        RayCounters total = new RayCounters();
+        for (ShadingContext context : snapshot.getContexts()) {
+            total.drain(context.getCounters());
+        }
+
+        // the most hit objects, kept sorted by a small insertion sort
+        int[] hitObjects = total.getHitObjects();
+        long[] hits = total.getHitCounts();
+        int[] top = new int[HOTTEST];
+        int used = 0;
+        for (int k = 0; k < hits.length; k++) {
+            if (hitObjects[k] < 0 || (used == top.length && hits[k] <= hits[top[used - 1]])) {
+                continue;
+            }
+            int slot = used < top.length ? used++ : used - 1;
+            while (slot > 0 && hits[top[slot - 1]] < hits[k]) {
+                top[slot] = top[slot - 1];
+                slot--;
+            }
+            top[slot] = k;
+        }
+        String[] names = new String[used];
+        long[] counts = new long[used];
+        for (int k = 0; k < used; k++) {
+            GeometricObject object = accelerator.getObject(hitObjects[top[k]]);
+            names[k] = String.valueOf(object);
+            counts[k] = hits[top[k]];
+        }
+
+        synchronized (this) {
+            frame = total;
+            frames++;
+            width = scene.frameWidth;
+            height = scene.frameHeight;
+            threads = scene.renderThreads;
+            objects = accelerator.size();
+            lights = snapshot.getLights().size();
+            hottestObjects = names;
+            hottestHits = counts;
+        }
+        register();
+    }
+
+    /**
+     * Registers the stats with the platform MBean server, the first time only
+     */
+    private synchronized void register() {
+        if (name != null || !Boolean.parseBoolean(System.getProperty("raytracer.jmx", "true"))) {
+            return;
+        }
+        try {
+            name = new ObjectName("raytracer:type=RenderStats,id=" + instances.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        } catch (JMException e) {
+            Log.error("could not register render stats: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized long getFrames() {
+        return frames;
+    }
+
+    @Override
+    public synchronized long getPrimaryRays() {
+        return frame.getPrimaryRays();
+    }
+
+    @Override
+    public synchronized long getShadowRays() {
+        return frame.getShadowRays();
+    }
+
+    @Override
+    public synchronized long getReflectionRays() {
+        return frame.getReflectionRays();
+    }
+
+    @Override
+    public synchronized long getRefractionRays() {
+        return frame.getRefractionRays();
+    }
+
+    @Override
+    public synchronized long getCulledRays() {
+        return frame.getCulledRays();
+    }
+
+    @Override
+    public synchronized long getOccluderCacheHits() {
+        return frame.getOccluderCacheHits();
+    }
+
+    @Override
+    public synchronized long getTotalRays() {
+        return frame.getPrimaryRays() + frame.getShadowRays() + frame.getReflectionRays() + frame.getRefractionRays();
+    }
+
+    @Override
+    public synchronized long getBoxTests() {
+        return frame.getBoxTests();
+    }
+
+    @Override
+    public synchronized long getObjectTests() {
+        return frame.getObjectTests();
+    }
+
+    @Override
+    public double getLoadMillis() {
+        return getMillis(Phase.LOAD);
+    }
+
+    @Override
+    public double getBuildMillis() {
+        return getMillis(Phase.BUILD);
+    }
+
+    @Override
+    public double getTraceMillis() {
+        return getMillis(Phase.TRACE);
+    }
+
+    @Override
+    public double getEncodeMillis() {
+        return getMillis(Phase.ENCODE);
+    }
+
+    @Override
+    public synchronized double getRaysPerSecond() {
+        long trace = phaseNanos[Phase.TRACE.ordinal()];
+        return trace > 0 ? getTotalRays() * 1e9 / trace : 0;
+    }
+
+    @Override
+    public String getSummary() {
+        return toJson();
+    }
+
+    /**
+     * Gives the stats of the last frame as a single line of JSON
+     *
+     * @return  the JSON object
+     */
+    public synchronized String toJson() {
+        long total = getTotalRays();
+        StringBuilder json = new StringBuilder(512);
+        json.append("{\"width\":").append(width)
+                .append(",\"height\":").append(height)
+                .append(",\"threads\":").append(threads)
+                .append(",\"objects\":").append(objects)
+                .append(",\"lights\":").append(lights)
+                .append(",\"frames\":").append(frames)
+                .append(",\"phasesMs\":{");
+        for (Phase phase : Phase.values()) {
+            json.append(phase.ordinal() > 0 ? "," : "").append('"').append(phase.name().toLowerCase()).append("\":")
+                    .append(Math.round(phaseNanos[phase.ordinal()] / 1e3) / 1e3);
+        }
+        json.append("},\"rays\":{\"primary\":").append(frame.getPrimaryRays())
+                .append(",\"shadow\":").append(frame.getShadowRays())
+                .append(",\"reflection\":").append(frame.getReflectionRays())
+                .append(",\"refraction\":").append(frame.getRefractionRays())
+                .append(",\"total\":").append(total)
+                .append(",\"culled\":").append(frame.getCulledRays())
+                .append("},\"raysPerSecond\":").append(Math.round(getRaysPerSecond()))
+                .append(",\"occluderCacheHits\":").append(frame.getOccluderCacheHits())
+                .append(",\"boxTests\":").append(frame.getBoxTests())
+                .append(",\"objectTests\":").append(frame.getObjectTests())
+                .append(",\"testsPerRay\":").append(total > 0 ? Math.round(100.0 * (frame.getBoxTests() + frame.getObjectTests()) / total) / 100.0 : 0)
+                .append(",\"hottestObjects\":[");
+        for (int k = 0; k < hottestObjects.length; k++) {
+            json.append(k > 0 ? "," : "").append("{\"object\":");
+            appendString(json, hottestObjects[k]);
+            json.append(",\"hits\":").append(hottestHits[k]).append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int k = 0; k < value.length(); k++) {
+            char c = value.charAt(k);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(c == '\n' ? "\\n" : c == '\t' ? "\\t" : " ");
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
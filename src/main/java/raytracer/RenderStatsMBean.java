@@ -0,0 +1,41 @@
+package raytracer;
+
+/**
+ * The RenderStatsMBean interface
+ *
+ * The attributes of {@link RenderStats} shown over JMX, for example in JConsole under raytracer/RenderStats.
+ * Ray and test counts are those of the last frame rendered.
+ */
+public interface RenderStatsMBean {
+    long getFrames();
+
+    long getPrimaryRays();
+
+    long getShadowRays();
+
+    long getReflectionRays();
+
+    long getRefractionRays();
+
+    long getCulledRays();
+
+    long getOccluderCacheHits();
+
+    long getTotalRays();
+
+    long getBoxTests();
+
+    long getObjectTests();
+
+    double getLoadMillis();
+
+    double getBuildMillis();
+
+    double getTraceMillis();
+
+    double getEncodeMillis();
+
+    double getRaysPerSecond();
+
+    String getSummary();
+}
@@ -0,0 +1,143 @@
+package raytracer;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.pigmentation.*;
+
+/**
+ * The Scene class
+ *
+ * A snapshot of what the renderer needs from a {@link RayTracerAPI}: the objects as an array, the
+ * hierarchy over them, the lights compiled into a {@link LightSet}, the background and the limits on
+ * reflected and refracted rays. Render threads share it without copying or locking, and adding objects
+ * or lights to the API does not disturb a frame in progress: the next frame takes a new snapshot.
+ * The snapshot is not immutable, though: objects moved between frames are refitted in the hierarchy,
+ * and moved or restyled spheres change in place, so it survives an animation as long as no object or
+ * light is added. Such edits must only be made between frames.
+ * Each render thread gets its own {@link ShadingContext} over the snapshot the first time it asks. The
+ * contexts are held by the snapshot, keyed by thread, and go away with it.
+ */
+public final class Scene {
+    private final GeometricObject[] objects;
+    private final BoundingVolumeHierarchy hierarchy;
+    private final LightSet lights;
+    private final RGBColour background;
+    private final int maxDepth;
+    private final float minContribution;
+    private final Map<Thread, ShadingContext> contexts = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * Compiles the lights, and the surfaces of every object for them
+     *
+     * @param objects           the objects of the scene, in the order they were added
+     * @param hierarchy         the bounding volume hierarchy over the objects
+     * @param lights            the lights of the scene
+     * @param background        the colour of rays that hit nothing
+     * @param maxDepth          the number of reflections and refractions followed from a camera ray
+     * @param minContribution   the share of a pixel below which reflected and refracted rays are not traced
+     */
+    public Scene(List<GeometricObject> objects, BoundingVolumeHierarchy hierarchy, List<Light> lights,
+                 RGBColour background, int maxDepth, float minContribution) {
+        this.objects = objects.toArray(new GeometricObject[0]);
+        this.hierarchy = hierarchy;
+        this.lights = new LightSet(lights);
+        this.background = background;
+        this.maxDepth = maxDepth;
+        this.minContribution = minContribution;
+        for (GeometricObject object : this.objects) {
+            object.compile(this.lights);
+        }
+    }
+
+    /**
+     * Gets the shading context of the calling thread, creating it the first time
+     *
+     * @return  the context, only to be used by the calling thread
+     */
+    public ShadingContext context() {
+        Thread thread = Thread.currentThread();
+        ShadingContext context = contexts.get(thread);
+        if (context == null) {
+            context = contexts.computeIfAbsent(thread,
+                    t -> new ShadingContext(lights, hierarchy, background, maxDepth, minContribution));
+        }
+        return context;
+    }
+
+    /**
+     * Gets the shading contexts of every thread that has asked for one
+     *
+     * @return  the contexts
+     */
+    Collection<ShadingContext> getContexts() {
+        return contexts.values();
+    }
+
+    /**
+     * Gets the number of objects
+     *
+     * @return  the number of objects in the snapshot
+     */
+    public int getObjectCount() {
+        return objects.length;
+    }
+
+    /**
+     * Gets an object
+     *
+     * @param index the index of the object, in the order the objects were added
+     * @return      the object
+     */
+    public GeometricObject getObject(int index) {
+        return objects[index];
+    }
+
+    /**
+     * Gets the hierarchy over the objects
+     *
+     * @return  the bounding volume hierarchy
+     */
+    public BoundingVolumeHierarchy getHierarchy() {
+        return hierarchy;
+    }
+
+    /**
+     * Gets the lights, compiled for shading
+     *
+     * @return  the lights
+     */
+    public LightSet getLights() {
+        return lights;
+    }
+
+    /**
+     * Gets the background colour
+     *
+     * @return  the colour of rays that hit nothing
+     */
+    public RGBColour getBackground() {
+        return background;
+    }
+
+    /**
+     * Gets the number of reflections and refractions followed from a camera ray
+     *
+     * @return  the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the share of a pixel below which reflected and refracted rays are not traced
+     *
+     * @return  the minimum contribution
+     */
+    public float getMinContribution() {
+        return minContribution;
+    }
+}
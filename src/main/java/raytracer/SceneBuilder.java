@@ -0,0 +1,18 @@
+package raytracer;
+
+/**
+ * The SceneBuilder interface
+ *
+ * Receives a scene description one call at a time, as read by {@link SceneFile}.
+ * {@link RayTracerAPI} builds the scene to render from the calls, {@link BinaryScene.Writer}
+ * records them into the binary scene format.
+ */
+public interface SceneBuilder {
+    void setOrigin(float x, float y, float z);
+    void setLookat(float x, float y, float z);
+    void setUp(float x, float y, float z);
+    void setlight(float red, float green, float blue, String typeOfLight);
+    void setlight(float red, float green, float blue, String typeOfLight, float x, float y, float z);
+    void setSurface(float red, float green, float blue, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float reflection, float transmission, float index);
+    void createSphere(float x, float y, float z, float radius);
+}
@@ -0,0 +1,310 @@
+package raytracer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The SceneFile class
+ *
+ * Reads a scene description, such as resources/SceneToRender.txt, into a {@link SceneBuilder}, usually a {@link RayTracerAPI}.
+ * Every line holds one command followed by its values, blank lines and lines starting with # are skipped:
+ *
+ *   eye x y z
+ *   lookat x y z
+ *   up x y z
+ *   light r g b ambient
+ *   light r g b directional|point x y z
+ *   surface r g b ambient diffuse specular phong reflection transmission index
+ *   sphere x y z radius
+ *
+ * A surface applies to every sphere after it, until the next surface.
+ *
+ * Generated scenes run to millions of lines, so the file is memory-mapped a window at a time and
+ * parsed straight from the mapped bytes: commands are matched byte by byte and plain decimal numbers
+ * are converted without creating a String. Numbers the fast path cannot convert exactly, such as
+ * ones with an exponent or many digits, fall back to {@link Float#parseFloat}, so every value is
+ * the same as parsing its text would give.
+ */
+public class SceneFile {
+    private static final int WINDOW = 1 << 26;           // bytes mapped at a time, lines must be shorter
+    private static final int MAX_VALUES = 10;
+    private static final long MAX_EXACT = 1 << 24;       // largest mantissa every float can hold exactly
+    private static final float[] POWERS_OF_TEN = {1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f};
+
+    private final String source;
+    private final SceneBuilder scene;
+    private final float[] values = new float[MAX_VALUES];
+    private ByteBuffer buffer;
+    private int cursor, lineEnd;
+    private int lineNumber;
+
+    private SceneFile(String source, SceneBuilder scene) {
+        this.source = source;
+        this.scene = scene;
+    }
+
+    /**
+     * Reads a scene file into a scene
+     *
+     * @param path          the scene file
+     * @param scene         the scene that receives the camera, lights and objects
+     * @throws IOException  if the file cannot be read, or a line is malformed, the message gives its line number
+     */
+    public static void load(Path path, SceneBuilder scene) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            new SceneFile(path.toString(), scene).parse(channel);
+        }
+    }
+
+    /**
+     * Reads a scene held in memory, such as one received over the network, into a scene
+     *
+     * @param text          the scene, in the same format as a file
+     * @param source        names the scene in error messages
+     * @param scene         the scene that receives the camera, lights and objects
+     * @throws IOException  if a line is malformed, the message gives its line number
+     */
+    public static void load(byte[] text, String source, SceneBuilder scene) throws IOException {
+        SceneFile file = new SceneFile(source, scene);
+        file.buffer = ByteBuffer.wrap(text);
+        file.parseLines(text.length, true);
+    }
+
+    /**
+     * Maps the file a window at a time, a line cut off by the end of a window is parsed from the next one
+     */
+    private void parse(FileChannel channel) throws IOException {
+        long size = channel.size();
+        long start = 0;
+        while (start < size) {
+            long length = Math.min(WINDOW, size - start);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            int consumed = parseLines((int) length, start + length == size);
+            if (consumed == 0) {
+                lineNumber++;
+                throw error("line is longer than " + WINDOW + " bytes");
+            }
+            start += consumed;
+        }
+    }
+
+    /**
+     * Parses the complete lines of the mapped window
+     *
+     * @param limit     number of bytes mapped
+     * @param last      true if the window ends at the end of the file, so its last line is complete
+     * @return          number of bytes parsed
+     */
+    private int parseLines(int limit, boolean last) throws IOException {
+        int lineStart = 0;
+        while (lineStart < limit) {
+            int end = lineStart;
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            if (end == limit && !last) {
+                return lineStart;
+            }
+            lineNumber++;
+            cursor = lineStart;
+            lineEnd = end;
+            try {
+                parseLine();
+            } catch (IllegalArgumentException e) {
+                throw error(e.getMessage());
+            }
+            lineStart = end + 1;
+        }
+        return limit;
+    }
+
+    private void parseLine() throws IOException {
+        skipSpaces();
+        if (cursor == lineEnd || buffer.get(cursor) == '#') {
+            return;
+        }
+        int word = cursor;
+        int length = skipWord();
+        if (matches(word, length, "sphere")) {
+            readValues("sphere", 4);
+            scene.createSphere(values[0], values[1], values[2], values[3]);
+        } else if (matches(word, length, "surface")) {
+            readValues("surface", 10);
+            scene.setSurface(values[0], values[1], values[2], values[3], values[4],
+                    values[5], values[6], values[7], values[8], values[9]);
+        } else if (matches(word, length, "light")) {
+            readLight();
+        } else if (matches(word, length, "eye")) {
+            readValues("eye", 3);
+            scene.setOrigin(values[0], values[1], values[2]);
+        } else if (matches(word, length, "lookat")) {
+            readValues("lookat", 3);
+            scene.setLookat(values[0], values[1], values[2]);
+        } else if (matches(word, length, "up")) {
+            readValues("up", 3);
+            scene.setUp(values[0], values[1], values[2]);
+        } else {
+            throw error("unknown command " + text(word, length));
+        }
+    }
+
+    private void readLight() throws IOException {
+        for (int k = 0; k < 3; k++) {
+            values[k] = readValue("light", k, 4);
+        }
+        skipSpaces();
+        if (cursor == lineEnd) {
+            throw error("light takes a colour and a type");
+        }
+        int word = cursor;
+        int length = skipWord();
+        if (matches(word, length, "ambient")) {
+            expectEnd("light", 4);
+            scene.setlight(values[0], values[1], values[2], "ambient");
+            return;
+        }
+        String type;
+        if (matches(word, length, "directional")) {
+            type = "directional";
+        } else if (matches(word, length, "point")) {
+            type = "point";
+        } else {
+            throw error("unknown light type " + text(word, length));
+        }
+        for (int k = 3; k < 6; k++) {
+            values[k] = readValue("light", k + 1, 7);
+        }
+        expectEnd("light", 7);
+        scene.setlight(values[0], values[1], values[2], type, values[3], values[4], values[5]);
+    }
+
+    /**
+     * Reads the numbers of a command into values, and checks nothing follows them
+     */
+    private void readValues(String command, int count) throws IOException {
+        for (int k = 0; k < count; k++) {
+            values[k] = readValue(command, k, count);
+        }
+        expectEnd(command, count);
+    }
+
+    private float readValue(String command, int index, int count) throws IOException {
+        skipSpaces();
+        if (cursor == lineEnd) {
+            throw error(command + " takes " + count + " values, found " + index);
+        }
+        return readNumber();
+    }
+
+    private void expectEnd(String command, int count) throws IOException {
+        skipSpaces();
+        if (cursor != lineEnd && buffer.get(cursor) != '#') {
+            throw error(command + " takes " + count + " values, found more");
+        }
+    }
+
+    /**
+     * Converts the number at the cursor
+     * A decimal with at most 24 bits of digits and at most 10 decimals is exact as a float
+     * division by a power of ten, which gives the correctly rounded value, just as parseFloat does
+     */
+    private float readNumber() throws IOException {
+        int start = cursor;
+        boolean negative = false;
+        byte b = buffer.get(cursor);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            cursor++;
+        }
+        long mantissa = 0;
+        int digits = 0, decimals = 0;
+        boolean point = false;
+        while (cursor < lineEnd) {
+            b = buffer.get(cursor);
+            if (b >= '0' && b <= '9') {
+                if (mantissa <= MAX_EXACT) {
+                    mantissa = mantissa * 10 + (b - '0');
+                }
+                digits++;
+                if (point) {
+                    decimals++;
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+            cursor++;
+        }
+        if (digits == 0 || !atSeparator()) {
+            return slowNumber(start);
+        }
+        if (mantissa > MAX_EXACT || decimals >= POWERS_OF_TEN.length) {
+            return slowNumber(start);
+        }
+        float value = decimals == 0 ? (float) mantissa : (float) mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    private float slowNumber(int start) throws IOException {
+        cursor = start;
+        int length = skipWord();
+        String number = text(start, length);
+        try {
+            return Float.parseFloat(number);
+        } catch (NumberFormatException e) {
+            throw error("not a number: " + number);
+        }
+    }
+
+    private boolean atSeparator() {
+        return cursor == lineEnd || isSpace(buffer.get(cursor)) || buffer.get(cursor) == '#';
+    }
+
+    private void skipSpaces() {
+        while (cursor < lineEnd && isSpace(buffer.get(cursor))) {
+            cursor++;
+        }
+    }
+
+    private int skipWord() {
+        int start = cursor;
+        while (cursor < lineEnd && !isSpace(buffer.get(cursor))) {
+            cursor++;
+        }
+        return cursor - start;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f';
+    }
+
+    /**
+     * Compares a word of the file with a lower case keyword, ignoring the case of the file
+     */
+    private boolean matches(int start, int length, String keyword) {
+        if (length != keyword.length()) {
+            return false;
+        }
+        for (int k = 0; k < length; k++) {
+            if ((buffer.get(start + k) | 0x20) != keyword.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String text(int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private IOException error(String message) {
+        return new IOException(source + ":" + lineNumber + ": " + message);
+    }
+}
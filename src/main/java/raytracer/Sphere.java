@@ -1,7 +1,7 @@
 package raytracer;
 
-import java.util.List;
-import javafx.scene.paint.Color;
+import java.io.DataOutput;
+import java.io.IOException;
 import raytracer.pigmentation.*;
 import raytracer.raydefinition.*;
 
@@ -39,21 +39,29 @@ public class Sphere implements GeometricObject {
      */
     @Override
     public boolean intersect(Ray ray) {
-        Vector3D displacement = new Vector3D(center.subtract(ray.getOrigin()));
-        float dot = ray.getDirection().dotProduct(displacement);
+        Point3D origin = ray.getOrigin();
+        float dx = center.getX() - origin.getX();
+        float dy = center.getY() - origin.getY();
+        float dz = center.getZ() - origin.getZ();
+        float dot = ray.getDirection().dotProduct(dx, dy, dz);
 
         // Check if an intersection might be closer than a previous one
         if (dot - radius > ray.getRoot())
             return false;
 
         // Test if ray intersects the sphere
-        float t = radSqr + dot*dot - displacement.getPoint().getX()*displacement.getPoint().getX() - displacement.getPoint().getY()*displacement.getPoint().getY() - displacement.getPoint().getZ()*displacement.getPoint().getZ();
+        float t = radSqr + dot*dot - dx*dx - dy*dy - dz*dz;
         if (t < 0) {
             return false;
         }
         // Test if the intersection is in the positive
         // ray direction and it is the closest so far
-        t = dot - ((float) Math.sqrt(t));
+        // a ray that starts inside the sphere, such as a refracted ray, leaves it at the far root
+        float s = (float) Math.sqrt(t);
+        t = dot - s;
+        if (t < 0) {
+            t = dot + s;
+        }
         if ((t > ray.getRoot()) || (t < 0)) {
             return false;
         }
@@ -65,25 +73,106 @@ public class Sphere implements GeometricObject {
         return true;
     }
 
+    /**
+     * Moves the sphere and changes its size
+     * The hierarchy holding the sphere must be refitted before it is traced again
+     *
+     * @param x         x coordinate of the new center point
+     * @param y         y coordinate of the new center point
+     * @param z         z coordinate of the new center point
+     * @param radius    the new length of the radius
+     */
+    public void moveTo(float x, float y, float z, float radius) {
+        this.center.set(x, y, z);
+        this.radius = radius;
+        this.radSqr = radius*radius;
+    }
+
+    /**
+     * Gives the sphere another surface
+     * The surface must be compiled for the lights of the scene before the sphere is shaded again
+     *
+     * @param surface   the new surface
+     */
+    public void setSurface(Surface surface) {
+        this.area = new Colour(surface);
+    }
+
+    /**
+     * Moves the sphere by an offset
+     *
+     * @param dx    offset along x
+     * @param dy    offset along y
+     * @param dz    offset along z
+     * @return      True, a sphere can always be moved
+     */
+    @Override
+    public boolean translate(float dx, float dy, float dz) {
+        moveTo(center.getX() + dx, center.getY() + dy, center.getZ() + dz, radius);
+        return true;
+    }
+
+    /**
+     * Adds up the ambient light of the scene on the surface of the sphere
+     *
+     * @param lights    the lights the sphere is shaded with
+     */
+    @Override
+    public void compile(LightSet lights) {
+        area.compile(lights);
+    }
+
     /**
      * This method calculates the suitable values to be passed to the Shading
      * method of the Colour class to colour in the area of the surface where
      * the ray hits the surface of the Sphere object
      *
      * @param ray           the Ray Object
-     * @param lights        a list of the different lights
-     * @param objects       a list of the different shape objects
-     * @param background    the colour to be applied to the surface of the shape
-     * @return              a shape object that is coloured
+     * @param context       the lights, objects and scratch space of the current thread
+     * @param colour        the colour of the surface where the ray hits is written here
      */
     @Override
-    public Color Shade(Ray ray, List<Object> lights, List<Object> objects, Color background) {
-        Vector3D intersectionPoint = new Vector3D(ray.getOrigin().add(ray.getDirection().getPoint().multiply(ray.getRoot())));
-        Vector3D rayOrigin = new Vector3D(ray.getDirection().getPoint().multiply(-1));
-        Vector3D surfaceNormal = new Vector3D(intersectionPoint.getPoint().subtract(center));
+    public void Shade(Ray ray, ShadingContext context, float[] colour) {
+        ShadingContext.Level level = context.level();
+        Point3D direction = ray.getDirection().getPoint();
+        Vector3D intersectionPoint = level.getPoint();
+        intersectionPoint.getPoint().set(ray.getOrigin()).addScaledLocal(direction, ray.getRoot());
+        Vector3D rayOrigin = level.getView();
+        rayOrigin.getPoint().set(direction).multiplyLocal(-1);
+        Vector3D surfaceNormal = level.getNormal();
+        surfaceNormal.getPoint().set(intersectionPoint.getPoint()).subtractLocal(center);
         surfaceNormal.normalize();
 
-        return area.Shading(intersectionPoint, surfaceNormal, rayOrigin, lights, objects, background);
+        area.Shading(intersectionPoint, surfaceNormal, rayOrigin, context, colour);
+    }
+
+    /**
+     * Gets the box that encloses the sphere
+     *
+     * @return  the bounding box of the sphere
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(new Point3D(center.getX() - radius, center.getY() - radius, center.getZ() - radius),
+                new Point3D(center.getX() + radius, center.getY() + radius, center.getZ() + radius));
+    }
+
+    /**
+     * Writes the center, radius and surface of the sphere, for a digest of the scene
+     *
+     * @param out   receives the sphere
+     * @return      True, a sphere can always be written
+     * @throws IOException if writing fails
+     */
+    @Override
+    public boolean digest(DataOutput out) throws IOException {
+        out.writeUTF("Sphere");
+        out.writeFloat(center.getX());
+        out.writeFloat(center.getY());
+        out.writeFloat(center.getZ());
+        out.writeFloat(radius);
+        area.digest(out);
+        return true;
     }
 
     /**
@@ -0,0 +1,210 @@
+package raytracer;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ForkJoinPool;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.acceleration.PackedSpheres;
+import raytracer.pigmentation.*;
+import raytracer.raydefinition.*;
+
+/**
+ * The SphereSet class
+ *
+ * This class implements the GeometricObject interface
+ * Many spheres stored as one object: centers and radii in {@link PackedSpheres}, and for every sphere
+ * an index into a table of surfaces. No object is created per sphere, so millions of spheres can be
+ * loaded with a few bulk copies. The set has its own bounding volume hierarchy, and a hit records
+ * which sphere it was as the primitive of the ray.
+ */
+public class SphereSet implements GeometricObject {
+    private final PackedSpheres spheres;
+    private final Colour[] areas;
+    private final int[] surfaceIndex;
+    private final BoundingVolumeHierarchy hierarchy;
+    private BoundingBox bounds;
+
+    /**
+     * Constructor of a SphereSet Object
+     * The spheres and their surface indices are moved into the order of the hierarchy
+     *
+     * @param spheres       the centers and radii
+     * @param surfaces      the table of surfaces
+     * @param surfaceIndex  for every sphere, the index of its surface in the table
+     * @param pool          the pool the hierarchy is built on, null to build it on the calling thread
+     */
+    public SphereSet(PackedSpheres spheres, Surface[] surfaces, int[] surfaceIndex, ForkJoinPool pool) {
+        this.spheres = spheres;
+        this.areas = areas(surfaces);
+        this.surfaceIndex = surfaceIndex;
+        this.hierarchy = new BoundingVolumeHierarchy(spheres, surfaceIndex, this, pool);
+        this.bounds = hierarchy.getBoundingBox();
+    }
+
+    /**
+     * Constructor of a SphereSet Object whose hierarchy was built before, for example when the scene was saved
+     *
+     * @param spheres       the centers and radii, in leaf order
+     * @param surfaces      the table of surfaces
+     * @param surfaceIndex  for every sphere, the index of its surface in the table
+     * @param nodeBounds    the bounds of every node of the hierarchy
+     * @param nodeOffset    the offset of every node of the hierarchy
+     * @param nodeCount     the count of every node of the hierarchy
+     * @throws IllegalArgumentException if the nodes do not form a valid hierarchy over the spheres
+     */
+    public SphereSet(PackedSpheres spheres, Surface[] surfaces, int[] surfaceIndex,
+                     float[] nodeBounds, int[] nodeOffset, int[] nodeCount) {
+        this.spheres = spheres;
+        this.areas = areas(surfaces);
+        this.surfaceIndex = surfaceIndex;
+        this.hierarchy = new BoundingVolumeHierarchy(spheres, nodeBounds, nodeOffset, nodeCount, this);
+        this.bounds = hierarchy.getBoundingBox();
+    }
+
+    private static Colour[] areas(Surface[] surfaces) {
+        Colour[] areas = new Colour[surfaces.length];
+        for (int k = 0; k < surfaces.length; k++) {
+            areas[k] = new Colour(surfaces[k]);
+        }
+        return areas;
+    }
+
+    /**
+     * Adds up the ambient light of the scene on every surface of the table
+     *
+     * @param lights    the lights the spheres are shaded with
+     */
+    @Override
+    public void compile(LightSet lights) {
+        for (Colour area : areas) {
+            area.compile(lights);
+        }
+    }
+
+    /**
+     * This method checks if the ray intersects any sphere of the set closer than its root
+     *
+     * @param ray   the ray being examined
+     * @return      a boolean value, True if the ray intersects a sphere ; False if not
+     */
+    @Override
+    public boolean intersect(Ray ray) {
+        return hierarchy.intersect(ray);
+    }
+
+    /**
+     * This method checks if the ray hits a given sphere of the set, or any of them, closer than its root
+     *
+     * @param ray       the ray being examined
+     * @param primitive the sphere to test, or -1 to look for any sphere of the set
+     * @return          a boolean value, True if the ray is blocked ; False if not
+     */
+    @Override
+    public boolean occludes(Ray ray, int primitive) {
+        if (primitive < 0) {
+            return hierarchy.occluded(ray);
+        }
+        if (primitive < spheres.size() && spheres.intersect(primitive, ray)) {
+            ray.setObject(this);
+            ray.setPrimitive(primitive);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves every sphere of the set, and refits the hierarchy of the set around them
+     *
+     * @param dx    offset along x
+     * @param dy    offset along y
+     * @param dz    offset along z
+     * @return      True, a set can always be moved
+     */
+    @Override
+    public boolean translate(float dx, float dy, float dz) {
+        spheres.translate(dx, dy, dz);
+        hierarchy.refit(null);
+        bounds = hierarchy.getBoundingBox();
+        return true;
+    }
+
+    /**
+     * This method colours in the sphere that was hit, in the same way as {@link Sphere#Shade}
+     *
+     * @param ray           the Ray Object, its primitive is the sphere hit
+     * @param context       the lights, objects and scratch space of the current thread
+     * @param colour        the colour of the surface where the ray hits is written here
+     */
+    @Override
+    public void Shade(Ray ray, ShadingContext context, float[] colour) {
+        int k = ray.getPrimitive();
+        ShadingContext.Level level = context.level();
+        Point3D direction = ray.getDirection().getPoint();
+        Vector3D intersectionPoint = level.getPoint();
+        Point3D point = intersectionPoint.getPoint().set(ray.getOrigin()).addScaledLocal(direction, ray.getRoot());
+        Vector3D rayOrigin = level.getView();
+        rayOrigin.getPoint().set(direction).multiplyLocal(-1);
+        Vector3D surfaceNormal = level.getNormal();
+        surfaceNormal.getPoint().set(point.getX() - spheres.getCenterX(k), point.getY() - spheres.getCenterY(k),
+                point.getZ() - spheres.getCenterZ(k));
+        surfaceNormal.normalize();
+
+        areas[surfaceIndex[k]].Shading(intersectionPoint, surfaceNormal, rayOrigin, context, colour);
+    }
+
+    /**
+     * Writes the spheres, in the order of the hierarchy, the surface of each and the table of surfaces,
+     * for a digest of the scene
+     *
+     * @param out   receives the set
+     * @return      True, a set can always be written
+     * @throws IOException if writing fails
+     */
+    @Override
+    public boolean digest(DataOutput out) throws IOException {
+        int size = spheres.size();
+        out.writeUTF("SphereSet");
+        out.writeInt(size);
+        spheres.digest(out);
+        ByteBuffer bytes = ByteBuffer.allocate(4 * Math.min(size, 4096));
+        for (int k = 0; k < size; k += bytes.capacity() / 4) {
+            int count = Math.min(bytes.capacity() / 4, size - k);
+            bytes.clear();
+            bytes.asIntBuffer().put(surfaceIndex, k, count);
+            out.write(bytes.array(), 0, 4 * count);
+        }
+        out.writeInt(areas.length);
+        for (Colour area : areas) {
+            area.digest(out);
+        }
+        return true;
+    }
+
+    /**
+     * Gets the box that encloses every sphere of the set
+     *
+     * @return  the bounding box of the set
+     */
+    @Override
+    public BoundingBox getBoundingBox() {
+        return bounds;
+    }
+
+    /**
+     * Gets the number of spheres in the set
+     *
+     * @return  the number of spheres
+     */
+    public int size() {
+        return spheres.size();
+    }
+
+    /**
+     *
+     * @return  a string that contains the number of spheres
+     */
+    public String toString() {
+        return ("SphereSet of " + spheres.size() + " spheres");
+    }
+}
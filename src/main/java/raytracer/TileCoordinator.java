@@ -0,0 +1,401 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import raytracer.raydefinition.Point3D;
+
+/**
+ * The TileCoordinator class
+ *
+ * Renders the frames of a {@link RayTracerAPI} on {@link TileWorker} processes: the scene file is
+ * shipped to every worker once per frame, then the frame is split into square tiles that are handed
+ * out as the workers ask for them, and the tiles that come back are stitched into the canvas. The
+ * tiles are the same pixels the API would render itself, anti-aliasing included.
+ * Each worker keeps twice as many tiles in flight as it has threads, so it never waits for the next
+ * one. Once no tile is left to hand out, a worker with idle threads takes over the oldest tile still
+ * held by one other worker, so a slow worker does not hold the frame up; whichever copy comes back
+ * first is used. When a worker dies its tiles go back to be handed out again, and when every worker
+ * has died the rest of the frame is rendered on this machine. A worker that takes longer than
+ * -Draytracer.workerTimeout seconds (30) to load the scene, or to send back a tile it holds, counts
+ * as dead, so one that stops answering without closing its socket does not hang the frame.
+ */
+public class TileCoordinator {
+    static final int TILE_SIZE = 64;
+    private static final int CONNECT_TIMEOUT = 5000;    // milliseconds
+    private static final int ANSWER_TIMEOUT = Integer.getInteger("raytracer.workerTimeout", 30) * 1000;
+
+    private final List<InetSocketAddress> workers;
+    private final Path sceneFile;
+    private final int sceneKind;
+    private final byte[] sceneBytes;   // read once, the scene has no edits the workers need to see
+
+    // the frame in progress, guarded by this
+    private RayTracerAPI scene;
+    private int columns;
+    private boolean[] done;
+    private int[] holders;
+    private long[] assigned;
+    private long assignments;
+    private ArrayDeque<Integer> pending;
+    private int remaining, alive;
+
+    /**
+     * Constructor
+     *
+     * @param workers   the addresses of the workers
+     * @param sceneFile the scene file to ship to them, text or binary
+     * @throws IOException if the scene file cannot be read
+     */
+    public TileCoordinator(List<InetSocketAddress> workers, Path sceneFile) throws IOException {
+        this.workers = List.copyOf(workers);
+        this.sceneFile = sceneFile;
+        this.sceneKind = BinaryScene.isBinary(sceneFile) ? TileWorker.BINARY_SCENE : TileWorker.TEXT_SCENE;
+        this.sceneBytes = Files.readAllBytes(sceneFile);
+    }
+
+    /**
+     * Parses a list of workers such as host:7070,host:7071
+     *
+     * @param list  comma separated host:port pairs, a missing host is localhost
+     * @return      the addresses, unresolved until connected to
+     * @throws IllegalArgumentException if a port is missing or not a number
+     */
+    public static List<InetSocketAddress> parseWorkers(String list) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : list.split(",")) {
+            worker = worker.trim();
+            int colon = worker.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException("worker " + worker + " has no port");
+            }
+            String host = colon == 0 ? "localhost" : worker.substring(0, colon);
+            try {
+                addresses.add(InetSocketAddress.createUnresolved(host, Integer.parseInt(worker.substring(colon + 1))));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("worker " + worker + " has no port");
+            }
+        }
+        return addresses;
+    }
+
+    /**
+     * Renders a frame of the scene on the workers, stitching every tile into its canvas
+     * Returns once every tile is in, rendering on this machine whatever no worker could
+     *
+     * @param scene the scene, with its camera set up and prepared to render
+     * Should only be called internally, by renderImage
+     */
+    void render(RayTracerAPI scene) {
+        long time = System.currentTimeMillis();
+        int width = scene.frameWidth, height = scene.frameHeight;
+        int tiles;
+        List<Connection> connections = new ArrayList<>();
+        synchronized (this) {
+            this.scene = scene;
+            columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+            tiles = columns * ((height + TILE_SIZE - 1) / TILE_SIZE);
+            done = new boolean[tiles];
+            holders = new int[tiles];
+            assigned = new long[tiles];
+            assignments = 0;
+            pending = new ArrayDeque<>(tiles);
+            for (int tile = 0; tile < tiles; tile++) {
+                pending.add(tile);
+            }
+            remaining = tiles;
+            alive = 0;
+        }
+
+        byte[] header = null;
+        try {
+            header = this.header(scene);
+        } catch (IOException e) {
+            Log.error("could not ship " + sceneFile + " to the workers: " + e.getMessage());
+        }
+        if (header != null) {
+            synchronized (this) {
+                alive = workers.size();
+            }
+            for (InetSocketAddress address : workers) {
+                Connection connection = new Connection(address, header);
+                connections.add(connection);
+                connection.start();
+            }
+        }
+
+        synchronized (this) {
+            try {
+                while (remaining > 0 && alive > 0) {
+                    this.wait();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        // stragglers still rendering copies of finished tiles are cut off
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        for (Connection connection : connections) {
+            try {
+                connection.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        int[] left;
+        synchronized (this) {
+            left = IntStream.range(0, tiles).filter(tile -> !done[tile]).toArray();
+            this.scene = null;
+        }
+        if (left.length > 0) {
+            Log.info("Rendering the last " + left.length + " of " + tiles + " tiles here");
+            scene.prepareRegions();
+            ForkJoinPool pool = scene.renderThreads > 1 ? scene.renderPool() : null;
+            if (pool != null) {
+                pool.submit(() -> IntStream.of(left).parallel().forEach(tile -> this.renderHere(scene, tile))).join();
+            } else {
+                IntStream.of(left).forEach(tile -> this.renderHere(scene, tile));
+            }
+        }
+        Log.info("Rendered " + tiles + " tiles on " + workers.size() + " workers in " + (System.currentTimeMillis() - time) + " ms");
+    }
+
+    private void renderHere(RayTracerAPI scene, int tile) {
+        int[] r = this.rectangle(scene, tile);
+        scene.stitch(r[0], r[1], r[2], r[3], scene.renderRegion(r[0], r[1], r[2], r[3]));
+    }
+
+    /**
+     * Writes what a worker needs to render tiles of the frame: the camera, the settings and the scene file
+     * read when the coordinator was made
+     */
+    private byte[] header(RayTracerAPI scene) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(sceneBytes.length + 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(TileWorker.MAGIC);
+        out.writeByte(sceneKind);
+        out.writeInt(scene.frameWidth);
+        out.writeInt(scene.frameHeight);
+        out.writeInt(scene.samplesAcross);
+        out.writeFloat(scene.edgeThreshold);
+        out.writeInt(scene.maxDepth);
+        out.writeFloat(scene.minContribution);
+        out.writeBoolean(scene.packets);
+        for (Point3D point : new Point3D[] {
+                scene.origin, scene.lookat.getPoint(), scene.up.getPoint()}) {
+            out.writeFloat(point.getX());
+            out.writeFloat(point.getY());
+            out.writeFloat(point.getZ());
+        }
+        out.writeInt(sceneBytes.length);
+        out.write(sceneBytes);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private int[] rectangle(RayTracerAPI scene, int tile) {
+        int x0 = tile % columns * TILE_SIZE, y0 = tile / columns * TILE_SIZE;
+        return new int[] {x0, y0, Math.min(x0 + TILE_SIZE, scene.frameWidth), Math.min(y0 + TILE_SIZE, scene.frameHeight)};
+    }
+
+    /**
+     * Picks the next tile for a worker: the next one nobody has had yet or, when there is none and the
+     * worker has idle threads, the oldest unfinished tile held by exactly one other worker
+     *
+     * @return the tile, or -1 if there is nothing to give it
+     */
+    private synchronized int next(Connection connection) {
+        Integer tile = pending.poll();
+        if (tile == null) {
+            if (connection.inFlight.size() >= connection.threads) {
+                return -1;
+            }
+            long oldest = Long.MAX_VALUE;
+            for (int t = 0; t < done.length; t++) {
+                if (!done[t] && holders[t] == 1 && assigned[t] < oldest && !connection.inFlight.contains(t)) {
+                    oldest = assigned[t];
+                    tile = t;
+                }
+            }
+            if (tile == null) {
+                return -1;
+            }
+        }
+        holders[tile]++;
+        assigned[tile] = assignments++;
+        connection.inFlight.add(tile);
+        return tile;
+    }
+
+    private synchronized void finished(Connection connection, int tile, int[] pixels) {
+        if (!connection.inFlight.remove(tile)) {
+            return;
+        }
+        holders[tile]--;
+        if (!done[tile]) {
+            done[tile] = true;
+            remaining--;
+            int[] r = this.rectangle(scene, tile);
+            scene.stitch(r[0], r[1], r[2], r[3], pixels);
+        }
+        this.notifyAll();
+    }
+
+    private synchronized void died(Connection connection, String why) {
+        if (why != null && remaining > 0) {
+            int tiles = connection.inFlight.size();
+            Log.error("worker " + connection.getName() + " failed: " + why + (tiles > 0 ? ", handing its " + tiles + " tiles out again" : ""));
+        }
+        for (int tile : connection.inFlight) {
+            holders[tile]--;
+            if (!done[tile] && holders[tile] == 0) {
+                pending.addFirst(tile);
+            }
+        }
+        connection.inFlight.clear();
+        alive--;
+        this.notifyAll();
+    }
+
+    /**
+     * One session with a worker, on a thread of its own: hands it tiles and stitches what it sends back
+     */
+    private class Connection extends Thread {
+        private final InetSocketAddress address;
+        private final byte[] header;
+        private final Socket socket = new Socket();
+        private final LinkedHashSet<Integer> inFlight = new LinkedHashSet<>();  // guarded by the coordinator
+        private int threads;
+
+        Connection(InetSocketAddress address, byte[] header) {
+            super(address.getHostString() + ":" + address.getPort());
+            this.address = address;
+            this.header = header;
+            this.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            String why = null;
+            try {
+                InetSocketAddress resolved = address.isUnresolved()
+                        ? new InetSocketAddress(address.getHostString(), address.getPort()) : address;
+                socket.connect(resolved, CONNECT_TIMEOUT);
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(ANSWER_TIMEOUT);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+                out.write(header);
+                out.flush();
+                threads = in.readInt();
+                if (threads < 1) {
+                    throw new IOException("could not load the scene: " + in.readUTF());
+                }
+
+                int window = 2 * threads;
+                while (true) {
+                    synchronized (TileCoordinator.this) {
+                        while (remaining > 0 && inFlight.isEmpty() && pending.isEmpty() && !this.canSteal()) {
+                            TileCoordinator.this.wait();
+                        }
+                        if (remaining == 0) {
+                            break;
+                        }
+                    }
+                    // top the window up, then wait for the next tile to come back
+                    int tile;
+                    while (this.size() < window && (tile = next(this)) >= 0) {
+                        int[] r = rectangle(scene(), tile);
+                        out.writeInt(tile);
+                        out.writeInt(r[0]);
+                        out.writeInt(r[1]);
+                        out.writeInt(r[2]);
+                        out.writeInt(r[3]);
+                    }
+                    out.flush();
+                    if (this.size() == 0) {
+                        continue;
+                    }
+                    int id = in.readInt();
+                    int[] r;
+                    synchronized (TileCoordinator.this) {
+                        if (id < 0 || id >= done.length) {
+                            throw new IOException("sent back tile " + id + ", which does not exist");
+                        }
+                        r = rectangle(scene, id);
+                    }
+                    byte[] bytes = new byte[4 * (r[2] - r[0]) * (r[3] - r[1])];
+                    in.readFully(bytes);
+                    int[] pixels = new int[bytes.length / 4];
+                    ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+                    finished(this, id, pixels);
+                }
+                out.writeInt(-1);
+                out.flush();
+            } catch (SocketTimeoutException e) {
+                why = "no answer in " + ANSWER_TIMEOUT / 1000 + " s";
+            } catch (IOException e) {
+                // closed by the coordinator once the frame is done
+                if (!socket.isClosed()) {
+                    why = e instanceof EOFException ? "connection closed" : String.valueOf(e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                died(this, why);
+                this.close();
+            }
+        }
+
+        private boolean canSteal() {
+            if (inFlight.size() >= threads) {
+                return false;
+            }
+            for (int t = 0; t < done.length; t++) {
+                if (!done[t] && holders[t] == 1 && !inFlight.contains(t)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int size() {
+            synchronized (TileCoordinator.this) {
+                return inFlight.size();
+            }
+        }
+
+        private RayTracerAPI scene() {
+            synchronized (TileCoordinator.this) {
+                return scene;
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing only cuts the session short
+            }
+        }
+    }
+}
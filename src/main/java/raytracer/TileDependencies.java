@@ -0,0 +1,200 @@
+package raytracer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.raydefinition.*;
+
+/**
+ * The TileDependencies class
+ *
+ * What incremental rendering keeps from one frame to the next: a {@link RayFootprint} of every tile,
+ * recorded while the tile was traced, and the edits made to the scene since. A tile is traced again
+ * when a ray of it was shaded with an object whose surface changed, or passed near the old or the new
+ * bounds of an object that moved. Every other tile would come out the same, so it is kept as it is.
+ * The whole frame is traced again, and every footprint recorded afresh, when the camera, the frame,
+ * the anti-aliasing settings or the scene snapshot changed: objects or lights were added, the limits
+ * on secondary rays changed, or the hierarchy had to be rebuilt rather than refitted. So is it when an
+ * object moved out of the bounds the footprints were recorded in, where no ray was recorded.
+ * Those bounds leave out an object bigger than all the others put together, such as a ground sphere,
+ * which would otherwise stretch the grid until every object shared a few cells and every tile touched them.
+ */
+final class TileDependencies {
+    private Scene snapshot;
+    private int width, height, tileSize, samplesAcross;
+    private float edgeThreshold;
+    private final float[] camera = new float[10];
+    private RayFootprint[] tiles;
+    private final List<BoundingBox> moved = new ArrayList<>();
+    private final BitSet restyled = new BitSet();
+
+    /**
+     * Notes a region of the scene an object left or moved into
+     *
+     * @param box   the bounds of the object, before or after it moved
+     */
+    void moved(BoundingBox box) {
+        Point3D min = box.getMin(), max = box.getMax();
+        moved.add(new BoundingBox(new Point3D(min.getX(), min.getY(), min.getZ()), new Point3D(max.getX(), max.getY(), max.getZ())));
+    }
+
+    /**
+     * Notes an object whose surface changed
+     *
+     * @param index the index of the object, in the order the objects were created or added
+     */
+    void restyled(int index) {
+        restyled.set(index);
+    }
+
+    /**
+     * Works out which tiles the edits since the last frame can have changed, and forgets what their rays did
+     *
+     * @param scene the scene, prepared to render the next frame
+     * @return      for every tile, true if it must be traced again
+     */
+    boolean[] dirtyTiles(RayTracerAPI scene) {
+        int count = TileRenderer.tileCount(scene);
+        boolean[] dirty = new boolean[count];
+        if (this.matches(scene)) {
+            BoundingVolumeHierarchy hierarchy = snapshot.getHierarchy();
+            int[] slots = restyled.stream().map(hierarchy::slotOf).toArray();
+            for (int t = 0; t < count; t++) {
+                RayFootprint tile = tiles[t];
+                for (int k = 0; k < moved.size() && !dirty[t]; k++) {
+                    dirty[t] = tile.touches(moved.get(k));
+                }
+                for (int k = 0; k < slots.length && !dirty[t]; k++) {
+                    dirty[t] = tile.shades(slots[k]);
+                }
+                if (dirty[t]) {
+                    tile.clear();
+                }
+            }
+        } else {
+            this.remember(scene);
+            tiles = new RayFootprint[count];
+            BoundingBox bounds = gridBounds(scene.objectList, snapshot.getHierarchy().getBoundingBox());
+            for (int t = 0; t < count; t++) {
+                tiles[t] = new RayFootprint(bounds);
+            }
+            Arrays.fill(dirty, true);
+        }
+        moved.clear();
+        restyled.clear();
+        return dirty;
+    }
+
+    /**
+     * Gets the footprint of a tile, to record its rays in
+     *
+     * @param tile  the index of the tile, counted row-major from the top left corner
+     * @return      the footprint
+     */
+    RayFootprint tile(int tile) {
+        return tiles[tile];
+    }
+
+    private boolean matches(RayTracerAPI scene) {
+        if (tiles == null || snapshot != scene.snapshot || width != scene.frameWidth || height != scene.frameHeight
+                || tileSize != scene.tileSize || samplesAcross != scene.samplesAcross || edgeThreshold != scene.edgeThreshold
+                || !Arrays.equals(camera, scene.camera())) {
+            return false;
+        }
+        for (BoundingBox box : moved) {
+            if (!tiles[0].covers(box)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Works out the box the footprint grids cover: the bounds of the objects, less any object that is
+     * wider along some axis than all the other objects together, grown by one cell on every side so
+     * that small moves at the edge stay inside. Rays are still recorded wherever they cross the grid,
+     * so an object left out only makes a move of its own trace the whole frame again.
+     *
+     * @param objects   the objects of the scene
+     * @param scene     the bounds of the whole scene, used when no object is left
+     * @return          the box
+     */
+    private static BoundingBox gridBounds(List<GeometricObject> objects, BoundingBox scene) {
+        // per axis, the two lowest minimums and the two highest maximums, and whose the extreme ones are
+        float[] min1 = new float[3], min2 = new float[3], max1 = new float[3], max2 = new float[3];
+        int[] lowest = new int[3], highest = new int[3];
+        Arrays.fill(min1, Float.POSITIVE_INFINITY);
+        Arrays.fill(min2, Float.POSITIVE_INFINITY);
+        Arrays.fill(max1, Float.NEGATIVE_INFINITY);
+        Arrays.fill(max2, Float.NEGATIVE_INFINITY);
+        float[] low = new float[3], high = new float[3];
+        for (int i = 0; i < objects.size(); i++) {
+            corners(objects.get(i).getBoundingBox(), low, high);
+            for (int a = 0; a < 3; a++) {
+                if (low[a] < min1[a]) {
+                    min2[a] = min1[a];
+                    min1[a] = low[a];
+                    lowest[a] = i;
+                } else if (low[a] < min2[a]) {
+                    min2[a] = low[a];
+                }
+                if (high[a] > max1[a]) {
+                    max2[a] = max1[a];
+                    max1[a] = high[a];
+                    highest[a] = i;
+                } else if (high[a] > max2[a]) {
+                    max2[a] = high[a];
+                }
+            }
+        }
+
+        float[] gridLow = {Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY};
+        float[] gridHigh = {Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        for (int i = 0; i < objects.size(); i++) {
+            corners(objects.get(i).getBoundingBox(), low, high);
+            boolean oversized = false;
+            for (int a = 0; a < 3 && !oversized; a++) {
+                float othersLow = lowest[a] == i ? min2[a] : min1[a];
+                float othersHigh = highest[a] == i ? max2[a] : max1[a];
+                oversized = high[a] - low[a] > othersHigh - othersLow;
+            }
+            if (!oversized) {
+                for (int a = 0; a < 3; a++) {
+                    gridLow[a] = Math.min(gridLow[a], low[a]);
+                    gridHigh[a] = Math.max(gridHigh[a], high[a]);
+                }
+            }
+        }
+        if (gridLow[0] > gridHigh[0]) {
+            return scene;
+        }
+        for (int a = 0; a < 3; a++) {
+            float cell = (gridHigh[a] - gridLow[a]) / RayFootprint.CELLS;
+            gridLow[a] -= cell;
+            gridHigh[a] += cell;
+        }
+        return new BoundingBox(new Point3D(gridLow[0], gridLow[1], gridLow[2]), new Point3D(gridHigh[0], gridHigh[1], gridHigh[2]));
+    }
+
+    private static void corners(BoundingBox box, float[] low, float[] high) {
+        Point3D min = box.getMin(), max = box.getMax();
+        low[0] = min.getX();
+        low[1] = min.getY();
+        low[2] = min.getZ();
+        high[0] = max.getX();
+        high[1] = max.getY();
+        high[2] = max.getZ();
+    }
+
+    private void remember(RayTracerAPI scene) {
+        snapshot = scene.snapshot;
+        width = scene.frameWidth;
+        height = scene.frameHeight;
+        tileSize = scene.tileSize;
+        samplesAcross = scene.samplesAcross;
+        edgeThreshold = scene.edgeThreshold;
+        System.arraycopy(scene.camera(), 0, camera, 0, camera.length);
+    }
+}
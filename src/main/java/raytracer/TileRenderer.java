@@ -0,0 +1,111 @@
+package raytracer;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The TileRenderer class
+ *
+ * Splits the frame into square tiles and renders a range of them on a work-stealing
+ * {@link java.util.concurrent.ForkJoinPool}. A range is halved until a single tile is left,
+ * so idle threads can steal the other half from busy ones.
+ * A renderer covers one pass of the frame, see {@link RayTracerAPI#renderBlocks},
+ * or the anti-aliasing pass over the edges found afterwards, see {@link RayTracerAPI#supersample}.
+ */
+class TileRenderer extends RecursiveAction {
+    private final RayTracerAPI scene;
+    private final int firstTile, lastTile;
+    private final int step;
+    private final boolean refine;
+    private final boolean supersample;
+
+    /**
+     * Constructor
+     *
+     * @param scene     the scene whose frame is being rendered
+     * @param firstTile index of the first tile in the range (inclusive)
+     * @param lastTile  index of the last tile in the range (exclusive)
+     * @param step      edge length of the blocks traced in this pass, 1 traces every pixel
+     * @param refine    true to skip the pixels already traced by the previous, coarser pass
+     */
+    TileRenderer(RayTracerAPI scene, int firstTile, int lastTile, int step, boolean refine) {
+        this(scene, firstTile, lastTile, step, refine, false);
+    }
+
+    /**
+     * Constructor for the anti-aliasing pass
+     *
+     * @param scene     the scene whose frame is being rendered
+     * @param firstTile index of the first tile in the range (inclusive)
+     * @param lastTile  index of the last tile in the range (exclusive)
+     */
+    TileRenderer(RayTracerAPI scene, int firstTile, int lastTile) {
+        this(scene, firstTile, lastTile, 1, false, true);
+    }
+
+    private TileRenderer(RayTracerAPI scene, int firstTile, int lastTile, int step, boolean refine, boolean supersample) {
+        this.scene = scene;
+        this.firstTile = firstTile;
+        this.lastTile = lastTile;
+        this.step = step;
+        this.refine = refine;
+        this.supersample = supersample;
+    }
+
+    /**
+     * Gets the number of tiles needed to cover the frame
+     *
+     * @param scene the scene being rendered
+     * @return      the number of tiles
+     */
+    static int tileCount(RayTracerAPI scene) {
+        return tilesAcross(scene) * tilesDown(scene);
+    }
+
+    /**
+     * Gets the number of tiles in a row of the frame
+     *
+     * @param scene the scene being rendered
+     * @return      the number of tiles across
+     */
+    static int tilesAcross(RayTracerAPI scene) {
+        return (scene.frameWidth + scene.tileSize - 1) / scene.tileSize;
+    }
+
+    private static int tilesDown(RayTracerAPI scene) {
+        return (scene.frameHeight + scene.tileSize - 1) / scene.tileSize;
+    }
+
+    @Override
+    protected void compute() {
+        if (lastTile - firstTile > 1) {
+            int middle = (firstTile + lastTile) >>> 1;
+            invokeAll(new TileRenderer(scene, firstTile, middle, step, refine, supersample),
+                    new TileRenderer(scene, middle, lastTile, step, refine, supersample));
+            return;
+        }
+        renderTile(firstTile);
+    }
+
+    /**
+     * Renders the blocks of a single tile, row by row, and publishes it to the canvas
+     * Blocks starting near the right or bottom edge may spill into the next tile, so they are published too
+     *
+     * @param tile  the index of the tile, counted row-major from the top left corner
+     */
+    private void renderTile(int tile) {
+        int across = tilesAcross(scene);
+        int x0 = (tile % across) * scene.tileSize;
+        int y0 = (tile / across) * scene.tileSize;
+        int x1 = Math.min(x0 + scene.tileSize, scene.frameWidth);
+        int y1 = Math.min(y0 + scene.tileSize, scene.frameHeight);
+
+        if (supersample) {
+            scene.supersample(x0, y0, x1, y1);
+            scene.publish(x0, y0, x1, y1);
+            return;
+        }
+        scene.renderBlocks(x0, y0, x1, y1, step, refine);
+        scene.publish(x0, y0, Math.min((x1 + step - 1) / step * step, scene.frameWidth),
+                Math.min((y1 + step - 1) / step * step, scene.frameHeight));
+    }
+}
@@ -0,0 +1,262 @@
+package raytracer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TileWorker class
+ *
+ * A render process that a {@link TileCoordinator} hands tiles of a frame to over TCP. Each connection is
+ * one session: the coordinator first sends the scene, as the bytes of a text or binary scene file, with
+ * the size of the frame, the camera and the render settings; the worker loads it once and answers with
+ * the number of tiles it renders at a time. Then the coordinator sends tile rectangles, and the worker
+ * sends every tile back, as ARGB pixels, as soon as it is rendered, in whatever order they finish.
+ * Tiles of every session render on one fixed pool of threads. Several workers can run on one machine,
+ * each on a port of its own.
+ * A worker listens on the loopback address unless told otherwise, since anyone who can reach it can make
+ * it load and render a scene; a scene longer than -Draytracer.maxScene megabytes (256) is refused unread.
+ *
+ *   session:  MAGIC, scene kind, width, height, samples across, edge threshold, max depth,
+ *             min contribution, packets, eye, look at, up, scene length, scene bytes
+ *   reply:    threads, or -1 and the error message when the scene cannot be loaded
+ *   request:  tile id, x0, y0, x1, y1; a negative id ends the session
+ *   reply:    tile id, (x1 - x0) * (y1 - y0) pixels
+ *
+ * Usage: java raytracer.TileWorker [port] [threads] [bind address]
+ */
+public class TileWorker {
+    /** Port the worker listens on, by default */
+    public static final int DEFAULT_PORT = 7070;
+    static final int MAGIC = 'R' | 'T' << 8 | 'W' << 16 | '1' << 24;
+    static final int TEXT_SCENE = 0, BINARY_SCENE = 1;
+    private static final int MAX_SIZE = 8192;           // largest width or height of a frame
+
+    private final ServerSocket server;
+    private final ExecutorService pool;
+    private final int threads;
+    private final int maxScene;
+    private final AtomicInteger sessions = new AtomicInteger();
+
+    /**
+     * Constructor, binds the port but does not accept sessions until {@link #serve}
+     *
+     * @param address       the address to listen on, null for every address
+     * @param port          the port to listen on
+     * @param threads       the number of threads tiles render on
+     * @param maxScene      the longest scene file a coordinator may send, in bytes
+     * @throws IOException  if the port cannot be bound
+     */
+    public TileWorker(InetAddress address, int port, int threads, int maxScene) throws IOException {
+        this.server = new ServerSocket(port, 0, address);
+        this.threads = threads;
+        this.maxScene = maxScene;
+        AtomicInteger count = new AtomicInteger();
+        this.pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "tile-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        if (System.getProperty("raytracer.jmx") == null) {
+            System.setProperty("raytracer.jmx", "false");
+        }
+        int port, threads;
+        InetAddress address;
+        try {
+            port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+            threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+            address = args.length > 2 ? InetAddress.getByName(args[2]) : InetAddress.getLoopbackAddress();
+        } catch (NumberFormatException | UnknownHostException e) {
+            Log.error("usage: java raytracer.TileWorker [port] [threads] [bind address]");
+            System.exit(2);
+            return;
+        }
+        if (threads < 1) {
+            Log.error("threads must be at least 1");
+            System.exit(2);
+        }
+        int maxScene = Integer.getInteger("raytracer.maxScene", 256);
+        if (maxScene < 1 || maxScene > 2047) {
+            Log.error("raytracer.maxScene must be between 1 and 2047 megabytes");
+            System.exit(2);
+        }
+        try {
+            TileWorker worker = new TileWorker(address, port, threads, maxScene * 1048576);
+            Log.info("Rendering tiles on " + address.getHostAddress() + " port " + worker.getPort() + " with " + threads + " threads");
+            worker.serve();
+        } catch (IOException e) {
+            Log.error("could not start the worker: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Gets the port the worker listens on
+     *
+     * @return  the port, useful when the worker was started on port 0
+     */
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accepts sessions until the worker is stopped, each on a thread of its own
+     *
+     * @throws IOException  if accepting fails other than by stopping
+     */
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            Thread session = new Thread(() -> this.session(socket), "tile-session-" + sessions.incrementAndGet());
+            session.setDaemon(true);
+            session.start();
+        }
+    }
+
+    /**
+     * Stops accepting sessions and rendering
+     */
+    public void stop() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            Log.error("could not close the worker: " + e.getMessage());
+        }
+        pool.shutdownNow();
+    }
+
+    private void session(Socket socket) {
+        String peer = String.valueOf(socket.getRemoteSocketAddress());
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            RayTracerAPI scene;
+            try {
+                scene = this.load(in);
+            } catch (IOException e) {
+                if (e instanceof EOFException) {
+                    throw e;
+                }
+                Log.error(peer + ": " + e.getMessage());
+                out.writeInt(-1);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                out.flush();
+                return;
+            }
+            out.writeInt(threads);
+            out.flush();
+            Log.info(peer + ": loaded a " + scene.frameWidth + "x" + scene.frameHeight + " frame");
+
+            int tiles = 0;
+            while (true) {
+                int id = in.readInt();
+                if (id < 0) {
+                    break;
+                }
+                int x0 = in.readInt(), y0 = in.readInt(), x1 = in.readInt(), y1 = in.readInt();
+                if (x0 < 0 || y0 < 0 || x1 > scene.frameWidth || y1 > scene.frameHeight || x0 >= x1 || y0 >= y1) {
+                    throw new IOException("tile " + id + " is outside the frame");
+                }
+                pool.execute(() -> this.renderTile(scene, out, id, x0, y0, x1, y1));
+                tiles++;
+            }
+            Log.info(peer + ": session ended after " + tiles + " tiles");
+        } catch (EOFException e) {
+            Log.info(peer + ": coordinator hung up");
+        } catch (IOException | RejectedExecutionException e) {
+            Log.error(peer + ": " + e.getMessage());
+        }
+    }
+
+    private RayTracerAPI load(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("not a tile coordinator");
+        }
+        int kind = in.readByte();
+        int width = in.readInt(), height = in.readInt();
+        int samplesAcross = in.readInt();
+        float edgeThreshold = in.readFloat();
+        int maxDepth = in.readInt();
+        float minContribution = in.readFloat();
+        boolean packets = in.readBoolean();
+        float[] camera = new float[9];
+        for (int k = 0; k < camera.length; k++) {
+            camera[k] = in.readFloat();
+        }
+        int length = in.readInt();
+        if (width < 1 || height < 1 || width > MAX_SIZE || height > MAX_SIZE || samplesAcross < 1 || length < 0) {
+            throw new IOException("bad frame settings");
+        }
+        if (length > maxScene) {
+            throw new IOException("the scene is " + length + " bytes, more than the " + maxScene + " this worker takes");
+        }
+        byte[] text = new byte[length];
+        in.readFully(text);
+
+        RayTracerAPI scene = new RayTracerAPI(height, width);
+        if (kind == BINARY_SCENE) {
+            // binary scenes are mapped from a file
+            Path file = Files.createTempFile("tile-worker", ".rtsb");
+            try {
+                Files.write(file, text);
+                BinaryScene.load(file, scene);
+            } finally {
+                Files.deleteIfExists(file);
+            }
+        } else {
+            SceneFile.load(text, "coordinator scene", scene);
+        }
+        // the coordinator's camera and settings win over the file's
+        scene.setOrigin(camera[0], camera[1], camera[2]);
+        scene.setLookat(camera[3], camera[4], camera[5]);
+        scene.setUp(camera[6], camera[7], camera[8]);
+        scene.setAntialiasing(samplesAcross * samplesAcross, edgeThreshold);
+        scene.setMaxDepth(maxDepth);
+        scene.setMinContribution(minContribution);
+        scene.setPacketTracing(packets);
+        scene.prepareRegions();
+        return scene;
+    }
+
+    private void renderTile(RayTracerAPI scene, DataOutputStream out, int id, int x0, int y0, int x1, int y1) {
+        int[] pixels = scene.renderRegion(x0, y0, x1, y1);
+        ByteBuffer bytes = ByteBuffer.allocate(4 * pixels.length);
+        bytes.asIntBuffer().put(pixels);
+        try {
+            synchronized (out) {
+                out.writeInt(id);
+                out.write(bytes.array());
+                out.flush();
+            }
+        } catch (IOException e) {
+            // the coordinator is gone or has what it needs, the session ends on its own
+        }
+    }
+}
@@ -0,0 +1,896 @@
+package raytracer.acceleration;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import raytracer.GeometricObject;
+import raytracer.Sphere;
+import raytracer.raydefinition.*;
+
+/**
+ * The BoundingVolumeHierarchy class
+ *
+ * A binary tree of axis-aligned boxes over the objects of a scene, used so that a ray only
+ * tests the objects whose boxes it passes through instead of every object in the scene.
+ * The tree is built top-down with a binned surface area heuristic (SAH) and flattened into
+ * primitive arrays in depth-first order: the left child of an inner node is the next node,
+ * the right child is stored explicitly. Large subtrees are built in parallel, on the pool the
+ * renderer gives, or all on the calling thread when it gives none.
+ * When every object is a {@link Sphere}, the spheres are also packed in leaf order and
+ * leaves are tested with a {@link SphereKernel}, several spheres per instruction where possible.
+ * A hierarchy can also be built directly over {@link PackedSpheres}, for objects made of many
+ * spheres that never exist as separate Sphere objects.
+ * When objects move, for example between the frames of an animation, the boxes can be refitted
+ * around them without building the tree again, see {@link #refit}.
+ */
+public class BoundingVolumeHierarchy {
+    private static final int BINS = 16;
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int MAX_SAH_LEAF_SIZE = 16;
+    private static final int MAX_DEPTH = Ray.STACK_SIZE;
+    private static final int PARALLEL_BUILD_SIZE = 16384;
+    private static final float TRAVERSAL_COST = 1f;
+
+    private final int size;
+    private final GeometricObject[] objects;   // in leaf order, or null over packed spheres
+    private final GeometricObject owner;        // the object reported for hits on packed spheres
+    private final float[] nodeBounds;           // minX, minY, minZ, maxX, maxY, maxZ per node
+    private final int[] nodeOffset;             // leaf: first object; inner: right child
+    private final int[] nodeCount;              // leaf: object count; inner: -(split axis + 1)
+    private final AtomicInteger nodes = new AtomicInteger();
+    private final PackedSpheres spheres;        // the objects again, packed, or null if they are not all spheres
+    private final SphereKernel kernel;
+    private final int maxLeafSize;
+    private int[] slotOf;                       // for every object of the input list, its index in leaf order
+    private int[] parent, leafOf;               // parent of every node, leaf of every object, made by the first refit
+    private float builtCost;                    // surface area of the nodes relative to the root, as built
+
+    // used while building only
+    private float[] primBounds;                 // bounds of the objects, permuted together with order
+    private int[] order;
+    private float[] slotBounds;                 // nodes as built, in reserved slots, before compacting
+    private int[] slotOffset, slotCount;
+    private ForkJoinPool pool;                  // large subtrees are built on it, or null to build serially
+
+    /**
+     * Constructor
+     * Builds the hierarchy over every object of the scene
+     *
+     * @param objects   the objects of the scene
+     * @param pool      the pool large subtrees are built on in parallel, null to build on the calling thread
+     */
+    public BoundingVolumeHierarchy(List<? extends GeometricObject> objects, ForkJoinPool pool) {
+        this(objects.toArray(new GeometricObject[0]), null, null, null, pool);
+    }
+
+    /**
+     * Constructor
+     * Builds the hierarchy straight over packed spheres, without an object per sphere
+     * The spheres, and the tags that go with them, are moved into leaf order, and a hit on
+     * the sphere now at index k is reported as a hit on the owner with primitive k
+     *
+     * @param spheres   the spheres, reordered in place
+     * @param tags      one value per sphere that is reordered with it, or null
+     * @param owner     the object made of the spheres
+     * @param pool      the pool large subtrees are built on in parallel, null to build on the calling thread
+     */
+    public BoundingVolumeHierarchy(PackedSpheres spheres, int[] tags, GeometricObject owner, ForkJoinPool pool) {
+        this(null, spheres, tags, owner, pool);
+    }
+
+    /**
+     * Constructor
+     * Restores a hierarchy over packed spheres from the nodes of an earlier build, see {@link #getNodeBounds()}
+     * The spheres must already be in leaf order
+     *
+     * @param spheres       the spheres, in the order the hierarchy left them
+     * @param nodeBounds    the bounds of every node
+     * @param nodeOffset    the first sphere of every leaf, or the right child of every inner node
+     * @param nodeCount     the sphere count of every leaf, or -(split axis + 1) for every inner node
+     * @param owner         the object made of the spheres
+     * @throws IllegalArgumentException if the nodes do not form a valid hierarchy over the spheres
+     */
+    public BoundingVolumeHierarchy(PackedSpheres spheres, float[] nodeBounds, int[] nodeOffset, int[] nodeCount,
+                                   GeometricObject owner) {
+        int used = nodeOffset.length;
+        if (used == 0 || nodeCount.length != used || nodeBounds.length != 6 * used) {
+            throw new IllegalArgumentException("node arrays do not match");
+        }
+        for (int node = 0; node < used; node++) {
+            int count = nodeCount[node], offset = nodeOffset[node];
+            boolean valid = count >= 1 ? offset >= 0 && offset <= spheres.size() - count
+                    : count < 0 && count >= -3 && offset > node + 1 && offset < used;
+            if (!valid) {
+                throw new IllegalArgumentException("node " + node + " is not valid");
+            }
+        }
+        checkTree(spheres.size(), nodeOffset, nodeCount);
+        this.size = spheres.size();
+        this.owner = owner;
+        this.objects = null;
+        this.spheres = spheres;
+        this.nodeBounds = nodeBounds;
+        this.nodeOffset = nodeOffset;
+        this.nodeCount = nodeCount;
+        this.nodes.set(used);
+        this.kernel = SphereKernel.create();
+        this.maxLeafSize = Math.max(MAX_LEAF_SIZE, kernel.width());
+        this.builtCost = cost();
+    }
+
+    /**
+     * Walks restored nodes from the root, as a traversal would, to check that every node is reached once,
+     * no deeper than the stack of a ray holds, and that the leaves hold every sphere once
+     *
+     * @param spheres       the number of spheres
+     * @param nodeOffset    the first sphere of every leaf, or the right child of every inner node
+     * @param nodeCount     the sphere count of every leaf, or -(split axis + 1) for every inner node
+     * @throws IllegalArgumentException if the nodes do not form a tree over the spheres
+     */
+    private static void checkTree(int spheres, int[] nodeOffset, int[] nodeCount) {
+        BitSet reached = new BitSet(nodeOffset.length), covered = new BitSet(spheres);
+        int[] stack = new int[MAX_DEPTH + 1], depths = new int[MAX_DEPTH + 1];
+        int top = 1;
+        while (top > 0) {
+            top--;
+            int node = stack[top], depth = depths[top];
+            if (reached.get(node)) {
+                throw new IllegalArgumentException("node " + node + " has two parents");
+            }
+            reached.set(node);
+            int offset = nodeOffset[node], count = nodeCount[node];
+            if (count > 0) {
+                int shared = covered.nextSetBit(offset);
+                if (shared >= 0 && shared < offset + count) {
+                    throw new IllegalArgumentException("sphere " + shared + " is in two leaves");
+                }
+                covered.set(offset, offset + count);
+                continue;
+            }
+            if (depth + 1 >= MAX_DEPTH) {
+                throw new IllegalArgumentException("node " + node + " is deeper than " + MAX_DEPTH + " levels");
+            }
+            // children are only pushed below MAX_DEPTH, and at most one pending sibling per level
+            stack[top] = offset;
+            depths[top++] = depth + 1;
+            stack[top] = node + 1;
+            depths[top++] = depth + 1;
+        }
+        if (reached.cardinality() != nodeOffset.length) {
+            throw new IllegalArgumentException((nodeOffset.length - reached.cardinality()) + " nodes are not in the tree");
+        }
+        if (covered.cardinality() != spheres) {
+            throw new IllegalArgumentException((spheres - covered.cardinality()) + " spheres are in no leaf");
+        }
+    }
+
+    private BoundingVolumeHierarchy(GeometricObject[] input, PackedSpheres packed, int[] tags, GeometricObject owner,
+                                    ForkJoinPool pool) {
+        int n = input != null ? input.length : packed.size();
+        boolean allSpheres = true;
+        if (input != null) {
+            for (GeometricObject object : input) {
+                allSpheres &= object instanceof Sphere;
+            }
+        }
+        this.size = n;
+        this.owner = owner;
+        kernel = allSpheres ? SphereKernel.create() : null;
+        maxLeafSize = allSpheres ? Math.max(MAX_LEAF_SIZE, kernel.width()) : MAX_LEAF_SIZE;
+
+        primBounds = new float[6 * n];
+        order = new int[n];
+        float[] bounds = new float[6], centroidBounds = new float[6];
+        resetBounds(bounds, 0);
+        resetBounds(centroidBounds, 0);
+        for (int k = 0; k < n; k++) {
+            if (input != null) {
+                BoundingBox box = input[k].getBoundingBox();
+                setBounds(primBounds, k, box.getMin(), box.getMax());
+            } else {
+                setBounds(primBounds, k, packed, k);
+            }
+            growBounds(bounds, 0, primBounds, 6 * k);
+            growCentroid(centroidBounds, 0, primBounds, 6 * k);
+            order[k] = k;
+        }
+
+        // a subtree over m objects never needs more than 2m - 1 nodes, so every subtree
+        // gets a fixed range of slots and large subtrees can be built in parallel
+        int capacity = Math.max(1, 2 * n - 1);
+        slotBounds = new float[6 * capacity];
+        slotOffset = new int[capacity];
+        slotCount = new int[capacity];
+        this.pool = pool;
+        if (n > 0) {
+            Builder root = new Builder(0, 0, n, 0, bounds, centroidBounds);
+            if (pool != null) {
+                pool.invoke(root);
+            } else {
+                root.compute();
+            }
+        }
+        this.pool = null;
+        int used = Math.max(1, nodes.get());
+        nodeBounds = new float[6 * used];
+        nodeOffset = new int[used];
+        nodeCount = new int[used];
+        if (n > 0) {
+            compact();
+        }
+        slotBounds = null;
+        slotOffset = slotCount = null;
+
+        if (input != null) {
+            objects = new GeometricObject[n];
+            slotOf = new int[n];
+            for (int k = 0; k < n; k++) {
+                objects[k] = input[order[k]];
+                slotOf[order[k]] = k;
+            }
+            spheres = allSpheres ? new PackedSpheres(Arrays.copyOf(objects, n, Sphere[].class)) : null;
+        } else {
+            objects = null;
+            packed.reorder(order);
+            if (tags != null) {
+                int[] old = tags.clone();
+                for (int k = 0; k < n; k++) {
+                    tags[k] = old[order[k]];
+                }
+            }
+            spheres = packed;
+        }
+        primBounds = null;
+        order = null;
+        builtCost = cost();
+    }
+
+    /**
+     * Finds the closest object hit by the ray
+     * The hit is recorded in the ray through {@link GeometricObject#intersect(Ray)}
+     *
+     * @param ray   the ray being traced, its root must be set to the furthest distance of interest
+     * @return      True if an object was hit ; False if not
+     */
+    public boolean intersect(Ray ray) {
+        return traverse(ray, false);
+    }
+
+    /**
+     * Checks if any object lies along the ray, stopping at the first one found
+     *
+     * @param ray   the ray being traced, its root must be set to the furthest distance of interest
+     * @return      True if an object was hit ; False if not
+     */
+    public boolean occluded(Ray ray) {
+        return traverse(ray, true);
+    }
+
+    /**
+     * Finds the closest object hit by every ray of a packet, visiting each node once for the whole packet
+     * Only hierarchies over spheres support packets; other objects, and packets whose rays point different
+     * ways, must be traced a ray at a time
+     *
+     * @param packet    the rays, from one origin
+     * @param counters  the work of the traversal is added to these
+     * @return          True if the packet was traced, its hits are set ; False if its rays must be traced singly
+     */
+    public boolean intersect(RayPacket packet, RayCounters counters) {
+        if (spheres == null || objects == null || !packet.prepare()) {
+            return false;
+        }
+        if (size == 0) {
+            return true;
+        }
+        int[] stack = packet.stack;
+        int rays = packet.size();
+        int top = 0;
+        int node = 0;
+        int boxes = 0, tests = 0;
+        while (true) {
+            boxes++;
+            if (packet.reaches(nodeBounds, 6 * node)) {
+                int count = nodeCount[node];
+                if (count > 0) {
+                    boxes += rays;
+                    int entered = packet.enter(nodeBounds, 6 * node);
+                    if (entered > 0) {
+                        tests += entered * count;
+                        kernel.closest(spheres, nodeOffset[node], count, packet);
+                        packet.updateMaxRoot();
+                    }
+                } else {
+                    // every ray points the same way along the split axis, so the near child is the same for all
+                    int axis = -count - 1;
+                    boolean negative = axis == 0 ? packet.negX : (axis == 1 ? packet.negY : packet.negZ);
+                    if (negative) {
+                        stack[top++] = node + 1;
+                        node = nodeOffset[node];
+                    } else {
+                        stack[top++] = nodeOffset[node];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+            if (top == 0) {
+                counters.countTests(boxes, tests);
+                return true;
+            }
+            node = stack[--top];
+        }
+    }
+
+    /**
+     * Refits the boxes of the hierarchy around objects that have moved, keeping the tree as it was built
+     * Only the leaves holding a moved object, and the nodes above them up to the first one whose box
+     * does not change, are updated; moved spheres are packed again from their {@link Sphere}.
+     * A refitted tree is slower to trace the further the objects have moved from where it was built,
+     * so the growth of its cost is returned, to decide when building it again pays off
+     * Must not be called while rays are being traced
+     *
+     * @param moved the objects that moved, by their index in the list the hierarchy was built from,
+     *              or null to refit every node; a hierarchy over packed spheres always refits every node
+     * @return      the surface area of the nodes relative to that of the root, over the same ratio when the
+     *              tree was built: 1 for a tree as good as new, larger the more the boxes overlap
+     */
+    public float refit(BitSet moved) {
+        if (size == 0) {
+            return 1;
+        }
+        float[] scratch = new float[12];
+        if (moved == null || slotOf == null) {
+            // children come after their parent in depth-first order
+            for (int node = nodes.get() - 1; node >= 0; node--) {
+                refitNode(node, scratch);
+            }
+        } else {
+            link();
+            if (spheres != null) {
+                for (int m = moved.nextSetBit(0); m >= 0 && m < size; m = moved.nextSetBit(m + 1)) {
+                    spheres.set(slotOf[m], (Sphere) objects[slotOf[m]]);
+                }
+            }
+            for (int m = moved.nextSetBit(0); m >= 0 && m < size; m = moved.nextSetBit(m + 1)) {
+                for (int node = leafOf[slotOf[m]]; node >= 0 && refitNode(node, scratch); node = parent[node]) {
+                    // walks up until a box stays the same, its ancestors are then unchanged too
+                }
+            }
+        }
+        return builtCost > 0 ? cost() / builtCost : 1;
+    }
+
+    /**
+     * Recomputes the box of a node from its objects, or from its children, which must be up to date
+     *
+     * @return  true if the box changed
+     */
+    private boolean refitNode(int node, float[] scratch) {
+        resetBounds(scratch, 0);
+        int count = nodeCount[node];
+        if (count > 0) {
+            for (int k = nodeOffset[node]; k < nodeOffset[node] + count; k++) {
+                if (spheres != null) {
+                    setBounds(scratch, 1, spheres, k);
+                } else {
+                    BoundingBox box = objects[k].getBoundingBox();
+                    setBounds(scratch, 1, box.getMin(), box.getMax());
+                }
+                growBounds(scratch, 0, scratch, 6);
+            }
+        } else {
+            growBounds(scratch, 0, nodeBounds, 6 * (node + 1));
+            growBounds(scratch, 0, nodeBounds, 6 * nodeOffset[node]);
+        }
+        boolean changed = false;
+        for (int k = 0; k < 6; k++) {
+            if (nodeBounds[6 * node + k] != scratch[k]) {
+                nodeBounds[6 * node + k] = scratch[k];
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Finds the parent of every node and the leaf of every object, the first time a refit needs them
+     */
+    private void link() {
+        if (parent != null) {
+            return;
+        }
+        int used = nodes.get();
+        parent = new int[used];
+        leafOf = new int[size];
+        parent[0] = -1;
+        for (int node = 0; node < used; node++) {
+            int count = nodeCount[node];
+            if (count > 0) {
+                Arrays.fill(leafOf, nodeOffset[node], nodeOffset[node] + count, node);
+            } else if (count < 0) {
+                parent[node + 1] = node;
+                parent[nodeOffset[node]] = node;
+            }
+        }
+    }
+
+    /**
+     * The summed surface area of the nodes relative to that of the root, the expected number of boxes a ray tests
+     */
+    private float cost() {
+        float root = area(nodeBounds, 0);
+        if (!(root > 0)) {
+            return 0;
+        }
+        double sum = 0;
+        for (int node = 0; node < nodes.get(); node++) {
+            sum += area(nodeBounds, 6 * node);
+        }
+        return (float) (sum / root);
+    }
+
+    /**
+     * Gets the number of objects in the hierarchy
+     *
+     * @return  the number of objects
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the box that encloses every object of the hierarchy
+     *
+     * @return  the bounding box of the root node
+     */
+    public BoundingBox getBoundingBox() {
+        return new BoundingBox(new Point3D(nodeBounds[0], nodeBounds[1], nodeBounds[2]),
+                new Point3D(nodeBounds[3], nodeBounds[4], nodeBounds[5]));
+    }
+
+    /**
+     * Gets the bounds of the nodes, six per node in depth-first order, for storing a built hierarchy
+     * The array is shared with the hierarchy and must not be modified
+     *
+     * @return  minX, minY, minZ, maxX, maxY, maxZ of every node
+     */
+    public float[] getNodeBounds() {
+        return nodeBounds;
+    }
+
+    /**
+     * Gets the offsets of the nodes, for storing a built hierarchy
+     * The array is shared with the hierarchy and must not be modified
+     *
+     * @return  the first object of every leaf, or the right child of every inner node
+     */
+    public int[] getNodeOffsets() {
+        return nodeOffset;
+    }
+
+    /**
+     * Gets the counts of the nodes, for storing a built hierarchy
+     * The array is shared with the hierarchy and must not be modified
+     *
+     * @return  the object count of every leaf, or -(split axis + 1) for every inner node
+     */
+    public int[] getNodeCounts() {
+        return nodeCount;
+    }
+
+    /**
+     * Gets the number of nodes in the hierarchy
+     *
+     * @return  the number of nodes
+     */
+    public int nodeCount() {
+        return nodes.get();
+    }
+
+    /**
+     * Gets the index hits on an object are reported with, see {@link Ray#getObjectIndex()}
+     *
+     * @param index the index of the object in the list the hierarchy was built over
+     * @return      the index of the object in leaf order
+     */
+    public int slotOf(int index) {
+        return slotOf != null ? slotOf[index] : index;
+    }
+
+    /**
+     * Gets an object of the hierarchy by the index hits on it are reported with, see {@link Ray#getObjectIndex()}
+     *
+     * @param index the index of the object, in leaf order
+     * @return      the object, or null for a hierarchy over packed spheres
+     */
+    public GeometricObject getObject(int index) {
+        return objects != null ? objects[index] : null;
+    }
+
+    private boolean traverse(Ray ray, boolean anyHit) {
+        if (size == 0) {
+            return false;
+        }
+        int[] stack = ray.takeStack();
+        boolean hit = traverse(ray, anyHit, stack);
+        ray.releaseStack();
+        return hit;
+    }
+
+    private boolean traverse(Ray ray, boolean anyHit, int[] stack) {
+        Point3D o = ray.getOrigin();
+        Point3D d = ray.getDirection().getPoint();
+        float ox = o.getX(), oy = o.getY(), oz = o.getZ();
+        float invX = 1f / d.getX(), invY = 1f / d.getY(), invZ = 1f / d.getZ();
+        boolean negX = invX < 0, negY = invY < 0, negZ = invZ < 0;
+
+        int top = 0;
+        int node = 0;
+        boolean hit = false;
+        int boxes = 0, tests = 0;
+        while (true) {
+            boxes++;
+            if (hitsBox(node, ox, oy, oz, invX, invY, invZ, ray.getRoot())) {
+                int count = nodeCount[node];
+                if (count > 0) {
+                    int first = nodeOffset[node];
+                    tests += count;
+                    if (spheres != null) {
+                        int k = anyHit ? kernel.any(spheres, first, count, ray) : kernel.closest(spheres, first, count, ray);
+                        if (k >= 0) {
+                            if (objects != null) {
+                                ray.setObject(objects[k]);
+                                ray.setObjectIndex(k);
+                            } else {
+                                ray.setObject(owner);
+                                ray.setPrimitive(k);
+                            }
+                            if (anyHit) {
+                                ray.getCounters().countTests(boxes, tests);
+                                return true;
+                            }
+                            hit = true;
+                        }
+                    } else {
+                        for (int k = first; k < first + count; k++) {
+                            if (anyHit ? objects[k].occludes(ray, -1) : objects[k].intersect(ray)) {
+                                ray.setObjectIndex(k);
+                                if (anyHit) {
+                                    ray.getCounters().countTests(boxes, tests);
+                                    return true;
+                                }
+                                hit = true;
+                            }
+                        }
+                    }
+                } else {
+                    // visit the child on the near side of the split first
+                    int axis = -count - 1;
+                    boolean negative = axis == 0 ? negX : (axis == 1 ? negY : negZ);
+                    if (negative) {
+                        stack[top++] = node + 1;
+                        node = nodeOffset[node];
+                    } else {
+                        stack[top++] = nodeOffset[node];
+                        node = node + 1;
+                    }
+                    continue;
+                }
+            }
+            if (top == 0) {
+                ray.getCounters().countTests(boxes, tests);
+                return hit;
+            }
+            node = stack[--top];
+        }
+    }
+
+    /**
+     * Slab test of the ray against the box of a node
+     * A slab producing NaN (ray parallel to and on a face) is ignored rather than rejecting the box
+     */
+    private boolean hitsBox(int node, float ox, float oy, float oz, float invX, float invY, float invZ, float maxT) {
+        int b = 6 * node;
+        float near = -Float.MAX_VALUE, far = Float.MAX_VALUE;
+        float t0 = (nodeBounds[b] - ox) * invX;
+        float t1 = (nodeBounds[b + 3] - ox) * invX;
+        float tMin = t0 < t1 ? t0 : t1, tMax = t0 < t1 ? t1 : t0;
+        near = tMin > near ? tMin : near;
+        far = tMax < far ? tMax : far;
+        t0 = (nodeBounds[b + 1] - oy) * invY;
+        t1 = (nodeBounds[b + 4] - oy) * invY;
+        tMin = t0 < t1 ? t0 : t1;
+        tMax = t0 < t1 ? t1 : t0;
+        near = tMin > near ? tMin : near;
+        far = tMax < far ? tMax : far;
+        t0 = (nodeBounds[b + 2] - oz) * invZ;
+        t1 = (nodeBounds[b + 5] - oz) * invZ;
+        tMin = t0 < t1 ? t0 : t1;
+        tMax = t0 < t1 ? t1 : t0;
+        near = tMin > near ? tMin : near;
+        far = tMax < far ? tMax : far;
+        return near <= far && far >= 0 && near <= maxT;
+    }
+
+    /**
+     * Builds the subtree over the objects [start, end) into the node slots reserved for it
+     * Each builder has its own binning scratch space, subtrees above PARALLEL_BUILD_SIZE
+     * objects are handed to new builders that run in parallel when there is a pool
+     */
+    private class Builder extends RecursiveAction {
+        private final int root, start, end, depth;
+        private final float[] bounds, centroidBounds;
+        private final int[] binCount = new int[3 * BINS];
+        private final float[] binBounds = new float[6 * 3 * BINS];
+        private final float[] rightArea = new float[BINS];
+        private final int[] rightCount = new int[BINS];
+        private final float[] sweepBounds = new float[6];
+        private int splitBin;
+
+        Builder(int root, int start, int end, int depth, float[] bounds, float[] centroidBounds) {
+            this.root = root;
+            this.start = start;
+            this.end = end;
+            this.depth = depth;
+            this.bounds = bounds;
+            this.centroidBounds = centroidBounds;
+        }
+
+        @Override
+        protected void compute() {
+            build(root, start, end, depth, bounds, centroidBounds);
+        }
+
+        /**
+         * Builds one node and its children
+         * The bounds of the objects and of their centroids are passed down from the parent
+         */
+        private void build(int node, int start, int end, int depth, float[] bounds, float[] centroidBounds) {
+            nodes.incrementAndGet();
+            System.arraycopy(bounds, 0, slotBounds, 6 * node, 6);
+
+            int count = end - start;
+            float[] c = centroidBounds;
+            boolean flat = c[3] <= c[0] && c[4] <= c[1] && c[5] <= c[2];
+            if (count <= maxLeafSize || depth >= MAX_DEPTH - 1 || flat) {
+                makeLeaf(node, start, count);
+                return;
+            }
+
+            // find the cheapest split plane between bins on every axis
+            fillBins(start, end, centroidBounds);
+            float bestCost = Float.MAX_VALUE;
+            int bestAxis = -1, bestBin = -1;
+            for (int axis = 0; axis < 3; axis++) {
+                if (c[axis + 3] <= c[axis]) {
+                    continue;
+                }
+                float cost = bestSplit(axis);
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestBin = splitBin;
+                }
+            }
+
+            float parentArea = area(bounds, 0);
+            bestCost = TRAVERSAL_COST + (parentArea > 0 ? bestCost / parentArea : count);
+            if (bestCost >= count && count <= MAX_SAH_LEAF_SIZE) {
+                makeLeaf(node, start, count);
+                return;
+            }
+
+            // gather the bounds of both sides from the bins before the next level reuses them
+            float[] leftBounds = new float[6], leftCentroids = new float[6];
+            float[] rightBounds = new float[6], rightCentroids = new float[6];
+            resetBounds(leftBounds, 0);
+            resetBounds(rightBounds, 0);
+            for (int k = 0; k < BINS; k++) {
+                if (binCount[bestAxis * BINS + k] > 0) {
+                    growBounds(k <= bestBin ? leftBounds : rightBounds, 0, binBounds, 6 * (bestAxis * BINS + k));
+                }
+            }
+
+            float min = c[bestAxis], scale = BINS / (c[bestAxis + 3] - min);
+            int middle = partition(start, end, bestAxis, min, scale, bestBin, leftCentroids, rightCentroids);
+
+            int left = node + 1, right = node + 2 * (middle - start);
+            slotCount[node] = -(bestAxis + 1);
+            slotOffset[node] = right;
+            if (pool != null && count >= PARALLEL_BUILD_SIZE) {
+                invokeAll(new Builder(left, start, middle, depth + 1, leftBounds, leftCentroids),
+                        new Builder(right, middle, end, depth + 1, rightBounds, rightCentroids));
+            } else {
+                build(left, start, middle, depth + 1, leftBounds, leftCentroids);
+                build(right, middle, end, depth + 1, rightBounds, rightCentroids);
+            }
+        }
+
+        /**
+         * Sorts the centroids of the objects [start, end) into bins along all three axes in one pass
+         */
+        private void fillBins(int start, int end, float[] centroidBounds) {
+            for (int k = 0; k < 3 * BINS; k++) {
+                binCount[k] = 0;
+                resetBounds(binBounds, k);
+            }
+            float minX = centroidBounds[0], minY = centroidBounds[1], minZ = centroidBounds[2];
+            float scaleX = BINS / (centroidBounds[3] - minX);
+            float scaleY = BINS / (centroidBounds[4] - minY);
+            float scaleZ = BINS / (centroidBounds[5] - minZ);
+            for (int k = start; k < end; k++) {
+                int p = 6 * k;
+                addToBin(binIndex(centroid(primBounds, p, 0), minX, scaleX), p);
+                addToBin(BINS + binIndex(centroid(primBounds, p, 1), minY, scaleY), p);
+                addToBin(2 * BINS + binIndex(centroid(primBounds, p, 2), minZ, scaleZ), p);
+            }
+        }
+
+        private void addToBin(int bin, int p) {
+            binCount[bin]++;
+            growBounds(binBounds, 6 * bin, primBounds, p);
+        }
+
+        /**
+         * Sweeps the bins of one axis and returns the lowest unnormalised SAH cost,
+         * leaving the last bin of the left side in splitBin
+         */
+        private float bestSplit(int axis) {
+            int first = axis * BINS;
+            float[] box = sweepBounds;
+            resetBounds(box, 0);
+            int countRight = 0;
+            for (int k = BINS - 1; k > 0; k--) {
+                countRight += binCount[first + k];
+                growBounds(box, 0, binBounds, 6 * (first + k));
+                rightCount[k] = countRight;
+                rightArea[k] = countRight > 0 ? area(box, 0) : 0;
+            }
+
+            float best = Float.MAX_VALUE;
+            resetBounds(box, 0);
+            int countLeft = 0;
+            for (int k = 0; k < BINS - 1; k++) {
+                countLeft += binCount[first + k];
+                growBounds(box, 0, binBounds, 6 * (first + k));
+                if (countLeft == 0 || rightCount[k + 1] == 0) {
+                    continue;
+                }
+                float cost = countLeft * area(box, 0) + rightCount[k + 1] * rightArea[k + 1];
+                if (cost < best) {
+                    best = cost;
+                    splitBin = k;
+                }
+            }
+            return best;
+        }
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        slotOffset[node] = start;
+        slotCount[node] = count;
+    }
+
+    /**
+     * Copies the built nodes out of their reserved slots into consecutive depth-first order,
+     * which drops the unused slots and keeps every left child right after its parent
+     */
+    private void compact() {
+        int[] pendingSlot = new int[MAX_DEPTH], pendingParent = new int[MAX_DEPTH];
+        int top = 0;
+        int slot = 0, next = 0;
+        while (true) {
+            int node = next++;
+            System.arraycopy(slotBounds, 6 * slot, nodeBounds, 6 * node, 6);
+            nodeCount[node] = slotCount[slot];
+            if (slotCount[slot] < 0) {
+                // the right child gets its index once the left subtree is done
+                pendingSlot[top] = slotOffset[slot];
+                pendingParent[top++] = node;
+                slot = slot + 1;
+                continue;
+            }
+            nodeOffset[node] = slotOffset[slot];
+            if (top == 0) {
+                return;
+            }
+            slot = pendingSlot[--top];
+            nodeOffset[pendingParent[top]] = next;
+        }
+    }
+
+    /**
+     * Moves the objects whose centroid falls in a bin up to lastLeftBin in front of the others
+     * and returns the index of the first object of the right side
+     * The centroid bounds of both sides are collected on the way
+     */
+    private int partition(int start, int end, int axis, float min, float scale, int lastLeftBin,
+                          float[] leftCentroids, float[] rightCentroids) {
+        resetBounds(leftCentroids, 0);
+        resetBounds(rightCentroids, 0);
+        int i = start, j = end - 1;
+        while (i <= j) {
+            if (binIndex(centroid(primBounds, 6 * i, axis), min, scale) <= lastLeftBin) {
+                growCentroid(leftCentroids, 0, primBounds, 6 * i);
+                i++;
+            } else {
+                growCentroid(rightCentroids, 0, primBounds, 6 * i);
+                swap(i, j--);
+            }
+        }
+        return i;
+    }
+
+    private void swap(int i, int j) {
+        int o = order[i];
+        order[i] = order[j];
+        order[j] = o;
+        for (int k = 0; k < 6; k++) {
+            float b = primBounds[6 * i + k];
+            primBounds[6 * i + k] = primBounds[6 * j + k];
+            primBounds[6 * j + k] = b;
+        }
+    }
+
+    private static float centroid(float[] bounds, int b, int axis) {
+        return 0.5f * (bounds[b + axis] + bounds[b + axis + 3]);
+    }
+
+    private static int binIndex(float centroid, float min, float scale) {
+        return Math.min(BINS - 1, (int) ((centroid - min) * scale));
+    }
+
+    private static void setBounds(float[] bounds, int index, Point3D min, Point3D max) {
+        int b = 6 * index;
+        bounds[b] = min.getX();
+        bounds[b + 1] = min.getY();
+        bounds[b + 2] = min.getZ();
+        bounds[b + 3] = max.getX();
+        bounds[b + 4] = max.getY();
+        bounds[b + 5] = max.getZ();
+    }
+
+    private static void setBounds(float[] bounds, int index, PackedSpheres spheres, int k) {
+        int b = 6 * index;
+        float r = spheres.radius[k];
+        bounds[b] = spheres.centerX[k] - r;
+        bounds[b + 1] = spheres.centerY[k] - r;
+        bounds[b + 2] = spheres.centerZ[k] - r;
+        bounds[b + 3] = spheres.centerX[k] + r;
+        bounds[b + 4] = spheres.centerY[k] + r;
+        bounds[b + 5] = spheres.centerZ[k] + r;
+    }
+
+    private static void resetBounds(float[] bounds, int index) {
+        int b = 6 * index;
+        bounds[b] = bounds[b + 1] = bounds[b + 2] = Float.MAX_VALUE;
+        bounds[b + 3] = bounds[b + 4] = bounds[b + 5] = -Float.MAX_VALUE;
+    }
+
+    private static void growBounds(float[] bounds, int b, float[] other, int o) {
+        bounds[b] = Math.min(bounds[b], other[o]);
+        bounds[b + 1] = Math.min(bounds[b + 1], other[o + 1]);
+        bounds[b + 2] = Math.min(bounds[b + 2], other[o + 2]);
+        bounds[b + 3] = Math.max(bounds[b + 3], other[o + 3]);
+        bounds[b + 4] = Math.max(bounds[b + 4], other[o + 4]);
+        bounds[b + 5] = Math.max(bounds[b + 5], other[o + 5]);
+    }
+
+    private static void growCentroid(float[] bounds, int b, float[] other, int o) {
+        for (int axis = 0; axis < 3; axis++) {
+            float c = centroid(other, o, axis);
+            bounds[b + axis] = Math.min(bounds[b + axis], c);
+            bounds[b + axis + 3] = Math.max(bounds[b + axis + 3], c);
+        }
+    }
+
+    private static float area(float[] bounds, int b) {
+        float dx = bounds[b + 3] - bounds[b];
+        float dy = bounds[b + 4] - bounds[b + 1];
+        float dz = bounds[b + 5] - bounds[b + 2];
+        return dx * dy + dy * dz + dz * dx;
+    }
+}
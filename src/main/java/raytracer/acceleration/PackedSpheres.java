@@ -0,0 +1,193 @@
+package raytracer.acceleration;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import raytracer.Sphere;
+import raytracer.raydefinition.Ray;
+
+/**
+ * The PackedSpheres class
+ *
+ * Stores the centers and radii of many spheres in parallel float arrays (structure of arrays),
+ * so that intersection kernels read them sequentially instead of following a pointer from
+ * every {@link Sphere} to its center point.
+ */
+public class PackedSpheres {
+    static final int PADDING = 16;    // spare entries so vector kernels can load a full register past the end
+    private static final int DIGEST_CHUNK = 4096;
+    final float[] centerX, centerY, centerZ, radius, radSqr;
+    private final int size;
+
+    /**
+     * Constructor of an empty store
+     *
+     * @param size  the number of spheres the store holds
+     */
+    public PackedSpheres(int size) {
+        this.size = size;
+        this.centerX = new float[size + PADDING];
+        this.centerY = new float[size + PADDING];
+        this.centerZ = new float[size + PADDING];
+        this.radius = new float[size + PADDING];
+        this.radSqr = new float[size + PADDING];
+    }
+
+    /**
+     * Constructor copying the given spheres, in order
+     *
+     * @param spheres   the spheres to pack
+     */
+    public PackedSpheres(Sphere[] spheres) {
+        this(spheres.length);
+        for (int k = 0; k < size; k++) {
+            set(k, spheres[k]);
+        }
+    }
+
+    /**
+     * Copies the center and radius of a sphere into the store
+     *
+     * @param index     position in the store
+     * @param sphere    the sphere to copy
+     */
+    public void set(int index, Sphere sphere) {
+        centerX[index] = sphere.center.getX();
+        centerY[index] = sphere.center.getY();
+        centerZ[index] = sphere.center.getZ();
+        radius[index] = sphere.radius;
+        radSqr[index] = sphere.radSqr;
+    }
+
+    /**
+     * Fills the store from buffers holding one value per sphere, such as views of a memory-mapped file
+     * Each buffer is copied in bulk, its position moves past the values read
+     *
+     * @param x         the x coordinates of the centers
+     * @param y         the y coordinates of the centers
+     * @param z         the z coordinates of the centers
+     * @param radii     the radii
+     */
+    public void read(FloatBuffer x, FloatBuffer y, FloatBuffer z, FloatBuffer radii) {
+        x.get(centerX, 0, size);
+        y.get(centerY, 0, size);
+        z.get(centerZ, 0, size);
+        radii.get(radius, 0, size);
+        for (int k = 0; k < size; k++) {
+            radSqr[k] = radius[k] * radius[k];
+        }
+    }
+
+    /**
+     * Copies the store into buffers, one value per sphere, the counterpart of {@link #read}
+     *
+     * @param x         receives the x coordinates of the centers
+     * @param y         receives the y coordinates of the centers
+     * @param z         receives the z coordinates of the centers
+     * @param radii     receives the radii
+     */
+    public void write(FloatBuffer x, FloatBuffer y, FloatBuffer z, FloatBuffer radii) {
+        x.put(centerX, 0, size);
+        y.put(centerY, 0, size);
+        z.put(centerZ, 0, size);
+        radii.put(radius, 0, size);
+    }
+
+    /**
+     * Writes the centers and radii column by column, in bulk, for a digest of the scene
+     *
+     * @param out   receives the x, y and z coordinates of every center, then every radius
+     * @throws IOException if writing fails
+     */
+    public void digest(DataOutput out) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * DIGEST_CHUNK);
+        for (float[] column : new float[][] {centerX, centerY, centerZ, radius}) {
+            for (int k = 0; k < size; k += DIGEST_CHUNK) {
+                int count = Math.min(DIGEST_CHUNK, size - k);
+                bytes.clear();
+                bytes.asFloatBuffer().put(column, k, count);
+                out.write(bytes.array(), 0, 4 * count);
+            }
+        }
+    }
+
+    /**
+     * Moves the spheres into a new order
+     *
+     * @param order     the index of the sphere that goes to each position
+     */
+    void reorder(int[] order) {
+        for (float[] column : new float[][] {centerX, centerY, centerZ, radius, radSqr}) {
+            float[] old = column.clone();
+            for (int k = 0; k < size; k++) {
+                column[k] = old[order[k]];
+            }
+        }
+    }
+
+    /**
+     * Gets the x coordinate of a center
+     *
+     * @param index position in the store
+     * @return      the x coordinate
+     */
+    public float getCenterX(int index) {
+        return centerX[index];
+    }
+
+    /**
+     * Gets the y coordinate of a center
+     *
+     * @param index position in the store
+     * @return      the y coordinate
+     */
+    public float getCenterY(int index) {
+        return centerY[index];
+    }
+
+    /**
+     * Gets the z coordinate of a center
+     *
+     * @param index position in the store
+     * @return      the z coordinate
+     */
+    public float getCenterZ(int index) {
+        return centerZ[index];
+    }
+
+    /**
+     * Tests a single sphere, in the same way as {@link Sphere#intersect}, and shrinks the ray's root on a hit
+     *
+     * @param index the index of the sphere
+     * @param ray   the ray being traced
+     * @return      true if the sphere is hit closer than the ray's root
+     */
+    public boolean intersect(int index, Ray ray) {
+        return ScalarSphereKernel.test(this, index, ray);
+    }
+
+    /**
+     * Moves every sphere of the store by the same offset
+     *
+     * @param dx    offset along x
+     * @param dy    offset along y
+     * @param dz    offset along z
+     */
+    public void translate(float dx, float dy, float dz) {
+        for (int k = 0; k < size; k++) {
+            centerX[k] += dx;
+            centerY[k] += dy;
+            centerZ[k] += dz;
+        }
+    }
+
+    /**
+     * Gets the number of spheres in the store
+     *
+     * @return  the number of spheres
+     */
+    public int size() {
+        return size;
+    }
+}
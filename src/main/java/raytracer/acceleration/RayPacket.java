@@ -0,0 +1,251 @@
+package raytracer.acceleration;
+
+import raytracer.raydefinition.*;
+
+/**
+ * The RayPacket class
+ *
+ * A bundle of rays from one origin, such as the camera rays through a block of neighbouring pixels,
+ * traced through a {@link BoundingVolumeHierarchy} together. The directions are kept as a structure
+ * of arrays, and the packet keeps the range of the inverse directions on every axis: a node is culled
+ * for the whole packet when the frustum spanned by that range misses its box, so each box costs one
+ * test per packet instead of one per ray. At a leaf, the rays that enter its box are tested against its
+ * spheres by a {@link SphereKernel}, which confirms every hit with the arithmetic of
+ * {@link ScalarSphereKernel#test}, so every ray finds the same hit it would find on its own.
+ * Only coherent packets can be traced this way: every direction must point the same way along each axis.
+ * A packet is reused for every block, so tracing does not allocate.
+ */
+public class RayPacket {
+    /** Largest number of rays in a packet, an 8 x 8 block of pixels */
+    public static final int MAX_SIZE = 64;
+
+    final float[] dirX = new float[MAX_SIZE], dirY = new float[MAX_SIZE], dirZ = new float[MAX_SIZE];
+    final float[] invX = new float[MAX_SIZE], invY = new float[MAX_SIZE], invZ = new float[MAX_SIZE];
+    final float[] root = new float[MAX_SIZE];
+    final float[] limit = new float[MAX_SIZE];  // the root of the rays in the box of the current leaf, -1 for the others
+    final int[] hit = new int[MAX_SIZE];
+    final int[] stack = new int[Ray.STACK_SIZE];
+    private final int[] tags = new int[MAX_SIZE];
+    float ox, oy, oz;
+    boolean negX, negY, negZ;
+    float loX, hiX, loY, hiY, loZ, hiZ;     // range of the inverse directions over the packet
+    float maxRoot;                          // furthest root of any ray, nodes beyond it are culled
+    private int size;
+
+    /**
+     * Empties the packet and sets the origin shared by the rays added next
+     *
+     * @param origin    the origin of every ray of the packet
+     */
+    public void clear(Point3D origin) {
+        size = 0;
+        ox = origin.getX();
+        oy = origin.getY();
+        oz = origin.getZ();
+    }
+
+    /**
+     * Adds a ray to the packet, copying its direction, which must already be normalized
+     *
+     * @param ray   a ray from the origin of the packet
+     * @param tag   a number the caller uses to tell the rays apart, such as the index of a pixel
+     */
+    public void add(Ray ray, int tag) {
+        Point3D d = ray.getDirection().getPoint();
+        dirX[size] = d.getX();
+        dirY[size] = d.getY();
+        dirZ[size] = d.getZ();
+        tags[size] = tag;
+        size++;
+    }
+
+    /**
+     * Resets the hits and computes the range of the inverse directions
+     *
+     * @return  true if the packet can be traced as a whole, false if its rays must be traced one at a time:
+     *          their directions differ in sign, or one is parallel to an axis
+     */
+    boolean prepare() {
+        if (size == 0) {
+            return false;
+        }
+        negX = dirX[0] < 0;
+        negY = dirY[0] < 0;
+        negZ = dirZ[0] < 0;
+        loX = loY = loZ = Float.MAX_VALUE;
+        hiX = hiY = hiZ = -Float.MAX_VALUE;
+        for (int r = 0; r < size; r++) {
+            if (dirX[r] == 0 || dirY[r] == 0 || dirZ[r] == 0
+                    || (dirX[r] < 0) != negX || (dirY[r] < 0) != negY || (dirZ[r] < 0) != negZ) {
+                return false;
+            }
+            invX[r] = 1f / dirX[r];
+            invY[r] = 1f / dirY[r];
+            invZ[r] = 1f / dirZ[r];
+            if (Float.isInfinite(invX[r]) || Float.isInfinite(invY[r]) || Float.isInfinite(invZ[r])) {
+                return false;
+            }
+            loX = Math.min(loX, invX[r]);
+            hiX = Math.max(hiX, invX[r]);
+            loY = Math.min(loY, invY[r]);
+            hiY = Math.max(hiY, invY[r]);
+            loZ = Math.min(loZ, invZ[r]);
+            hiZ = Math.max(hiZ, invZ[r]);
+            root[r] = Float.MAX_VALUE;
+            hit[r] = -1;
+        }
+        for (int r = size; r < MAX_SIZE; r++) {
+            limit[r] = -1;
+        }
+        maxRoot = Float.MAX_VALUE;
+        return true;
+    }
+
+    /**
+     * Checks if the frustum of the packet can reach a box, by interval arithmetic on the inverse directions
+     * A false answer means no ray of the packet hits the box before its root; a true one means some may
+     *
+     * @param bounds    minX, minY, minZ, maxX, maxY, maxZ of the boxes, six per box
+     * @param b         index of the first bound of the box
+     * @return          false if the whole packet misses the box
+     */
+    boolean reaches(float[] bounds, int b) {
+        // along each axis the entry and exit distances lie between the products with the smallest and largest inverse
+        float entry = negX ? bounds[b + 3] - ox : bounds[b] - ox;
+        float exit = negX ? bounds[b] - ox : bounds[b + 3] - ox;
+        float near = Math.min(entry * loX, entry * hiX);
+        float far = Math.max(exit * loX, exit * hiX);
+        entry = negY ? bounds[b + 4] - oy : bounds[b + 1] - oy;
+        exit = negY ? bounds[b + 1] - oy : bounds[b + 4] - oy;
+        near = Math.max(near, Math.min(entry * loY, entry * hiY));
+        far = Math.min(far, Math.max(exit * loY, exit * hiY));
+        entry = negZ ? bounds[b + 5] - oz : bounds[b + 2] - oz;
+        exit = negZ ? bounds[b + 2] - oz : bounds[b + 5] - oz;
+        near = Math.max(near, Math.min(entry * loZ, entry * hiZ));
+        far = Math.min(far, Math.max(exit * loZ, exit * hiZ));
+        return near <= far && far >= 0 && near <= maxRoot;
+    }
+
+    /**
+     * Finds the rays of the packet that enter a box before their root, with the same slab test as
+     * the hierarchy uses for single rays, and sets their limit to their root; the others get a limit of -1
+     *
+     * @param bounds    minX, minY, minZ, maxX, maxY, maxZ of the boxes, six per box
+     * @param b         index of the first bound of the box
+     * @return          the number of rays that enter the box
+     */
+    int enter(float[] bounds, int b) {
+        int entered = 0;
+        for (int r = 0; r < size; r++) {
+            float near = -Float.MAX_VALUE, far = Float.MAX_VALUE;
+            float t0 = (bounds[b] - ox) * invX[r];
+            float t1 = (bounds[b + 3] - ox) * invX[r];
+            float tMin = t0 < t1 ? t0 : t1, tMax = t0 < t1 ? t1 : t0;
+            near = tMin > near ? tMin : near;
+            far = tMax < far ? tMax : far;
+            t0 = (bounds[b + 1] - oy) * invY[r];
+            t1 = (bounds[b + 4] - oy) * invY[r];
+            tMin = t0 < t1 ? t0 : t1;
+            tMax = t0 < t1 ? t1 : t0;
+            near = tMin > near ? tMin : near;
+            far = tMax < far ? tMax : far;
+            t0 = (bounds[b + 2] - oz) * invZ[r];
+            t1 = (bounds[b + 5] - oz) * invZ[r];
+            tMin = t0 < t1 ? t0 : t1;
+            tMax = t0 < t1 ? t1 : t0;
+            near = tMin > near ? tMin : near;
+            far = tMax < far ? tMax : far;
+            if (near <= far && far >= 0 && near <= root[r]) {
+                limit[r] = root[r];
+                entered++;
+            } else {
+                limit[r] = -1;
+            }
+        }
+        return entered;
+    }
+
+    /**
+     * Tests a packed sphere against one ray of the packet and shrinks its root on a hit
+     * The arithmetic is that of {@link ScalarSphereKernel#test}, so the hits are the same
+     *
+     * @param spheres   the packed spheres
+     * @param k         index of the sphere
+     * @param r         index of the ray in the packet
+     * @return          true if the sphere is hit closer than the ray's root
+     */
+    boolean test(PackedSpheres spheres, int k, int r) {
+        float dx = spheres.centerX[k] - ox;
+        float dy = spheres.centerY[k] - oy;
+        float dz = spheres.centerZ[k] - oz;
+        float dot = dirX[r]*dx + dirY[r]*dy + dirZ[r]*dz;
+        if (dot - spheres.radius[k] > root[r])
+            return false;
+
+        float t = spheres.radSqr[k] + dot*dot - dx*dx - dy*dy - dz*dz;
+        if (t < 0) {
+            return false;
+        }
+        float s = (float) Math.sqrt(t);
+        t = dot - s;
+        if (t < 0) {
+            t = dot + s;
+        }
+        if ((t > root[r]) || (t < 0)) {
+            return false;
+        }
+        root[r] = t;
+        limit[r] = t;
+        return true;
+    }
+
+    /**
+     * Recomputes the furthest root of the packet, after its rays found hits in a leaf
+     */
+    void updateMaxRoot() {
+        float max = root[0];
+        for (int r = 1; r < size; r++) {
+            max = Math.max(max, root[r]);
+        }
+        maxRoot = max;
+    }
+
+    /**
+     * Gets the number of rays in the packet
+     *
+     * @return  the number of rays
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the tag a ray was added with
+     *
+     * @param r index of the ray in the packet
+     * @return  the tag
+     */
+    public int getTag(int r) {
+        return tags[r];
+    }
+
+    /**
+     * Gets the object a ray hit, once the packet has been traced
+     *
+     * @param r index of the ray in the packet
+     * @return  the index of the object in the hierarchy, see {@link BoundingVolumeHierarchy#getObject}, or -1 if it hit nothing
+     */
+    public int getHit(int r) {
+        return hit[r];
+    }
+
+    /**
+     * Gets the distance along a ray to its hit, once the packet has been traced
+     *
+     * @param r index of the ray in the packet
+     * @return  the root of the ray
+     */
+    public float getRoot(int r) {
+        return root[r];
+    }
+}
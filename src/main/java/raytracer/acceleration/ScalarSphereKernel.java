@@ -0,0 +1,84 @@
+package raytracer.acceleration;
+
+import raytracer.raydefinition.*;
+
+/**
+ * The ScalarSphereKernel class
+ *
+ * Tests packed spheres one at a time, with the same arithmetic as {@link raytracer.Sphere#intersect}
+ */
+class ScalarSphereKernel implements SphereKernel {
+
+    @Override
+    public int closest(PackedSpheres spheres, int first, int count, Ray ray) {
+        int hit = -1;
+        for (int k = first; k < first + count; k++) {
+            if (test(spheres, k, ray)) {
+                hit = k;
+            }
+        }
+        return hit;
+    }
+
+    @Override
+    public int any(PackedSpheres spheres, int first, int count, Ray ray) {
+        for (int k = first; k < first + count; k++) {
+            if (test(spheres, k, ray)) {
+                return k;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public void closest(PackedSpheres spheres, int first, int count, RayPacket packet) {
+        for (int r = 0; r < packet.size(); r++) {
+            if (packet.limit[r] < 0) {
+                continue;
+            }
+            for (int k = first; k < first + count; k++) {
+                if (packet.test(spheres, k, r)) {
+                    packet.hit[r] = k;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int width() {
+        return 4;
+    }
+
+    /**
+     * Tests a single packed sphere and shrinks the ray's root on a hit
+     *
+     * @param spheres   the packed spheres
+     * @param k         index of the sphere
+     * @param ray       the ray being traced
+     * @return          true if the sphere is hit closer than the ray's root
+     */
+    static boolean test(PackedSpheres spheres, int k, Ray ray) {
+        Point3D origin = ray.getOrigin();
+        float dx = spheres.centerX[k] - origin.getX();
+        float dy = spheres.centerY[k] - origin.getY();
+        float dz = spheres.centerZ[k] - origin.getZ();
+        float dot = ray.getDirection().dotProduct(dx, dy, dz);
+        if (dot - spheres.radius[k] > ray.getRoot())
+            return false;
+
+        float t = spheres.radSqr[k] + dot*dot - dx*dx - dy*dy - dz*dz;
+        if (t < 0) {
+            return false;
+        }
+        float s = (float) Math.sqrt(t);
+        t = dot - s;
+        if (t < 0) {
+            t = dot + s;
+        }
+        if ((t > ray.getRoot()) || (t < 0)) {
+            return false;
+        }
+        ray.setRoot(t);
+        return true;
+    }
+}
@@ -0,0 +1,76 @@
+package raytracer.acceleration;
+
+import raytracer.Log;
+import raytracer.raydefinition.Ray;
+
+/**
+ * The SphereKernel interface
+ *
+ * Intersects a ray with a run of packed spheres. Implementations must give exactly the
+ * same answer as testing the spheres one after the other with {@link raytracer.Sphere#intersect}.
+ */
+interface SphereKernel {
+    /**
+     * Finds the sphere of the run that is hit closest to the ray's origin, but not beyond its root
+     * The root of the ray is moved to the new hit
+     *
+     * @param spheres   the packed spheres
+     * @param first     index of the first sphere of the run
+     * @param count     number of spheres in the run
+     * @param ray       the ray being traced
+     * @return          the index of the sphere hit, or -1 if none was
+     */
+    int closest(PackedSpheres spheres, int first, int count, Ray ray);
+
+    /**
+     * Finds any sphere of the run that is hit before the ray's root
+     * The root of the ray is moved to the hit
+     *
+     * @param spheres   the packed spheres
+     * @param first     index of the first sphere of the run
+     * @param count     number of spheres in the run
+     * @param ray       the ray being traced
+     * @return          the index of a sphere hit, or -1 if none was
+     */
+    int any(PackedSpheres spheres, int first, int count, Ray ray);
+
+    /**
+     * Finds the closest sphere of the run for every ray of a packet whose limit is not negative,
+     * see {@link RayPacket#enter}; the roots and hits of those rays are updated as if each of them
+     * had been tested on its own with {@link #closest}
+     *
+     * @param spheres   the packed spheres
+     * @param first     index of the first sphere of the run
+     * @param count     number of spheres in the run
+     * @param packet    the rays being traced
+     */
+    void closest(PackedSpheres spheres, int first, int count, RayPacket packet);
+
+    /**
+     * Gets how many spheres the kernel tests at once, used to size the leaves of a hierarchy
+     *
+     * @return  the number of spheres per step
+     */
+    int width();
+
+    /**
+     * Creates the fastest kernel this JVM supports
+     * The SIMD kernel needs the jdk.incubator.vector module (--add-modules jdk.incubator.vector)
+     * and can be turned off with -Draytracer.simd=false
+     *
+     * @return  the SIMD kernel if it is available, otherwise the scalar one
+     */
+    static SphereKernel create() {
+        if (Boolean.parseBoolean(System.getProperty("raytracer.simd", "true"))
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                // loaded by name so that this class never links against the incubator module
+                return (SphereKernel) Class.forName("raytracer.acceleration.VectorSphereKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                Log.error("SIMD sphere kernel unavailable, using scalar: " + e);
+            }
+        }
+        return new ScalarSphereKernel();
+    }
+}
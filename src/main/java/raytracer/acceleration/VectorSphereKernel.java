@@ -0,0 +1,127 @@
+package raytracer.acceleration;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+import raytracer.raydefinition.*;
+
+/**
+ * The VectorSphereKernel class
+ *
+ * Tests as many packed spheres per instruction as the CPU's vector registers hold
+ * (8 with AVX2, 16 with AVX-512). All lanes are tested against the ray's root at the start
+ * of a step; the few spheres that pass are then re-tested in order by
+ * {@link ScalarSphereKernel#test}, which gives the same hits as testing them one after the other.
+ * For a {@link RayPacket} the lanes hold rays instead: each sphere is tested against that many rays at once.
+ * Only loaded when the jdk.incubator.vector module is present, see {@link SphereKernel#create()}.
+ */
+class VectorSphereKernel implements SphereKernel {
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public int closest(PackedSpheres spheres, int first, int count, Ray ray) {
+        return test(spheres, first, count, ray, false);
+    }
+
+    @Override
+    public int any(PackedSpheres spheres, int first, int count, Ray ray) {
+        return test(spheres, first, count, ray, true);
+    }
+
+    @Override
+    public void closest(PackedSpheres spheres, int first, int count, RayPacket packet) {
+        float ox = packet.ox, oy = packet.oy, oz = packet.oz;
+        int rays = packet.size();
+        // the packet's arrays are a whole number of registers long, lanes past its last ray have a limit of -1
+        for (int r = 0; r < rays; r += SPECIES.length()) {
+            FloatVector dirX = FloatVector.fromArray(SPECIES, packet.dirX, r);
+            FloatVector dirY = FloatVector.fromArray(SPECIES, packet.dirY, r);
+            FloatVector dirZ = FloatVector.fromArray(SPECIES, packet.dirZ, r);
+            if (!FloatVector.fromArray(SPECIES, packet.limit, r).compare(VectorOperators.GE, 0f).anyTrue()) {
+                continue;
+            }
+            int last = Math.min(r + SPECIES.length(), rays);
+            for (int k = first; k < first + count; k++) {
+                float dx = spheres.centerX[k] - ox;
+                float dy = spheres.centerY[k] - oy;
+                float dz = spheres.centerZ[k] - oz;
+                // reloaded for every sphere: a vector carried around the loop would be boxed by the JIT
+                FloatVector limit = FloatVector.fromArray(SPECIES, packet.limit, r);
+
+                // the same operations in the same order as the scalar test, so no hit is filtered out
+                FloatVector dot = dirX.mul(dx).add(dirY.mul(dy)).add(dirZ.mul(dz));
+                FloatVector discriminant = dot.mul(dot).add(spheres.radSqr[k]).sub(dx*dx).sub(dy*dy).sub(dz*dz);
+                FloatVector near = dot.sub(spheres.radius[k]);
+                FloatVector s = discriminant.max(0f).lanewise(VectorOperators.SQRT);
+                FloatVector t = dot.sub(s);
+                t = t.blend(dot.add(s), t.compare(VectorOperators.LT, 0f));
+                // a limit of -1 fails the last test, so rays outside the box are never candidates
+                VectorMask<Float> candidates = discriminant.compare(VectorOperators.GE, 0f)
+                        .and(near.compare(VectorOperators.LE, limit))
+                        .and(t.compare(VectorOperators.LE, limit))
+                        .and(t.compare(VectorOperators.GE, 0f));
+                if (!candidates.anyTrue()) {
+                    continue;
+                }
+                for (int j = r + candidates.firstTrue(); j < last; j++) {
+                    if (packet.limit[j] >= 0 && packet.test(spheres, k, j)) {
+                        packet.hit[j] = k;
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public int width() {
+        return Math.min(SPECIES.length(), 16);
+    }
+
+    private static int test(PackedSpheres spheres, int first, int count, Ray ray, boolean anyHit) {
+        Point3D origin = ray.getOrigin();
+        Point3D direction = ray.getDirection().getPoint();
+        float ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        float dirX = direction.getX(), dirY = direction.getY(), dirZ = direction.getZ();
+        int end = first + count;
+        int hit = -1;
+        // full-width loads are safe because the store is padded past its last sphere;
+        // masked loads and mask-to-bits conversions are avoided since the JIT boxes them
+        for (int k = first; k < end; k += SPECIES.length()) {
+            FloatVector dx = FloatVector.fromArray(SPECIES, spheres.centerX, k).sub(ox);
+            FloatVector dy = FloatVector.fromArray(SPECIES, spheres.centerY, k).sub(oy);
+            FloatVector dz = FloatVector.fromArray(SPECIES, spheres.centerZ, k).sub(oz);
+            FloatVector radius = FloatVector.fromArray(SPECIES, spheres.radius, k);
+            FloatVector radSqr = FloatVector.fromArray(SPECIES, spheres.radSqr, k);
+
+            FloatVector dot = dx.mul(dirX).add(dy.mul(dirY)).add(dz.mul(dirZ));
+            FloatVector discriminant = radSqr.add(dot.mul(dot)).sub(dx.mul(dx)).sub(dy.mul(dy)).sub(dz.mul(dz));
+            FloatVector near = dot.sub(radius);
+            FloatVector s = discriminant.max(0f).lanewise(VectorOperators.SQRT);
+            FloatVector t = dot.sub(s);
+            t = t.blend(dot.add(s), t.compare(VectorOperators.LT, 0f));
+            float root = ray.getRoot();
+            VectorMask<Float> candidates = SPECIES.indexInRange(k, end)
+                    .and(discriminant.compare(VectorOperators.GE, 0f))
+                    .and(near.compare(VectorOperators.LE, root))
+                    .and(t.compare(VectorOperators.LE, root))
+                    .and(t.compare(VectorOperators.GE, 0f));
+            if (!candidates.anyTrue()) {
+                continue;
+            }
+
+            // re-test the passing spheres one at a time against the shrinking root;
+            // reading lanes back out of the registers makes the JIT box the vectors
+            int last = Math.min(k + SPECIES.length(), end);
+            for (int j = k + candidates.firstTrue(); j < last; j++) {
+                if (ScalarSphereKernel.test(spheres, j, ray)) {
+                    hit = j;
+                    if (anyHit) {
+                        return hit;
+                    }
+                }
+            }
+        }
+        return hit;
+    }
+}
@@ -1,7 +1,7 @@
 package raytracer.pigmentation;
 
-import java.util.List;
-import javafx.scene.paint.Color;
+import java.io.DataOutput;
+import java.io.IOException;
 import raytracer.raydefinition.*;
 
 /**
@@ -9,10 +9,20 @@ import raytracer.raydefinition.*;
  *
  * Defines a surface to be coloured on
  * Contains methods to execute the application of colouring
+ * The coefficients of the surface are copied into fields when it is created, and the light of the
+ * ambient sources, which is the same at every point, is added up once per scene by {@link #compile}.
+ * Phong exponents that are whole numbers, as they nearly always are, are raised by repeated squaring
+ * instead of Math.pow.
  */
 public class Colour {
     private static final float TINY = 0.001f;
-    private Surface surface;
+    private static final int MAX_POWER = 1024;     // largest exponent raised by repeated squaring
+    private final float ir, ig, ib;
+    private final float ambient, diffuse, specular;
+    private final float phong;
+    private final int power;                        // the phong exponent if it is a whole number, -1 if not
+    private final float reflection, transmission, index;
+    private float ambientRed, ambientGreen, ambientBlue;
 
     /**
      * Constructor
@@ -21,123 +31,167 @@ public class Colour {
      * @param surface   the surface of the shape that will be coloured
      */
     public Colour(Surface surface) {
-        this.surface = surface;
+        this.ir = surface.getIr();
+        this.ig = surface.getIg();
+        this.ib = surface.getIb();
+        this.ambient = surface.getAmbientReflection();
+        this.diffuse = surface.getDiffuseReflection();
+        this.specular = surface.getSpecularReflection();
+        this.phong = surface.getPhong();
+        this.power = phong >= 0 && phong <= MAX_POWER && phong == (int) phong ? (int) phong : -1;
+        this.reflection = surface.getReflection();
+        this.transmission = surface.getTransmission();
+        this.index = surface.getIndex();
+    }
+
+    /**
+     * Adds up the ambient light the surface reflects, for the lights of a scene
+     * Must be called again whenever the lights change, before anything is shaded with the new lights
+     *
+     * @param lights    the lights the surface is shaded with
+     */
+    public void compile(LightSet lights) {
+        float red = 0, green = 0, blue = 0;
+        for (int k = 0; k < lights.ambients; k++) {
+            red += ambient * ir * lights.ambientRed[k];
+            green += ambient * ig * lights.ambientGreen[k];
+            blue += ambient * ib * lights.ambientBlue[k];
+        }
+        ambientRed = red;
+        ambientGreen = green;
+        ambientBlue = blue;
+    }
+
+    /**
+     * Writes the coefficients of the surface, for a digest of the scene
+     *
+     * @param out   receives the colour, reflection coefficients, phong exponent and index of refraction
+     * @throws IOException if writing fails
+     */
+    public void digest(DataOutput out) throws IOException {
+        for (float value : new float[] {ir, ig, ib, ambient, diffuse, specular, phong, reflection, transmission, index}) {
+            out.writeFloat(value);
+        }
     }
 
     /**
      * This method is a substitution for the getRGB method available in the awt library
      *
-     * @param colour    a Color object
-     * @return          integer RGB value
+     * @param colour    a RGBColour object
+     * @return          integer ARGB value, as used by BufferedImage.TYPE_INT_ARGB
+     */
+    public static int getRGB(RGBColour colour){
+        return getRGB((float) colour.getRed(), (float) colour.getGreen(), (float) colour.getBlue(), (float) colour.getOpacity());
+    }
+
+    /**
+     * Packs colour components into an integer ARGB value
+     * Alpha goes in the top byte, followed by red, green and blue
+     *
+     * @param red       red component, 0 to 1
+     * @param green     green component, 0 to 1
+     * @param blue      blue component, 0 to 1
+     * @param alpha     opacity, 0 to 1
+     * @return          integer ARGB value, as used by BufferedImage.TYPE_INT_ARGB
      */
-    public static int getRGB(Color colour){
-        // retrieve floating value of each component
-        float red = (float) Math.abs(colour.getRed());
-        float green = (float) Math.abs(colour.getGreen());
-        float blue = (float) Math.abs(colour.getBlue());
-        float alpha = (float) Math.abs(colour.getOpacity());
-
-        // convert each component to their byte values
-        int r = Math.round(red * 255);
-        int g = Math.round(green * 255);
-        int b = Math.round(blue * 255);
-        int a = Math.round(alpha*255);
-
-        // convert each component to their hex values
-        var redHex = String.format("%02X", r);
-        var greenHex = String.format("%02X", g);
-        var blueHex = String.format("%02X", b);
-        var alphaHex = String.format("%02X", a);
-
-        // concatenate the hex values to form a hex string
-        var hex = redHex + greenHex + blueHex + alphaHex;
-
-        // convert the hex string to an integer value
-        int rgb = (int) Long.parseUnsignedLong(hex, 16);
-        return rgb;
+    public static int getRGB(float red, float green, float blue, float alpha){
+        return (toByte(alpha) << 24) | (toByte(red) << 16) | (toByte(green) << 8) | toByte(blue);
+    }
+
+    /**
+     * Packs a run of opaque pixels from a float framebuffer into integer ARGB values in one pass
+     *
+     * @param colours   red, green and blue values, three per pixel
+     * @param pixels    the ARGB values are written here, one per pixel
+     * @param first     index of the first pixel to convert, in both arrays
+     * @param count     number of pixels to convert
+     */
+    public static void getRGB(float[] colours, int[] pixels, int first, int count){
+        for (int p = first, c = 3 * first; p < first + count; p++, c += 3) {
+            pixels[p] = 0xFF000000 | (toByte(colours[c]) << 16) | (toByte(colours[c + 1]) << 8) | toByte(colours[c + 2]);
+        }
+    }
+
+    /**
+     * Converts a colour component to its byte value, clamped to 255
+     */
+    private static int toByte(float component){
+        int value = Math.round(Math.abs(component) * 255);
+        return value > 255 ? 255 : value;
     }
 
     /**
      * This method calculates the colour to be applied to the surface
+     * Reflected and refracted light is traced recursively, up to the limits of the context
+     * It works on the scratch space of the context and does not allocate
      *
      * @param intersectionPoint     the point of intersection
      * @param surfaceNormal         a unit-length surface normal
      * @param rayOrigin             a unit-length vector towards the ray's origin
-     * @param lights                list of light objects
-     * @param objects               list of objects
-     * @param background            the color of the surface background
-     * @return                      the colour to be applied to the surface
+     * @param context               the lights, objects and scratch space of the current thread
+     * @param colour                the colour to be applied to the surface is written here
      */
-    public Color Shading(Vector3D intersectionPoint, Vector3D surfaceNormal, Vector3D rayOrigin, java.util.List<Object> lights, List<Object> objects, Color background) {
-        float red = 0;
-        float green = 0;
-        float blue = 0;
-        for (Object lightSources : lights) {
-            Light light = (Light) lightSources;
-            if (light.getLightType() == LightType.AMBIENT) {
-                red += surface.getAmbientReflection() * surface.getIr() * light.getIntensity().getRed();
-                green += surface.getAmbientReflection() * surface.getIg() * light.getIntensity().getGreen();
-                blue += surface.getAmbientReflection() * surface.getIb() * light.getIntensity().getBlue();
-            } else {
-                Vector3D l;
-                if (light.getLightType() == LightType.POINT) {
-                    l = new Vector3D(light.getLvec().getPoint().subtract(intersectionPoint.getPoint()));
-                    l.normalize();
-                } else {
-                    l = new Vector3D(light.getLvec().getPoint().multiply(-1));
-                }
-
-                // Check if the surface point is in shadow
-                Vector3D poffset = new Vector3D(intersectionPoint.getPoint().add(l.getPoint().multiply(TINY)));
-                Ray shadowRay = new Ray(poffset.getPoint(), l);
-                if (shadowRay.trace(objects))
-                    break;
-
-                float lambert = surfaceNormal.dotProduct(l);
-                if (lambert > 0) {
-                    if (surface.getDiffuseReflection() > 0) {
-                        float diffuse = surface.getDiffuseReflection() * lambert;
-                        red += diffuse * surface.getIr() * light.getIntensity().getRed();
-                        green += diffuse * surface.getIg() * light.getIntensity().getGreen();
-                        blue += diffuse * surface.getIb() * light.getIntensity().getBlue();
-                    }
-                    if (surface.getSpecularReflection() > 0) {
-                        lambert *= 2;
-                        Vector3D v = new Vector3D(surfaceNormal.getPoint().multiply(lambert).subtract(l.getPoint()));
-                        float spec = rayOrigin.dotProduct(v);
-                        if (spec > 0) {
-                            spec = surface.getSpecularReflection() * ((float) Math.pow(spec, surface.getPhong()));
-                            red += spec * light.getIntensity().getRed();
-                            green += spec * light.getIntensity().getGreen();
-                            blue += spec * light.getIntensity().getBlue();
-                        }
-                    }
-                }
-            }
+    public void Shading(Vector3D intersectionPoint, Vector3D surfaceNormal, Vector3D rayOrigin, ShadingContext context, float[] colour) {
+        ShadingContext.Level level = context.level();
+        LightSet lights = context.getLights();
+        Point3D point = intersectionPoint.getPoint();
+        Vector3D l = level.getLight();
+        colour[0] = ambientRed;
+        colour[1] = ambientGreen;
+        colour[2] = ambientBlue;
+        for (int k = 0; k < lights.points; k++) {
+            l.getPoint().set(lights.pointX[k], lights.pointY[k], lights.pointZ[k]).subtractLocal(point);
+            double length = Math.sqrt(Vector3D.magnitude(l));
+            l.getPoint().multiplyLocal((float) (1 / length));
+            illuminate(lights.pointIndex[k], (float) length, lights.pointRed[k], lights.pointGreen[k], lights.pointBlue[k],
+                    point, surfaceNormal, rayOrigin, context, colour);
+        }
+        for (int k = 0; k < lights.directionals; k++) {
+            l.getPoint().set(lights.directionX[k], lights.directionY[k], lights.directionZ[k]);
+            illuminate(lights.directionalIndex[k], Float.MAX_VALUE, lights.directionalRed[k], lights.directionalGreen[k],
+                    lights.directionalBlue[k], point, surfaceNormal, rayOrigin, context, colour);
         }
+        float red = colour[0];
+        float green = colour[1];
+        float blue = colour[2];
 
-        // Compute illumination due to reflection
-        if (surface.getAdaptiveDepth() > 0) {
-            float t = rayOrigin.dotProduct(surfaceNormal);
-            if (t > 0) {
-                t *= 2;
-                Vector3D reflect = new Vector3D(surfaceNormal.getPoint().multiply(t).subtract(rayOrigin.getPoint()));
-                Vector3D poffset = new Vector3D(intersectionPoint.getPoint().add(reflect.getPoint().multiply(TINY)));
-                Ray reflectedRay = new Ray(poffset.getPoint(), reflect);
-                if (reflectedRay.trace(objects)) {
-                    Color rcolor = reflectedRay.Shade(lights, objects, background);
-                    red += surface.getAdaptiveDepth() * rcolor.getRed();
-                    green += surface.getAdaptiveDepth() * rcolor.getGreen();
-                    blue += surface.getAdaptiveDepth() * rcolor.getBlue();
-                } else {
-                    red += surface.getAdaptiveDepth() * background.getRed();
-                    green += surface.getAdaptiveDepth() * background.getGreen();
-                    blue += surface.getAdaptiveDepth() * background.getBlue();
-                }
+        // Compute illumination due to reflection and refraction, each secondary ray carries the
+        // share of the pixel it can still change, so branches too faint to matter are not traced
+        // Both are added in double, as the reflection always was, so scenes keep rendering the same
+        float contribution = level.getContribution();
+        float cosine = rayOrigin.dotProduct(surfaceNormal);
+        if (reflection > 0 && cosine > 0) {
+            Vector3D reflect = level.getReflection();
+            reflect.getPoint().set(surfaceNormal.getPoint()).multiplyLocal(2 * cosine).subtractLocal(rayOrigin.getPoint());
+            float[] rcolor = level.getReflectedColour();
+            if (traceSecondary(level.getReflectedRay(), reflect, point, surfaceNormal, contribution * reflection, true, context, rcolor)) {
+                red += reflection * (double) rcolor[0];
+                green += reflection * (double) rcolor[1];
+                blue += reflection * (double) rcolor[2];
+            }
+        }
+        if (transmission > 0) {
+            // Snell's law, a ray leaving the object sees the normal flipped and the indices swapped
+            float sign = cosine > 0 ? 1 : -1;
+            float eta = cosine > 0 ? 1 / index : index;
+            float cosi = sign * cosine;
+            float k = 1 - eta * eta * (1 - cosi * cosi);
+            Vector3D refract = level.getRefraction();
+            if (k < 0) {
+                // total internal reflection, the light that would pass through is mirrored back inside
+                refract.getPoint().set(surfaceNormal.getPoint()).multiplyLocal(2 * cosine).subtractLocal(rayOrigin.getPoint());
+            } else {
+                refract.getPoint().set(rayOrigin.getPoint()).multiplyLocal(-eta)
+                        .addScaledLocal(surfaceNormal.getPoint(), sign * (eta * cosi - (float) Math.sqrt(k)));
+            }
+            float[] tcolor = level.getRefractedColour();
+            if (traceSecondary(level.getRefractedRay(), refract, point, surfaceNormal, contribution * transmission, false, context, tcolor)) {
+                red += transmission * (double) tcolor[0];
+                green += transmission * (double) tcolor[1];
+                blue += transmission * (double) tcolor[2];
             }
         }
 
-        // Code for refraction
         red = Math.min(red, 1f);
         green = Math.min(green, 1f);
         blue = Math.min(blue, 1f);
@@ -146,6 +200,138 @@ public class Colour {
         green = (green < 0) ? 0 : green;
         blue = (blue < 0) ? 0 : blue;
 
-        return new Color(red, green, blue, 1);
+        colour[0] = red;
+        colour[1] = green;
+        colour[2] = blue;
+    }
+
+    /**
+     * Adds the diffuse and specular light of one point or directional light, unless the surface faces
+     * away from it or something blocks the shadow ray towards it
+     *
+     * @param light         the index of the light in the list of lights, for the occluder cache
+     * @param distance      the distance to the light, Float.MAX_VALUE for a directional light
+     * @param red           red intensity of the light
+     * @param green         green intensity of the light
+     * @param blue          blue intensity of the light
+     * @param point         the point of intersection
+     * @param normal        a unit-length surface normal
+     * @param view          a unit-length vector towards the ray's origin
+     * @param context       the lights, objects and scratch space of the current thread, its level holds
+     *                      the unit-length direction towards the light
+     * @param colour        the light is added to the red, green and blue values here
+     */
+    private void illuminate(int light, float distance, double red, double green, double blue, Point3D point,
+                            Vector3D normal, Vector3D view, ShadingContext context, float[] colour) {
+        ShadingContext.Level level = context.level();
+        Vector3D l = level.getLight();
+        Point3D lp = l.getPoint();
+
+        // A surface facing away from the light gets nothing from it, whether in shadow or not,
+        // so the shadow ray is only traced for lit sides
+        float lambert = normal.dotProduct(l);
+        if (lambert <= 0) {
+            return;
+        }
+
+        // Check if the surface point is in shadow, from this light only, the others may still reach it
+        setOrigin(context.getShadowRay(), point, normal, lambert, lp);
+        context.getCounters().countShadowRay();
+        if (context.occluded(light, distance)) {
+            return;
+        }
+
+        if (diffuse > 0) {
+            float d = diffuse * lambert;
+            colour[0] += d * ir * red;
+            colour[1] += d * ig * green;
+            colour[2] += d * ib * blue;
+        }
+        if (specular > 0) {
+            Vector3D v = level.getReflection();
+            v.getPoint().set(normal.getPoint()).multiplyLocal(2 * lambert).subtractLocal(lp);
+            float spec = view.dotProduct(v);
+            if (spec > 0) {
+                spec = specular * (float) (power >= 0 ? power(spec, power) : Math.pow(spec, phong));
+                colour[0] += spec * red;
+                colour[1] += spec * green;
+                colour[2] += spec * blue;
+            }
+        }
+    }
+
+    /**
+     * Raises a number to a whole power by repeated squaring, a few multiplications instead of Math.pow
+     *
+     * @param x     the base
+     * @param n     the exponent, not negative
+     * @return      x to the power n
+     */
+    static double power(double x, int n) {
+        double result = 1;
+        while (n > 0) {
+            if ((n & 1) != 0) {
+                result *= x;
+            }
+            x *= x;
+            n >>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Points a ray leaving a surface, starting it a little off the surface on the side it leaves towards
+     * Rays that start inside a sphere hit its far side, so an origin that rounding put on the wrong
+     * side of the surface would make the surface shadow or reflect itself
+     *
+     * @param ray       the ray to point
+     * @param point     the surface point
+     * @param normal    the unit-length surface normal at the point
+     * @param side      the dot product of the normal and the direction, its sign gives the side
+     * @param direction the direction of the ray, not necessarily unit-length
+     */
+    private static void setOrigin(Ray ray, Point3D point, Vector3D normal, float side, Point3D direction) {
+        Point3D n = normal.getPoint();
+        float offset = side > 0 ? TINY : -TINY;
+        ray.set(point.getX() + n.getX() * offset, point.getY() + n.getY() * offset, point.getZ() + n.getZ() * offset,
+                direction.getX(), direction.getY(), direction.getZ());
+    }
+
+    /**
+     * Traces a reflected or refracted ray and shades what it hits, unless it is culled because the
+     * maximum depth is reached or its share of the pixel is below the minimum contribution
+     *
+     * @param ray           the reusable ray of the current level
+     * @param direction     the direction of the ray, not necessarily unit-length
+     * @param point         the surface point the ray leaves from
+     * @param normal        the unit-length surface normal at the point
+     * @param contribution  the share of the pixel the ray can change
+     * @param reflected     true for a reflected ray, false for a refracted one, for counting
+     * @param context       the lights, objects and scratch space of the current thread
+     * @param colour        the colour seen along the ray is written here
+     * @return              true if the ray was traced, false if it was culled and the colour was not written
+     */
+    private static boolean traceSecondary(Ray ray, Vector3D direction, Point3D point, Vector3D normal, float contribution,
+                                          boolean reflected, ShadingContext context, float[] colour) {
+        if (context.getDepth() >= context.getMaxDepth() || contribution < context.getMinContribution()) {
+            context.getCounters().countCulledRay();
+            return false;
+        }
+        setOrigin(ray, point, normal, normal.dotProduct(direction), direction.getPoint());
+        ray.setContribution(contribution);
+        if (reflected) {
+            context.getCounters().countReflectionRay();
+        } else {
+            context.getCounters().countRefractionRay();
+        }
+        if (ray.trace(context.getObjects())) {
+            ray.Shade(context, colour);
+        } else {
+            context.record(ray, Float.MAX_VALUE, -1);
+            colour[0] = (float) context.getBackground().getRed();
+            colour[1] = (float) context.getBackground().getGreen();
+            colour[2] = (float) context.getBackground().getBlue();
+        }
+        return true;
     }
 }
@@ -1,6 +1,5 @@
 package raytracer.pigmentation;
 
-import javafx.scene.paint.Color;
 import raytracer.raydefinition.*;
 
 /**
@@ -13,7 +12,7 @@ import raytracer.raydefinition.*;
 public class Light {
     private LightType lightType;
     private Vector3D lvec;
-    private Color intensity;
+    private RGBColour intensity;
 
     /**
      *
@@ -22,7 +21,7 @@ public class Light {
      * @param intensity Intensity of colour
      *
      */
-    public Light(LightType lightType, Vector3D vector, Color intensity) {
+    public Light(LightType lightType, Vector3D vector, RGBColour intensity) {
         this.lightType = lightType;
         this.intensity = intensity;
         if (lightType != LightType.AMBIENT) {
@@ -57,8 +56,17 @@ public class Light {
      *
      * @return  the intensity object
      */
-    public Color getIntensity() {
+    public RGBColour getIntensity() {
         return this.intensity;
     }
 
+    /**
+     * Sets the intensity of light
+     *
+     * @param intensity the new intensity
+     */
+    public void setIntensity(RGBColour intensity) {
+        this.intensity = intensity;
+    }
+
 }
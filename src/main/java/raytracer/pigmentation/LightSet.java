@@ -0,0 +1,111 @@
+package raytracer.pigmentation;
+
+import java.util.List;
+import raytracer.raydefinition.*;
+
+/**
+ * The LightSet class
+ *
+ * The lights of a scene compiled for shading: split by type into arrays of plain numbers, so shading
+ * a hit loops over the point lights and then the directional lights without casting, checking types
+ * or following references. Ambient lights are not looked at per hit at all: their sum is folded into
+ * a constant of every surface by {@link Colour#compile}.
+ * Directional lights keep the unit vector towards the light, which is the same at every point.
+ * Every light also keeps its index in the list it was compiled from, the index shadow rays are cached by.
+ * A light set is a snapshot: lights added afterwards need a new one.
+ */
+public final class LightSet {
+    final int size;
+    final int ambients, points, directionals;
+    final double[] ambientRed, ambientGreen, ambientBlue;
+    final float[] pointX, pointY, pointZ;
+    final double[] pointRed, pointGreen, pointBlue;
+    final int[] pointIndex;
+    final float[] directionX, directionY, directionZ;
+    final double[] directionalRed, directionalGreen, directionalBlue;
+    final int[] directionalIndex;
+
+    /**
+     * Constructor
+     *
+     * @param lights    the lights of the scene
+     */
+    public LightSet(List<Light> lights) {
+        size = lights.size();
+        int a = 0, p = 0, d = 0;
+        for (Light light : lights) {
+            LightType type = light.getLightType();
+            if (type == LightType.AMBIENT) {
+                a++;
+            } else if (type == LightType.POINT) {
+                p++;
+            } else {
+                d++;
+            }
+        }
+        ambients = a;
+        points = p;
+        directionals = d;
+        ambientRed = new double[a];
+        ambientGreen = new double[a];
+        ambientBlue = new double[a];
+        pointX = new float[p];
+        pointY = new float[p];
+        pointZ = new float[p];
+        pointRed = new double[p];
+        pointGreen = new double[p];
+        pointBlue = new double[p];
+        pointIndex = new int[p];
+        directionX = new float[d];
+        directionY = new float[d];
+        directionZ = new float[d];
+        directionalRed = new double[d];
+        directionalGreen = new double[d];
+        directionalBlue = new double[d];
+        directionalIndex = new int[d];
+
+        a = p = d = 0;
+        Vector3D towards = new Vector3D(0, 0, 0);
+        for (int k = 0; k < size; k++) {
+            Light light = lights.get(k);
+            RGBColour intensity = light.getIntensity();
+            if (light.getLightType() == LightType.AMBIENT) {
+                ambientRed[a] = intensity.getRed();
+                ambientGreen[a] = intensity.getGreen();
+                ambientBlue[a] = intensity.getBlue();
+                a++;
+            } else if (light.getLightType() == LightType.POINT) {
+                Point3D position = light.getLvec().getPoint();
+                pointX[p] = position.getX();
+                pointY[p] = position.getY();
+                pointZ[p] = position.getZ();
+                pointRed[p] = intensity.getRed();
+                pointGreen[p] = intensity.getGreen();
+                pointBlue[p] = intensity.getBlue();
+                pointIndex[p] = k;
+                p++;
+            } else {
+                // the light shines along its vector, so the light is found the opposite way
+                towards.getPoint().set(light.getLvec().getPoint()).multiplyLocal(-1);
+                towards.normalize();
+                directionX[d] = towards.getPoint().getX();
+                directionY[d] = towards.getPoint().getY();
+                directionZ[d] = towards.getPoint().getZ();
+                directionalRed[d] = intensity.getRed();
+                directionalGreen[d] = intensity.getGreen();
+                directionalBlue[d] = intensity.getBlue();
+                directionalIndex[d] = k;
+                d++;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of lights, of every type
+     *
+     * @return  the number of lights compiled
+     */
+    public int size() {
+        return size;
+    }
+}
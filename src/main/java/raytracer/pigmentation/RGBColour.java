@@ -0,0 +1,71 @@
+package raytracer.pigmentation;
+
+/**
+ * The RGBColour class
+ *
+ * An immutable red, green and blue colour with opacity, each between 0 and 1.
+ * Used for light intensities and the background, in place of a GUI toolkit colour so that
+ * rendering does not need JavaFX on the class path or pay for loading it.
+ */
+public final class RGBColour {
+    private final double red, green, blue, opacity;
+
+    /**
+     * Constructor
+     *
+     * @param red       amount of red, between 0 and 1
+     * @param green     amount of green, between 0 and 1
+     * @param blue      amount of blue, between 0 and 1
+     * @param opacity   opacity, between 0 and 1
+     * @throws IllegalArgumentException if a value is outside 0 to 1
+     */
+    public RGBColour(double red, double green, double blue, double opacity) {
+        this.red = check(red, "red");
+        this.green = check(green, "green");
+        this.blue = check(blue, "blue");
+        this.opacity = check(opacity, "opacity");
+    }
+
+    private static double check(double value, String name) {
+        if (!(value >= 0 && value <= 1)) {
+            throw new IllegalArgumentException("Colour's " + name + " value (" + value + ") must be in the range 0.0-1.0");
+        }
+        return value;
+    }
+
+    /**
+     * Gets the red component
+     *
+     * @return  the amount of red
+     */
+    public double getRed() {
+        return red;
+    }
+
+    /**
+     * Gets the green component
+     *
+     * @return  the amount of green
+     */
+    public double getGreen() {
+        return green;
+    }
+
+    /**
+     * Gets the blue component
+     *
+     * @return  the amount of blue
+     */
+    public double getBlue() {
+        return blue;
+    }
+
+    /**
+     * Gets the opacity
+     *
+     * @return  the opacity, 1 being opaque
+     */
+    public double getOpacity() {
+        return opacity;
+    }
+}
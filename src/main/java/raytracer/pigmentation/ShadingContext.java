@@ -0,0 +1,412 @@
+package raytracer.pigmentation;
+
+import raytracer.GeometricObject;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.acceleration.RayPacket;
+import raytracer.raydefinition.*;
+
+/**
+ * The ShadingContext class
+ *
+ * Holds what shading needs besides the hit itself: the lights, the objects and the background,
+ * plus reusable rays, vectors and colours so that tracing a pixel does not allocate.
+ * Scratch space is kept per recursion level, since shading a reflection must not overwrite
+ * the hit point and normal of the surface that reflected it.
+ * A context must only be used by one thread at a time.
+ */
+public class ShadingContext {
+    /** Number of reflections and refractions followed from a camera ray, by default */
+    public static final int DEFAULT_MAX_DEPTH = 8;
+    /** Share of a pixel below which reflected and refracted rays are not traced, by default: one 8 bit step */
+    public static final float DEFAULT_MIN_CONTRIBUTION = 1f / 255;
+
+    private final LightSet lights;
+    private final BoundingVolumeHierarchy objects;
+    private final RGBColour background;
+    private final Ray primaryRay = new Ray();
+    private final Ray shadowRay = new Ray();
+    private final RayPacket packet = new RayPacket();
+    private final float[] colour = new float[3];
+    private final RayCounters counters;
+    private final GeometricObject[] occluders;  // per light, the object that blocked the last shadow ray
+    private final int[] occluderPrimitives;
+    private final int maxDepth;
+    private final float minContribution;
+    private Level[] levels = new Level[0];
+    private int depth = -1;
+    private RayFootprint footprint;             // the tile being traced, when rays are recorded
+    private long[] shadows;                     // per pixel, a bit for each light the camera ray's hit is shadowed from
+    private int shadowPixel;
+    private boolean replayShadows;
+
+    /**
+     * Constructor
+     *
+     * @param lights        the lights of the scene
+     * @param objects       bounding volume hierarchy over the objects
+     * @param background    the colour of rays that hit nothing
+     */
+    public ShadingContext(LightSet lights, BoundingVolumeHierarchy objects, RGBColour background) {
+        this(lights, objects, background, DEFAULT_MAX_DEPTH, DEFAULT_MIN_CONTRIBUTION);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param lights            the lights of the scene
+     * @param objects           bounding volume hierarchy over the objects
+     * @param background        the colour of rays that hit nothing
+     * @param maxDepth          the number of reflections and refractions followed from a camera ray
+     * @param minContribution   the share of a pixel below which reflected and refracted rays are not traced
+     */
+    public ShadingContext(LightSet lights, BoundingVolumeHierarchy objects, RGBColour background, int maxDepth,
+                          float minContribution) {
+        this.lights = lights;
+        this.objects = objects;
+        this.background = background;
+        this.maxDepth = maxDepth;
+        this.minContribution = minContribution;
+        this.counters = new RayCounters();
+        this.occluders = new GeometricObject[lights.size()];
+        this.occluderPrimitives = new int[lights.size()];
+        primaryRay.setCounters(counters);
+        shadowRay.setCounters(counters);
+    }
+
+    /**
+     * Moves one recursion level deeper, creating its scratch space the first time it is reached
+     *
+     * @param contribution  the share of the pixel the ray shaded at the new level can change
+     */
+    public void enter(float contribution) {
+        depth++;
+        if (depth == levels.length) {
+            Level[] grown = new Level[depth + 1];
+            System.arraycopy(levels, 0, grown, 0, depth);
+            grown[depth] = new Level(counters);
+            levels = grown;
+        }
+        levels[depth].contribution = contribution;
+    }
+
+    /**
+     * Moves back up one recursion level
+     */
+    public void exit() {
+        depth--;
+    }
+
+    /**
+     * Gets the current recursion level
+     *
+     * @return  0 while shading a camera ray, one more for every reflection or refraction
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * Gets the number of reflections and refractions followed from a camera ray
+     *
+     * @return  the maximum depth
+     */
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Gets the share of a pixel below which reflected and refracted rays are not traced
+     *
+     * @return  the minimum contribution
+     */
+    public float getMinContribution() {
+        return minContribution;
+    }
+
+    /**
+     * Gets the scratch space of the current recursion level
+     *
+     * @return  the current level
+     */
+    public Level level() {
+        return levels[depth];
+    }
+
+    /**
+     * Gets the lights of the scene
+     *
+     * @return  the lights, compiled for shading
+     */
+    public LightSet getLights() {
+        return lights;
+    }
+
+    /**
+     * Gets the objects of the scene
+     *
+     * @return  the bounding volume hierarchy over the objects
+     */
+    public BoundingVolumeHierarchy getObjects() {
+        return objects;
+    }
+
+    /**
+     * Gets the background colour
+     *
+     * @return  the colour of rays that hit nothing
+     */
+    public RGBColour getBackground() {
+        return background;
+    }
+
+    /**
+     * Gets the reusable ray for camera rays
+     *
+     * @return  the primary ray
+     */
+    public Ray getPrimaryRay() {
+        return primaryRay;
+    }
+
+    /**
+     * Gets the reusable packet for tracing the camera rays of a block of pixels together
+     *
+     * @return  the packet
+     */
+    public RayPacket getPacket() {
+        return packet;
+    }
+
+    /**
+     * Gets the reusable ray for shadow tests
+     * Shadow rays are never shaded, so one is shared by all recursion levels
+     *
+     * @return  the shadow ray
+     */
+    public Ray getShadowRay() {
+        return shadowRay;
+    }
+
+    /**
+     * Gets the counters of the rays of this context
+     *
+     * @return  the counters, shared by every ray of the context
+     */
+    public RayCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Starts or stops recording every ray traced with this context, for incremental rendering
+     *
+     * @param footprint the footprint of the tile about to be traced, or null to stop recording
+     */
+    public void setFootprint(RayFootprint footprint) {
+        this.footprint = footprint;
+    }
+
+    /**
+     * Records a ray in the footprint of the tile being traced, if rays are being recorded
+     *
+     * @param ray       the ray, after tracing
+     * @param length    how far the ray went, Float.MAX_VALUE if it hit nothing
+     * @param object    the index of the object the ray is shaded with, -1 for none
+     */
+    public void record(Ray ray, float length, int object) {
+        RayFootprint footprint = this.footprint;
+        if (footprint != null) {
+            footprint.addSegment(ray.getOrigin(), ray.getDirection().getPoint(), length);
+            if (object >= 0) {
+                footprint.addObject(object);
+            }
+        }
+    }
+
+    /**
+     * Keeps or replays which lights the hit of a camera ray is in the shadow of, for re-shading a pixel
+     * whose hit and lights did not move; only the first Long.SIZE lights are kept, the others are traced
+     *
+     * @param shadows   a bit for each light, per pixel, or null to trace every shadow ray
+     * @param pixel     the pixel about to be shaded
+     * @param replay    true to take the bits of the pixel instead of tracing, false to trace and keep them
+     */
+    public void setShadows(long[] shadows, int pixel, boolean replay) {
+        this.shadows = shadows;
+        this.shadowPixel = pixel;
+        this.replayShadows = replay;
+    }
+
+    /**
+     * Checks if anything blocks the shadow ray, as set up by the caller, before it reaches a light
+     * The object that blocked the last shadow ray towards the same light is tested first, since
+     * neighbouring points are usually shadowed by the same object; only if it does not block this
+     * ray are the objects searched, stopping at the first hit
+     *
+     * @param light     the index of the light in the list of lights
+     * @param distance  the distance to the light along the ray, Float.MAX_VALUE for a directional light
+     * @return          true if the point is in shadow
+     */
+    public boolean occluded(int light, float distance) {
+        // the whole way to the light counts: an object moved onto it later would cast a shadow
+        this.record(shadowRay, distance, -1);
+        if (shadows == null || depth != 0 || light >= Long.SIZE) {
+            return this.blocked(light, distance);
+        }
+        long bit = 1L << light;
+        if (replayShadows) {
+            return (shadows[shadowPixel] & bit) != 0;
+        }
+        boolean blocked = this.blocked(light, distance);
+        shadows[shadowPixel] = blocked ? shadows[shadowPixel] | bit : shadows[shadowPixel] & ~bit;
+        return blocked;
+    }
+
+    private boolean blocked(int light, float distance) {
+        GeometricObject occluder = light < occluders.length ? occluders[light] : null;
+        if (occluder != null) {
+            shadowRay.setRoot(distance);
+            if (occluder.occludes(shadowRay, occluderPrimitives[light])) {
+                counters.countOccluderCacheHit();
+                return true;
+            }
+        }
+        if (!shadowRay.occluded(objects, distance)) {
+            return false;
+        }
+        if (light < occluders.length) {
+            occluders[light] = shadowRay.getObject();
+            occluderPrimitives[light] = shadowRay.getPrimitive();
+        }
+        return true;
+    }
+
+    /**
+     * Gets the reusable colour for the pixel being traced
+     *
+     * @return  an array for the red, green and blue values of a pixel
+     */
+    public float[] getColour() {
+        return colour;
+    }
+
+    /**
+     * The scratch space of one recursion level
+     */
+    public static class Level {
+        private final Vector3D point = new Vector3D(0, 0, 0);
+        private final Vector3D normal = new Vector3D(0, 0, 0);
+        private final Vector3D view = new Vector3D(0, 0, 0);
+        private final Vector3D light = new Vector3D(0, 0, 0);
+        private final Vector3D reflection = new Vector3D(0, 0, 0);
+        private final Vector3D refraction = new Vector3D(0, 0, 0);
+        private final Ray reflectedRay = new Ray();
+        private final Ray refractedRay = new Ray();
+        private final float[] reflectedColour = new float[3];
+        private final float[] refractedColour = new float[3];
+        private float contribution;
+
+        Level(RayCounters counters) {
+            reflectedRay.setCounters(counters);
+            refractedRay.setCounters(counters);
+        }
+
+        /**
+         * Gets the share of the pixel the ray shaded at this level can change
+         *
+         * @return  1 for a camera ray, the product of the coefficients along the way for the others
+         */
+        public float getContribution() {
+            return contribution;
+        }
+
+        /**
+         * Gets the vector holding the intersection point
+         *
+         * @return  the intersection point
+         */
+        public Vector3D getPoint() {
+            return point;
+        }
+
+        /**
+         * Gets the vector holding the unit-length surface normal
+         *
+         * @return  the surface normal
+         */
+        public Vector3D getNormal() {
+            return normal;
+        }
+
+        /**
+         * Gets the vector holding the unit-length direction towards the ray's origin
+         *
+         * @return  the view direction
+         */
+        public Vector3D getView() {
+            return view;
+        }
+
+        /**
+         * Gets the vector holding the direction towards the light being evaluated
+         *
+         * @return  the light direction
+         */
+        public Vector3D getLight() {
+            return light;
+        }
+
+        /**
+         * Gets the vector holding the mirror direction
+         *
+         * @return  the reflection direction
+         */
+        public Vector3D getReflection() {
+            return reflection;
+        }
+
+        /**
+         * Gets the vector holding the direction of the refracted ray
+         *
+         * @return  the refraction direction
+         */
+        public Vector3D getRefraction() {
+            return refraction;
+        }
+
+        /**
+         * Gets the reusable ray for reflections leaving this level
+         *
+         * @return  the reflected ray
+         */
+        public Ray getReflectedRay() {
+            return reflectedRay;
+        }
+
+        /**
+         * Gets the reusable ray for refractions leaving this level
+         *
+         * @return  the refracted ray
+         */
+        public Ray getRefractedRay() {
+            return refractedRay;
+        }
+
+        /**
+         * Gets the colour returned by the refracted ray
+         *
+         * @return  the red, green and blue values seen through the surface
+         */
+        public float[] getRefractedColour() {
+            return refractedColour;
+        }
+
+        /**
+         * Gets the colour returned by the reflected ray
+         *
+         * @return  the red, green and blue values of the reflection
+         */
+        public float[] getReflectedColour() {
+            return reflectedColour;
+        }
+    }
+}
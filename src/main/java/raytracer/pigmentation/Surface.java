@@ -2,16 +2,18 @@ package raytracer.pigmentation;
 
 /**
  * The Surface class
+ *
+ * The material of an object: its intrinsic colour, how it reflects the lights of the scene
+ * (Phong model), and how much of what it shows is mirrored or transmitted from elsewhere.
  */
 public class Surface {
 
     private float ir, ig, ib;        // surface's intrinsic color
     private float ambientReflection, diffuseReflection, specularReflection;
     private float phong;    // constants for phong model
-    private float transmission;
-    private float adaptiveDepth;
-    private float index;
-    private static final float I255 = 0.00392156f;  // 1/255
+    private float reflection;       // share of the colour seen in the mirror direction
+    private float transmission;     // share of the colour seen through the surface
+    private float index;            // index of refraction of the material
 
     /**
      * Constructor for a Surface object
@@ -23,11 +25,11 @@ public class Surface {
      * @param diffuseReflection - the reflection of light from a surface such that an incident ray is reflected at many angles
      * @param specularReflection -  mirror-like reflection of light from the surface
      * @param phong - an interpolation technique for surface shading
-     * @param maxContribution - maxContribution for adaptive Depth
-     * @param transmission - value for transmission
-     * @param index - index of surface
+     * @param reflection - share of the colour seen in the mirror direction, 0 for none
+     * @param transmission - share of the colour seen through the surface, 0 for an opaque surface
+     * @param index - index of refraction, 1 lets transmitted rays pass straight through
      */
-    public Surface(float rval, float gval, float bval, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float maxContribution, float transmission, float index) {
+    public Surface(float rval, float gval, float bval, float ambientReflection, float diffuseReflection, float specularReflection, float phong, float reflection, float transmission, float index) {
         this.ir = rval;
         this.ig = gval;
         this.ib = bval;
@@ -35,8 +37,8 @@ public class Surface {
         this.diffuseReflection = diffuseReflection;
         this.specularReflection = specularReflection;
         this.phong = phong;
-        this.transmission = maxContribution*I255;
-        this.adaptiveDepth = transmission;
+        this.reflection = reflection;
+        this.transmission = transmission;
         this.index = index;
     }
 
@@ -95,12 +97,30 @@ public class Surface {
     }
 
     /**
-     * Gets the adaptive Depth
+     * Gets the reflection coefficient
      *
-     * @return      the adaptive depth
+     * @return      the share of the colour seen in the mirror direction
      */
-    public float getAdaptiveDepth() {
-        return this.adaptiveDepth;
+    public float getReflection() {
+        return this.reflection;
+    }
+
+    /**
+     * Gets the transmission coefficient
+     *
+     * @return      the share of the colour seen through the surface
+     */
+    public float getTransmission() {
+        return this.transmission;
+    }
+
+    /**
+     * Gets the index of refraction
+     *
+     * @return      the index of refraction of the material
+     */
+    public float getIndex() {
+        return this.index;
     }
 
     /**
@@ -0,0 +1,47 @@
+package raytracer.raydefinition;
+
+/**
+ * The BoundingBox class
+ *
+ * An axis-aligned box defined by its minimum and maximum corner points
+ */
+public class BoundingBox {
+    private Point3D min, max;
+
+    /**
+     * Constructor of a BoundingBox object
+     *
+     * @param min   the corner with the smallest x, y and z coordinates
+     * @param max   the corner with the largest x, y and z coordinates
+     */
+    public BoundingBox(Point3D min, Point3D max) {
+        this.min = min;
+        this.max = max;
+    }
+
+    /**
+     * Gets the minimum corner
+     *
+     * @return  the minimum corner point
+     */
+    public Point3D getMin() {
+        return min;
+    }
+
+    /**
+     * Gets the maximum corner
+     *
+     * @return  the maximum corner point
+     */
+    public Point3D getMax() {
+        return max;
+    }
+
+    /**
+     *
+     * @return  a string that contains the two corners of the box
+     */
+    public String toString() {
+        return "Bounding box: " + min + " to " + max;
+    }
+}
@@ -52,6 +52,73 @@ public class Point3D {
         return new Point3D(x - point.x, y - point.y, z - point.z);
     }
 
+    /**
+     * Sets the coordinates of this point
+     *
+     * @param x     coordinate on the x axis
+     * @param y     coordinate on the y axis
+     * @param z     coordinate on the z axis
+     * @return      this point
+     */
+    public Point3D set(float x, float y, float z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * Copies the coordinates of another point into this point
+     *
+     * @param point     another point from the Point3D class
+     * @return          this point
+     */
+    public Point3D set(Point3D point) {
+        return set(point.x, point.y, point.z);
+    }
+
+    /**
+     * Adds the coordinates of another point to this point, without creating a new object
+     *
+     * @param point     another point from the Point3D class
+     * @return          this point
+     */
+    public Point3D addLocal(Point3D point) {
+        return set(x + point.x, y + point.y, z + point.z);
+    }
+
+    /**
+     * Subtracts the coordinates of another point from this point, without creating a new object
+     *
+     * @param point     another point from the Point3D class
+     * @return          this point
+     */
+    public Point3D subtractLocal(Point3D point) {
+        return set(x - point.x, y - point.y, z - point.z);
+    }
+
+    /**
+     * Multiplies the coordinates of this point by a floating number, without creating a new object
+     *
+     * @param number    a floating value
+     * @return          this point
+     */
+    public Point3D multiplyLocal(float number) {
+        return set(x * number, y * number, z * number);
+    }
+
+    /**
+     * Adds the coordinates of another point multiplied by a floating number to this point,
+     * without creating a new object
+     *
+     * @param point     another point from the Point3D class
+     * @param number    the value the other point is multiplied by
+     * @return          this point
+     */
+    public Point3D addScaledLocal(Point3D point, float number) {
+        return set(x + point.x * number, y + point.y * number, z + point.z * number);
+    }
+
     /**
      * Gets the coordinate x
      *
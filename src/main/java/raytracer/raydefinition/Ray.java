@@ -1,8 +1,8 @@
 package raytracer.raydefinition;
 
-import java.util.List;
-import javafx.scene.paint.Color;
 import raytracer.GeometricObject;
+import raytracer.acceleration.BoundingVolumeHierarchy;
+import raytracer.pigmentation.ShadingContext;
 
 /**
  * The Ray class
@@ -11,10 +11,17 @@ import raytracer.GeometricObject;
  */
 public class Ray {
     static final float MAX_T = Float.MAX_VALUE;
+    public static final int STACK_SIZE = 64;
     private Point3D origin;
     private Vector3D direction;
     private float root; // the value of where the ray intersects the shape
     private GeometricObject object;
+    private int primitive;              // which part of the object was hit, for objects made of many shapes
+    private int objectIndex;            // index of the object hit in the hierarchy of the scene
+    private RayCounters counters = new RayCounters();
+    private float contribution = 1;     // share of the pixel this ray can change
+    private int[][] stacks = new int[0][];  // scratch space for traversing acceleration structures, one per nesting level
+    private int stackLevel;
 
     /**
      * Constructor of a Ray object
@@ -28,32 +35,103 @@ public class Ray {
     }
 
     /**
-     * This method takes a list of objects and check if the ray intersects with the objects
+     * Constructor of a reusable Ray object
+     * The origin and direction must be given with {@link #set} before the ray is traced
+     */
+    public Ray() {
+        this.origin = new Point3D(0, 0, 0);
+        this.direction = new Vector3D(0, 0, 1);
+    }
+
+    /**
+     * Points the ray somewhere else, without creating new objects
+     * The coordinates are copied, the direction is normalized
+     *
+     * @param ox    the x coordinate of the origin
+     * @param oy    the y coordinate of the origin
+     * @param oz    the z coordinate of the origin
+     * @param dx    the x component of the direction
+     * @param dy    the y component of the direction
+     * @param dz    the z component of the direction
+     * @return      this ray
+     */
+    public Ray set(float ox, float oy, float oz, float dx, float dy, float dz) {
+        origin.set(ox, oy, oz);
+        direction.getPoint().set(dx, dy, dz);
+        direction.normalize();
+        return this;
+    }
+
+    /**
+     * Points the ray somewhere else, without creating new objects
+     * The coordinates are copied, the direction is normalized
+     *
+     * @param origin    the origin point
+     * @param direction the direction vector
+     * @return          this ray
+     */
+    public Ray set(Point3D origin, Vector3D direction) {
+        Point3D d = direction.getPoint();
+        return set(origin.getX(), origin.getY(), origin.getZ(), d.getX(), d.getY(), d.getZ());
+    }
+
+    /**
+     * This method finds the closest of the objects that the ray intersects
      *
-     * @param objects   a list of objects
+     * @param objects   the bounding volume hierarchy over the objects of the scene
      * @return          a boolean value that determines if the ray intersects the objects or not
      */
-    public boolean trace(List<Object> objects) {
+    public boolean trace(BoundingVolumeHierarchy objects) {
         root = MAX_T;
         object = null;
-        for (Object objList : objects) {
-            GeometricObject object = (GeometricObject) objList;
-            object.intersect(this);
-        }
+        primitive = -1;
+        objectIndex = -1;
+        objects.intersect(this);
         return (object != null);
     }
 
+    /**
+     * This method checks if the ray intersects any of the objects, stopping at the first one found
+     * The object hit is not necessarily the closest one, so the ray must not be shaded afterwards
+     *
+     * @param objects   the bounding volume hierarchy over the objects of the scene
+     * @return          a boolean value that determines if the ray intersects the objects or not
+     */
+    public boolean occluded(BoundingVolumeHierarchy objects) {
+        return occluded(objects, MAX_T);
+    }
+
+    /**
+     * This method checks if the ray intersects any of the objects before a given distance, stopping at the first one found
+     * Used for shadow rays towards a light at a known distance, objects beyond the light do not block it
+     *
+     * @param objects   the bounding volume hierarchy over the objects of the scene
+     * @param distance  the distance along the ray beyond which hits do not count
+     * @return          a boolean value that determines if the ray intersects the objects or not
+     */
+    public boolean occluded(BoundingVolumeHierarchy objects, float distance) {
+        root = distance;
+        object = null;
+        primitive = -1;
+        objectIndex = -1;
+        return objects.occluded(this);
+    }
+
     /**
      * This method passes the required parameters to the Shade
      * method of the object to be coloured
+     * Each call works one recursion level deeper in the context, so the
+     * object can shade reflections without overwriting this ray's scratch space
      *
-     * @param lights        a list of the different lights
-     * @param objects       a list of the different shape objects
-     * @param background    the colour to be applied to the surface of the shape
-     * @return              a shape object that is coloured
+     * @param context   the lights, objects and scratch space of the current thread
+     * @param colour    the red, green and blue values of the shaded point are written here
      */
-    public final Color Shade(List<Object> lights, List<Object> objects, Color background) {
-        return object.Shade(this, lights, objects, background);
+    public final void Shade(ShadingContext context, float[] colour) {
+        counters.countHit(objectIndex);
+        context.record(this, root, objectIndex);
+        context.enter(contribution);
+        object.Shade(this, context, colour);
+        context.exit();
     }
 
     /**
@@ -83,6 +161,67 @@ public class Ray {
         return root;
     }
 
+    /**
+     * Gets the object closest to the ray's origin that was found by the last trace
+     *
+     * @return  the object hit, or null if there was none
+     */
+    public GeometricObject getObject() {
+        return object;
+    }
+
+    /**
+     * Gets the index of the part of the object that was hit, for objects made of many shapes
+     *
+     * @return  the primitive index set by the object's intersect method
+     */
+    public int getPrimitive() {
+        return primitive;
+    }
+
+    /**
+     * Gets the index of the object hit in the bounding volume hierarchy that was traced
+     *
+     * @return  the index, or -1 if the last trace hit nothing
+     */
+    public int getObjectIndex() {
+        return objectIndex;
+    }
+
+    /**
+     * Gets the counters the work of tracing this ray is added to
+     *
+     * @return  the counters
+     */
+    public RayCounters getCounters() {
+        return counters;
+    }
+
+    /**
+     * Takes a scratch stack for traversing an acceleration structure
+     * Stacks are kept with the ray so tracing does not allocate; an object that has an acceleration
+     * structure of its own gets a second stack while the one of the scene is still in use.
+     * Every call must be matched by {@link #releaseStack()}
+     *
+     * @return  an array of STACK_SIZE node indices
+     */
+    public int[] takeStack() {
+        if (stackLevel == stacks.length) {
+            int[][] grown = new int[stackLevel + 1][];
+            System.arraycopy(stacks, 0, grown, 0, stackLevel);
+            grown[stackLevel] = new int[STACK_SIZE];
+            stacks = grown;
+        }
+        return stacks[stackLevel++];
+    }
+
+    /**
+     * Gives back the stack taken last by {@link #takeStack()}
+     */
+    public void releaseStack() {
+        stackLevel--;
+    }
+
     /**
      * Sets the root value
      *
@@ -101,6 +240,42 @@ public class Ray {
         this.object = object;
     }
 
+    /**
+     * Sets the index of the part of the object that was hit
+     *
+     * @param primitive the index, meaningful only to the object hit
+     */
+    public void setPrimitive(int primitive) {
+        this.primitive = primitive;
+    }
+
+    /**
+     * Sets the index of the object hit in the bounding volume hierarchy that is being traced
+     *
+     * @param objectIndex   the index, in leaf order of the hierarchy
+     */
+    public void setObjectIndex(int objectIndex) {
+        this.objectIndex = objectIndex;
+    }
+
+    /**
+     * Sets the share of the pixel this ray can change, which limits how far its reflections are followed
+     *
+     * @param contribution  1 for camera rays, the product of the reflection and transmission coefficients on the way for others
+     */
+    public void setContribution(float contribution) {
+        this.contribution = contribution;
+    }
+
+    /**
+     * Makes the ray count its work with other rays, such as all the rays of one thread
+     *
+     * @param counters  the shared counters
+     */
+    public void setCounters(RayCounters counters) {
+        this.counters = counters;
+    }
+
     /**
      *
      * @return  a string that contains the ray origin, ray direction and the root value
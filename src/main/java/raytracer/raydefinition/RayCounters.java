@@ -0,0 +1,239 @@
+package raytracer.raydefinition;
+
+import java.util.Arrays;
+
+/**
+ * The RayCounters class
+ *
+ * Counts the work done by one thread: rays traced by kind, bounding boxes and objects tested,
+ * and how often the objects of the scene were hit. The rays of a shading context share one set
+ * of counters, so counting is plain field increments, without locks or atomic operations;
+ * the counters of all threads are added up once a frame is finished.
+ * Hits are counted in a small open-addressing table of HIT_SLOTS objects, whatever the size of the
+ * scene. When the few slots an object may go in are all taken, the least hit of them is given to it
+ * and it starts from that count (the Space-Saving scheme), so the objects hit most often are kept and
+ * their counts are at most over, never under, by what the evicted objects had.
+ */
+public class RayCounters {
+    private long primaryRays, shadowRays, reflectionRays, refractionRays, culledRays;
+    private long occluderCacheHits;
+    private long boxTests, objectTests;
+    /** Number of objects whose hits are counted at once */
+    public static final int HIT_SLOTS = 4096;
+    private static final int PROBES = 8;            // slots an object may go in, from the one it hashes to
+    private int[] hitObjects = new int[0];          // the table is made on the first hit, most rays never count one
+    private long[] hitCounts = new long[0];
+
+    /**
+     * Counts a camera ray
+     */
+    public void countPrimaryRay() {
+        primaryRays++;
+    }
+
+    /**
+     * Counts a ray towards a light
+     */
+    public void countShadowRay() {
+        shadowRays++;
+    }
+
+    /**
+     * Counts a ray leaving a reflective surface
+     */
+    public void countReflectionRay() {
+        reflectionRays++;
+    }
+
+    /**
+     * Counts a shadow ray found blocked by the object that blocked the previous one, without a traversal
+     */
+    public void countOccluderCacheHit() {
+        occluderCacheHits++;
+    }
+
+    /**
+     * Counts a ray passing through a transparent surface
+     */
+    public void countRefractionRay() {
+        refractionRays++;
+    }
+
+    /**
+     * Counts a reflected or refracted ray that was not traced, because of the depth or contribution limits
+     */
+    public void countCulledRay() {
+        culledRays++;
+    }
+
+    /**
+     * Counts the work of one traversal of an acceleration structure
+     *
+     * @param boxes     number of bounding boxes tested
+     * @param objects   number of objects, or packed spheres, tested
+     */
+    public void countTests(int boxes, int objects) {
+        boxTests += boxes;
+        objectTests += objects;
+    }
+
+    /**
+     * Counts a hit that is shaded
+     *
+     * @param object    index of the object in the hierarchy of the scene, ignored if it is negative
+     */
+    public void countHit(int object) {
+        if (object >= 0) {
+            this.addHits(object, 1);
+        }
+    }
+
+    private void addHits(int object, long hits) {
+        if (hitObjects.length == 0) {
+            hitObjects = new int[HIT_SLOTS];
+            hitCounts = new long[HIT_SLOTS];
+            Arrays.fill(hitObjects, -1);
+        }
+        int home = (object * 0x9E3779B9) >>> (Integer.SIZE - Integer.numberOfTrailingZeros(HIT_SLOTS));
+        int least = home;
+        for (int k = 0; k < PROBES; k++) {
+            int slot = (home + k) & (HIT_SLOTS - 1);
+            if (hitObjects[slot] == object) {
+                hitCounts[slot] += hits;
+                return;
+            }
+            if (hitObjects[slot] < 0) {
+                hitObjects[slot] = object;
+                hitCounts[slot] = hits;
+                return;
+            }
+            if (hitCounts[slot] < hitCounts[least]) {
+                least = slot;
+            }
+        }
+        hitObjects[least] = object;
+        hitCounts[least] += hits;
+    }
+
+    /**
+     * Adds the counts of another thread to these, and clears the other counters
+     *
+     * @param other the counters to move over, counting the objects of the same hierarchy
+     */
+    public void drain(RayCounters other) {
+        primaryRays += other.primaryRays;
+        shadowRays += other.shadowRays;
+        reflectionRays += other.reflectionRays;
+        refractionRays += other.refractionRays;
+        culledRays += other.culledRays;
+        occluderCacheHits += other.occluderCacheHits;
+        boxTests += other.boxTests;
+        objectTests += other.objectTests;
+        for (int slot = 0; slot < other.hitObjects.length; slot++) {
+            if (other.hitObjects[slot] >= 0) {
+                this.addHits(other.hitObjects[slot], other.hitCounts[slot]);
+            }
+        }
+        other.clear();
+    }
+
+    /**
+     * Sets every count back to zero
+     */
+    public void clear() {
+        primaryRays = shadowRays = reflectionRays = refractionRays = culledRays = 0;
+        occluderCacheHits = boxTests = objectTests = 0;
+        Arrays.fill(hitObjects, -1);
+        Arrays.fill(hitCounts, 0);
+    }
+
+    /**
+     * Gets the number of camera rays traced
+     *
+     * @return  the count
+     */
+    public long getPrimaryRays() {
+        return primaryRays;
+    }
+
+    /**
+     * Gets the number of rays traced towards lights
+     *
+     * @return  the count
+     */
+    public long getShadowRays() {
+        return shadowRays;
+    }
+
+    /**
+     * Gets the number of reflected rays traced
+     *
+     * @return  the count
+     */
+    public long getReflectionRays() {
+        return reflectionRays;
+    }
+
+    /**
+     * Gets the number of refracted rays traced
+     *
+     * @return  the count
+     */
+    public long getRefractionRays() {
+        return refractionRays;
+    }
+
+    /**
+     * Gets the number of reflected and refracted rays not traced because of the depth or contribution limits
+     *
+     * @return  the count
+     */
+    public long getCulledRays() {
+        return culledRays;
+    }
+
+    /**
+     * Gets the number of shadow rays answered by the occluder cache
+     *
+     * @return  the count
+     */
+    public long getOccluderCacheHits() {
+        return occluderCacheHits;
+    }
+
+    /**
+     * Gets the number of bounding boxes tested
+     *
+     * @return  the count
+     */
+    public long getBoxTests() {
+        return boxTests;
+    }
+
+    /**
+     * Gets the number of objects, or packed spheres, tested for an intersection
+     *
+     * @return  the count
+     */
+    public long getObjectTests() {
+        return objectTests;
+    }
+
+    /**
+     * Gets the objects whose hits are counted
+     *
+     * @return  one index per slot, as in the hierarchy of the scene, -1 for an empty slot; empty if nothing was hit yet
+     */
+    public int[] getHitObjects() {
+        return hitObjects;
+    }
+
+    /**
+     * Gets the hit counts of the objects, see {@link #getHitObjects()}
+     *
+     * @return  one count per slot
+     */
+    public long[] getHitCounts() {
+        return hitCounts;
+    }
+}
@@ -0,0 +1,180 @@
+package raytracer.raydefinition;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The RayFootprint class
+ *
+ * Records where the rays traced for one tile of the frame went, so that after an edit only the tiles
+ * the edit can have changed need tracing again: the cells of a coarse grid over the scene that any
+ * ray of the tile passed through, and the objects any ray of the tile was shaded with.
+ * A ray is recorded as the segment from its origin to what it hit, to the light for a shadow ray, or
+ * to where it leaves the grid; the cells are walked with the 3D DDA of Amanatides and Woo. A tile
+ * whose cells miss the old and the new bounds of a moved object cannot see it, its shadow or its
+ * reflection, before or after the move.
+ */
+public final class RayFootprint {
+    /** Number of cells along each axis of the grid */
+    public static final int CELLS = 16;
+    private final float minX, minY, minZ, maxX, maxY, maxZ;
+    private final float cellX, cellY, cellZ;
+    private final long[] cells = new long[CELLS * CELLS * CELLS / 64];
+    private final BitSet objects = new BitSet();
+
+    /**
+     * Constructor of an empty footprint
+     *
+     * @param bounds    the box the grid covers, around the objects of the scene; rays are only recorded inside it
+     */
+    public RayFootprint(BoundingBox bounds) {
+        Point3D min = bounds.getMin(), max = bounds.getMax();
+        minX = min.getX();
+        minY = min.getY();
+        minZ = min.getZ();
+        maxX = max.getX();
+        maxY = max.getY();
+        maxZ = max.getZ();
+        // a flat scene still gets cells of some thickness
+        cellX = Math.max((maxX - minX) / CELLS, Float.MIN_NORMAL);
+        cellY = Math.max((maxY - minY) / CELLS, Float.MIN_NORMAL);
+        cellZ = Math.max((maxZ - minZ) / CELLS, Float.MIN_NORMAL);
+    }
+
+    /**
+     * Forgets every ray recorded, before the tile is traced again
+     */
+    public void clear() {
+        Arrays.fill(cells, 0);
+        objects.clear();
+    }
+
+    /**
+     * Records an object a ray of the tile was shaded with
+     *
+     * @param index the index of the object in the hierarchy of the scene, see {@link Ray#getObjectIndex()}
+     */
+    public void addObject(int index) {
+        objects.set(index);
+    }
+
+    /**
+     * Records the cells a ray segment passes through
+     *
+     * @param origin    the origin of the ray
+     * @param direction the unit-length direction of the ray
+     * @param length    the length of the segment, Float.MAX_VALUE for a ray that goes on forever
+     */
+    public void addSegment(Point3D origin, Point3D direction, float length) {
+        float ox = origin.getX(), oy = origin.getY(), oz = origin.getZ();
+        float dx = direction.getX(), dy = direction.getY(), dz = direction.getZ();
+
+        // clip the segment to the grid, slab by slab
+        float t0 = 0, t1 = length;
+        if (dx != 0) {
+            float a = (minX - ox) / dx, b = (maxX - ox) / dx;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        } else if (ox < minX || ox > maxX) {
+            return;
+        }
+        if (dy != 0) {
+            float a = (minY - oy) / dy, b = (maxY - oy) / dy;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        } else if (oy < minY || oy > maxY) {
+            return;
+        }
+        if (dz != 0) {
+            float a = (minZ - oz) / dz, b = (maxZ - oz) / dz;
+            t0 = Math.max(t0, Math.min(a, b));
+            t1 = Math.min(t1, Math.max(a, b));
+        } else if (oz < minZ || oz > maxZ) {
+            return;
+        }
+        if (t0 > t1) {
+            return;
+        }
+
+        int ix = cell(ox + dx * t0 - minX, cellX), iy = cell(oy + dy * t0 - minY, cellY), iz = cell(oz + dz * t0 - minZ, cellZ);
+        int sx = dx > 0 ? 1 : -1, sy = dy > 0 ? 1 : -1, sz = dz > 0 ? 1 : -1;
+        float nextX = dx != 0 ? (minX + (ix + (dx > 0 ? 1 : 0)) * cellX - ox) / dx : Float.MAX_VALUE;
+        float nextY = dy != 0 ? (minY + (iy + (dy > 0 ? 1 : 0)) * cellY - oy) / dy : Float.MAX_VALUE;
+        float nextZ = dz != 0 ? (minZ + (iz + (dz > 0 ? 1 : 0)) * cellZ - oz) / dz : Float.MAX_VALUE;
+        float deltaX = dx != 0 ? cellX / Math.abs(dx) : Float.MAX_VALUE;
+        float deltaY = dy != 0 ? cellY / Math.abs(dy) : Float.MAX_VALUE;
+        float deltaZ = dz != 0 ? cellZ / Math.abs(dz) : Float.MAX_VALUE;
+        while (true) {
+            int c = (ix * CELLS + iy) * CELLS + iz;
+            cells[c >>> 6] |= 1L << c;
+            if (nextX <= nextY && nextX <= nextZ) {
+                if (nextX > t1 || (ix += sx) < 0 || ix >= CELLS) {
+                    return;
+                }
+                nextX += deltaX;
+            } else if (nextY <= nextZ) {
+                if (nextY > t1 || (iy += sy) < 0 || iy >= CELLS) {
+                    return;
+                }
+                nextY += deltaY;
+            } else {
+                if (nextZ > t1 || (iz += sz) < 0 || iz >= CELLS) {
+                    return;
+                }
+                nextZ += deltaZ;
+            }
+        }
+    }
+
+    /**
+     * Checks if the grid covers a box, so that rays reaching into the box were recorded
+     *
+     * @param box   the box
+     * @return      true if the box lies inside the grid
+     */
+    public boolean covers(BoundingBox box) {
+        Point3D min = box.getMin(), max = box.getMax();
+        return min.getX() >= minX && min.getY() >= minY && min.getZ() >= minZ
+                && max.getX() <= maxX && max.getY() <= maxY && max.getZ() <= maxZ;
+    }
+
+    /**
+     * Checks if any ray recorded passed through a cell that overlaps a box
+     * Cells next to the box are included, so a ray that only grazed the box across a cell corner still counts
+     *
+     * @param box   the box, inside the grid
+     * @return      true if a ray of the tile may have reached the box
+     */
+    public boolean touches(BoundingBox box) {
+        Point3D min = box.getMin(), max = box.getMax();
+        int x0 = cell(min.getX() - minX, cellX) - 1, x1 = cell(max.getX() - minX, cellX) + 1;
+        int y0 = cell(min.getY() - minY, cellY) - 1, y1 = cell(max.getY() - minY, cellY) + 1;
+        int z0 = cell(min.getZ() - minZ, cellZ) - 1, z1 = cell(max.getZ() - minZ, cellZ) + 1;
+        for (int x = Math.max(x0, 0); x <= Math.min(x1, CELLS - 1); x++) {
+            for (int y = Math.max(y0, 0); y <= Math.min(y1, CELLS - 1); y++) {
+                for (int z = Math.max(z0, 0); z <= Math.min(z1, CELLS - 1); z++) {
+                    int c = (x * CELLS + y) * CELLS + z;
+                    if ((cells[c >>> 6] & 1L << c) != 0) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checks if any ray recorded was shaded with an object
+     *
+     * @param index the index of the object in the hierarchy of the scene
+     * @return      true if the object's surface shows in the tile, directly or through reflection and refraction
+     */
+    public boolean shades(int index) {
+        return objects.get(index);
+    }
+
+    private static int cell(float offset, float size) {
+        int cell = (int) (offset / size);
+        return cell < 0 ? 0 : Math.min(cell, CELLS - 1);
+    }
+}
@@ -39,6 +39,18 @@ public class Vector3D {
         return (point.getX()*vector.point.getX() + point.getY()*vector.point.getY() + point.getZ()*vector.point.getZ());
     }
 
+    /**
+     * This method finds the dot product of this vector and a vector given by its components
+     *
+     * @param x     the x component of the other vector
+     * @param y     the y component of the other vector
+     * @param z     the z component of the other vector
+     * @return      the dot product
+     */
+    public float dotProduct(float x, float y, float z) {
+        return (point.getX()*x + point.getY()*y + point.getZ()*z);
+    }
+
     /**
      * This method finds the cross product of two vectors
      *
@@ -46,9 +58,21 @@ public class Vector3D {
      * @return          the cross product, which is a new Vector3D object
      */
     public Vector3D crossProduct(Vector3D vector) {
-        return new Vector3D(((point.getY() * vector.point.getZ()) - (point.getZ() * vector.point.getY())),
+        return crossProduct(vector, new Vector3D(0, 0, 0));
+    }
+
+    /**
+     * This method finds the cross product of two vectors and stores it in an existing vector
+     *
+     * @param vector    another vector from the Vector3D class
+     * @param result    the vector the cross product is written to, may be this vector or the other one
+     * @return          the result vector
+     */
+    public Vector3D crossProduct(Vector3D vector, Vector3D result) {
+        result.point.set(((point.getY() * vector.point.getZ()) - (point.getZ() * vector.point.getY())),
                 ((point.getZ() * vector.point.getX()) - (point.getX() * vector.point.getZ())),
                 ((point.getX() * vector.point.getY()) - (point.getY() * vector.point.getX())));
+        return result;
     }
 
     /**
@@ -64,12 +88,12 @@ public class Vector3D {
     }
 
     /**
-     * Normalizes the current Vector3D object
+     * Normalizes the current Vector3D object in place, without creating a new object
      */
     public void normalize() {
         float magnitude = magnitude(this);
         if (magnitude != 0 && magnitude != 1) magnitude = (float) (1 / Math.sqrt(magnitude));
-        new Vector3D(this.point = this.point.multiply(magnitude));
+        this.point.multiplyLocal(magnitude);
     }
 
     /**